@@ -0,0 +1,121 @@
+package dk.souyave.payments.cluster;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import dk.souyave.payments.PaymentsApp;
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.service.AccountsService;
+import reactor.core.publisher.Flux;
+
+/**
+ * Aggregate transfers per second over HTTP against a cluster of nodes on
+ * localhost, all in this JVM, as nodes are added. Transfers go to the nodes in
+ * turn between random accounts, so with n nodes (n - 1) / n of them cross
+ * nodes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ClusterBenchmark {
+
+  private static final int ACCOUNTS = 1024;
+  private static final int TRANSFERS = 1000;
+
+  @Param({ "1", "2", "3" })
+  private int nodes;
+
+  private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+  private final List<WebClient> clients = new ArrayList<>();
+  private int[] accountIds;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    int[] ports = new int[nodes];
+    List<String> urls = new ArrayList<>();
+    for (int node = 0; node < nodes; node++) {
+      ports[node] = freePort();
+      urls.add("http://localhost:" + ports[node]);
+    }
+    for (int node = 0; node < nodes; node++) {
+      contexts.add(new SpringApplication(PaymentsApp.class).run(
+          "--server.port=" + ports[node],
+          "--payments.cluster.enabled=true",
+          "--payments.cluster.nodes=" + String.join(",", urls),
+          "--payments.cluster.node=" + node,
+          "--payments.ids.node=" + node,
+          "--payments.ids.nodes=" + nodes,
+          "--logging.level.dk.souyave=WARN"));
+      clients.add(WebClient.create(urls.get(node) + "/accounts"));
+    }
+
+    // accounts are created through the first node and funded where they live
+    AccountsService accountsService = contexts.get(0).getBean(AccountsService.class);
+    ClusterNodes clusterNodes = contexts.get(0).getBean(ClusterNodes.class);
+    accountIds = new int[ACCOUNTS];
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = new Account(Account.UNASSIGNED_ID);
+      account.setCurrency("DKK");
+      accountIds[i] = accountsService.createAccount(account).block().getId();
+      contexts.get(clusterNodes.ownerOf(accountIds[i])).getBean(AccountsService.class)
+          .getAccount(accountIds[i]).block()
+          .setBalance(BigDecimal.valueOf(1_000_000_000));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    contexts.forEach(ConfigurableApplicationContext::close);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TRANSFERS)
+  public long transfers() {
+    return Flux.range(0, TRANSFERS)
+        .flatMap(i -> {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          return clients.get(i % nodes).patch()
+              .uri("/{from}/transfer/{to}/1", accountIds[random.nextInt(ACCOUNTS)],
+                  accountIds[random.nextInt(ACCOUNTS)])
+              .retrieve()
+              .toBodilessEntity();
+        }, 64)
+        .count()
+        .block();
+  }
+
+  private static int freePort() {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package dk.souyave.payments.controller;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import dk.souyave.payments.PaymentsApp;
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.service.AccountsService;
+import reactor.core.publisher.Flux;
+
+/**
+ * One dashboard poll over HTTP of every account against a running server, when
+ * only a few accounts changed since the last poll. Polls each balance in full,
+ * each balance with its last ETag, and every account in one bulk call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BalancePollingBenchmark {
+
+  private static final int ACCOUNTS = 256;
+  private static final int CHANGED = 8;
+
+  private ConfigurableApplicationContext context;
+  private WebClient webClient;
+  private final Map<Integer, Long> seen = new LinkedHashMap<>();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    context = new SpringApplication(PaymentsApp.class)
+        .run("--server.port=0", "--logging.level.dk.souyave=WARN");
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+    webClient = WebClient.create("http://localhost:" + port + "/accounts");
+
+    AccountsService accountsService = context.getBean(AccountsService.class);
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = new Account();
+      account.setCurrency("DKK");
+      account.setBalance(BigDecimal.valueOf(1_000_000_000));
+      account = accountsService.createAccount(account).block();
+      seen.put(account.getId(), account.getVersion());
+    }
+
+    // the accounts moved since the versions were seen
+    Integer[] ids = seen.keySet().toArray(Integer[]::new);
+    for (int i = 0; i < CHANGED; i += 2) {
+      accountsService.transfer(ids[i], ids[i + 1], BigDecimal.ONE).block();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public long pollEach() {
+    return Flux.fromIterable(seen.keySet())
+        .flatMap(id -> webClient.get()
+            .uri("/{id}/balance", id)
+            .retrieve()
+            .toEntity(String.class), 64)
+        .count()
+        .block();
+  }
+
+  @Benchmark
+  public long pollEachConditional() {
+    return Flux.fromIterable(seen.entrySet())
+        .flatMap(version -> webClient.get()
+            .uri("/{id}/balance", version.getKey())
+            .header(HttpHeaders.IF_NONE_MATCH, "\"" + version.getValue() + "\"")
+            .retrieve()
+            .toEntity(String.class), 64)
+        .count()
+        .block();
+  }
+
+  @Benchmark
+  public long pollChanged() {
+    return webClient.post()
+        .uri("/balances")
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(seen)
+        .retrieve()
+        .bodyToFlux(String.class)
+        .count()
+        .block();
+  }
+}
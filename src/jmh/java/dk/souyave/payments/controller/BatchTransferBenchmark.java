@@ -0,0 +1,104 @@
+package dk.souyave.payments.controller;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import dk.souyave.payments.PaymentsApp;
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.TransferRequest;
+import dk.souyave.payments.service.AccountsService;
+import reactor.core.publisher.Flux;
+
+/**
+ * Transfers per second over HTTP against a running server, making one PATCH
+ * call per transfer against sending the same transfers as one NDJSON batch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchTransferBenchmark {
+
+  private static final int ACCOUNTS = 1024;
+  private static final int TRANSFERS = 1000;
+
+  private ConfigurableApplicationContext context;
+  private WebClient webClient;
+  private List<TransferRequest> transfers;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    context = new SpringApplication(PaymentsApp.class)
+        .run("--server.port=0", "--logging.level.dk.souyave=WARN");
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+    webClient = WebClient.create("http://localhost:" + port + "/accounts");
+
+    AccountsService accountsService = context.getBean(AccountsService.class);
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = new Account();
+      account.setCurrency("DKK");
+      account.setBalance(BigDecimal.valueOf(1_000_000_000));
+      accountsService.createAccount(account).block();
+    }
+
+    transfers = IntStream.range(0, TRANSFERS)
+        .mapToObj(i -> new TransferRequest(1 + i % ACCOUNTS, 1 + (i * 31 + 7) % ACCOUNTS, BigDecimal.ONE))
+        .toList();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TRANSFERS)
+  public long singleCalls() {
+    return Flux.fromIterable(transfers)
+        .flatMap(transfer -> webClient.patch()
+            .uri("/{from}/transfer/{to}/{amount}", transfer.getFromAccountId(), transfer.getToAccountId(),
+                transfer.getAmount())
+            .retrieve()
+            .toBodilessEntity(), 64)
+        .count()
+        .block();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TRANSFERS)
+  public long batch() {
+    return webClient.post()
+        .uri("/transfers/batch")
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .accept(MediaType.APPLICATION_NDJSON)
+        .body(Flux.fromIterable(transfers), TransferRequest.class)
+        .retrieve()
+        // one line per transfer result
+        .bodyToFlux(String.class)
+        .count()
+        .block();
+  }
+}
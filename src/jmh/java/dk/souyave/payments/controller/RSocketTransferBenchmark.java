@@ -0,0 +1,182 @@
+package dk.souyave.payments.controller;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.rsocket.context.RSocketServerInitializedEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.messaging.rsocket.RSocketStrategies;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import dk.souyave.payments.PaymentsApp;
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransferRequest;
+import dk.souyave.payments.domain.TransferResult;
+import dk.souyave.payments.service.AccountsService;
+import reactor.core.publisher.Flux;
+
+/**
+ * Transfers over JSON and HTTP against CBOR over one RSocket connection, to a
+ * running server. Throughput is measured with 64 single transfers in flight at
+ * a time and with 1 000 transfers streamed as a batch, latency with a single
+ * transfer at a time. RSocket runs as a websocket on the HTTP port or on a TCP
+ * port of its own
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RSocketTransferBenchmark {
+
+  private static final int ACCOUNTS = 1024;
+  private static final int TRANSFERS = 1000;
+
+  @Param({ "websocket", "tcp" })
+  private String transport;
+
+  private ConfigurableApplicationContext context;
+  private WebClient webClient;
+  private RSocketRequester requester;
+  private List<TransferRequest> transfers;
+  private int rsocketPort;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SpringApplication application = new SpringApplication(PaymentsApp.class);
+    application.addListeners(new ApplicationListener<RSocketServerInitializedEvent>() {
+      @Override
+      public void onApplicationEvent(RSocketServerInitializedEvent event) {
+        rsocketPort = event.getServer().address().getPort();
+      }
+    });
+    context = transport.equals("tcp")
+        ? application.run("--server.port=0", "--spring.rsocket.server.port=0",
+            "--spring.rsocket.server.transport=tcp", "--logging.level.dk.souyave=WARN")
+        : application.run("--server.port=0", "--logging.level.dk.souyave=WARN");
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+    // decodes the results with the same object mapper as the server
+    webClient = context.getBean(WebClient.Builder.class).baseUrl("http://localhost:" + port + "/accounts").build();
+
+    RSocketRequester.Builder builder = RSocketRequester.builder()
+        .rsocketStrategies(context.getBean(RSocketStrategies.class))
+        .dataMimeType(MediaType.APPLICATION_CBOR);
+    requester = transport.equals("tcp")
+        ? builder.tcp("localhost", rsocketPort)
+        : builder.websocket(URI.create("ws://localhost:" + port + "/rsocket"));
+
+    AccountsService accountsService = context.getBean(AccountsService.class);
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = new Account();
+      account.setCurrency("DKK");
+      account.setBalance(BigDecimal.valueOf(1_000_000_000));
+      accountsService.createAccount(account).block();
+    }
+
+    transfers = IntStream.range(0, TRANSFERS)
+        .mapToObj(i -> new TransferRequest(1 + i % ACCOUNTS, 1 + (i * 31 + 7) % ACCOUNTS, BigDecimal.ONE))
+        .toList();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    requester.dispose();
+    context.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TRANSFERS)
+  public long restSingleCalls() {
+    return Flux.fromIterable(transfers)
+        .flatMap(transfer -> webClient.patch()
+            .uri("/{from}/transfer/{to}/{amount}", transfer.getFromAccountId(), transfer.getToAccountId(),
+                transfer.getAmount())
+            .retrieve()
+            .toBodilessEntity(), 64)
+        .count()
+        .block();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TRANSFERS)
+  public long rsocketSingleCalls() {
+    return Flux.fromIterable(transfers)
+        .flatMap(transfer -> requester.route("transfer")
+            .data(transfer)
+            .retrieveMono(Transaction.class), 64)
+        .count()
+        .block();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TRANSFERS)
+  public long restBatch() {
+    return webClient.post()
+        .uri("/transfers/batch")
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .accept(MediaType.APPLICATION_NDJSON)
+        .body(Flux.fromIterable(transfers), TransferRequest.class)
+        .retrieve()
+        .bodyToFlux(TransferResult.class)
+        .count()
+        .block();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TRANSFERS)
+  public long rsocketChannel() {
+    return requester.route("transfers")
+        .data(Flux.fromIterable(transfers))
+        .retrieveFlux(TransferResult.class)
+        .count()
+        .block();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Transaction restLatency() {
+    TransferRequest transfer = transfers.get(ThreadLocalRandom.current().nextInt(TRANSFERS));
+    return webClient.patch()
+        .uri("/{from}/transfer/{to}/{amount}", transfer.getFromAccountId(), transfer.getToAccountId(),
+            transfer.getAmount())
+        .retrieve()
+        .bodyToMono(Transaction.class)
+        .block();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Transaction rsocketLatency() {
+    return requester.route("transfer")
+        .data(transfers.get(ThreadLocalRandom.current().nextInt(TRANSFERS)))
+        .retrieveMono(Transaction.class)
+        .block();
+  }
+}
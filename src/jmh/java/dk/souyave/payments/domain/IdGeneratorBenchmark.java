@@ -0,0 +1,50 @@
+package dk.souyave.payments.domain;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per id of the block allocating generator against the shared atomic
+ * counter it replaced, taking a debit and credit pair of ids as a transfer
+ * does. Run with -t to set how many threads contend for ids
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class IdGeneratorBenchmark {
+
+  private AtomicInteger counter;
+  private IdGenerator generator;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    counter = new AtomicInteger(1);
+    generator = new IdGenerator("benchmark");
+    generator.configure(64, 0, 1, null, 65_536);
+  }
+
+  @Benchmark
+  public int atomicCounter() {
+    return counter.getAndAdd(2);
+  }
+
+  @Benchmark
+  public long blockAllocated() {
+    return generator.next(2);
+  }
+}
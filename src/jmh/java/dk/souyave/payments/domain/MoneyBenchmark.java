@@ -0,0 +1,102 @@
+package dk.souyave.payments.domain;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Balance check and update of a transfer done the old way with BigDecimal
+ * balances against the fixed point minor unit balances. Run with '-prof gc' to
+ * see the allocation rate of each. The same update on plain long fields
+ * separates the cost of the representation from the volatile balance and the
+ * version bump of an Account.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+
+  private BigDecimal fromBalance;
+  private BigDecimal toBalance;
+  private BigDecimal amount;
+
+  private Account fromAccount;
+  private Account toAccount;
+  private long minorAmount;
+
+  private long fromMinorBalance;
+  private long toMinorBalance;
+
+  @Setup
+  public void setUp() {
+    fromBalance = new BigDecimal("1000000000.00");
+    toBalance = BigDecimal.ZERO;
+    amount = new BigDecimal("12.34");
+
+    fromAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(fromBalance);
+    toAccount = new Account();
+    toAccount.setCurrency("DKK");
+    minorAmount = Money.toMinorExact(amount, fromAccount.getScale());
+    fromMinorBalance = fromAccount.getMinorBalance();
+  }
+
+  @Benchmark
+  public boolean bigDecimalTransfer() {
+    if (fromBalance.compareTo(amount) < 0) {
+      return false;
+    }
+    fromBalance = fromBalance.subtract(amount);
+    toBalance = toBalance.add(amount);
+
+    // keep the balances from running dry over the run
+    BigDecimal swap = fromBalance;
+    fromBalance = toBalance;
+    toBalance = swap;
+    return true;
+  }
+
+  @Benchmark
+  public boolean fixedPointTransfer() {
+    if (fromAccount.getMinorBalance() < minorAmount) {
+      return false;
+    }
+    fromAccount.debit(minorAmount);
+    toAccount.credit(minorAmount);
+
+    // keep the balances from running dry over the run
+    Account swap = fromAccount;
+    fromAccount = toAccount;
+    toAccount = swap;
+    return true;
+  }
+
+  @Benchmark
+  public boolean minorUnitsTransfer() {
+    if (fromMinorBalance < minorAmount) {
+      return false;
+    }
+    fromMinorBalance -= minorAmount;
+    toMinorBalance += minorAmount;
+
+    // keep the balances from running dry over the run
+    long swap = fromMinorBalance;
+    fromMinorBalance = toMinorBalance;
+    toMinorBalance = swap;
+    return true;
+  }
+}
@@ -0,0 +1,104 @@
+package dk.souyave.payments.journal;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.EpochMicros;
+
+/**
+ * Time to recover the ledger on startup as it grows, replaying the whole
+ * journal against loading a snapshot with only the journal tail after it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class JournalRecoveryBenchmark {
+
+  private static final int ACCOUNTS = 1_000;
+  private static final int TAIL = 1_000;
+
+  @Param({ "10000", "100000", "1000000" })
+  private int transfers;
+
+  @Param({ "journal", "snapshot" })
+  private String recovery;
+
+  private Path directory;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("recovery-benchmark");
+    TransferJournal journal = journal();
+    journal.open(new SnapshotState(20));
+
+    Account[] accounts = new Account[ACCOUNTS];
+    for (int i = 0; i < ACCOUNTS; i++) {
+      accounts[i] = new Account(i + 1);
+      accounts[i].setCurrency("DKK");
+      accounts[i].setBalance(BigDecimal.valueOf(1_000_000));
+      journal.accountCreated(accounts[i]);
+    }
+
+    for (int i = 0; i < transfers; i++) {
+      if ("snapshot".equals(recovery) && i == transfers - TAIL) {
+        journal.sync().block();
+        journal.requestRoll();
+        while (journal.closedSegments().isEmpty()) {
+          Thread.onSpinWait();
+        }
+        journal.snapshot();
+      }
+      Account from = accounts[i % ACCOUNTS];
+      Account to = accounts[(i * 31 + 7) % ACCOUNTS];
+      journal.transfer(from, to, 1, 2 * i + 1, EpochMicros.now());
+    }
+    journal.sync().block();
+    journal.destroy();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public SnapshotState recover() throws IOException {
+    SnapshotState state = new SnapshotState(20);
+    TransferJournal journal = journal();
+    journal.open(state);
+    journal.destroy();
+    return state;
+  }
+
+  private TransferJournal journal() {
+    return new TransferJournal(true, directory, FsyncPolicy.TIME, Duration.ofMillis(1), 256,
+        DataSize.ofMegabytes(64), Duration.ofHours(1), 20);
+  }
+}
@@ -0,0 +1,76 @@
+package dk.souyave.payments.journal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.EpochMicros;
+
+/**
+ * Durable transfers per second with many concurrent writers, each appending a
+ * transfer and waiting for it to be on disk. Group commit (time and count)
+ * should beat one fsync per transfer (per-write) by roughly the batch size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class TransferJournalBenchmark {
+
+  @Param({ "PER_WRITE", "TIME", "COUNT" })
+  private FsyncPolicy fsync;
+
+  private Path directory;
+  private TransferJournal journal;
+  private Account fromAccount;
+  private Account toAccount;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal-benchmark");
+    journal = new TransferJournal(true, directory, fsync, Duration.ofMillis(1), 32, DataSize.ofMegabytes(64),
+        Duration.ofHours(1), 20);
+    journal.open(new SnapshotState(20));
+
+    fromAccount = new Account(1);
+    toAccount = new Account(2);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    journal.destroy();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public void durableTransfer() {
+    journal.transfer(fromAccount, toAccount, 100, 1, EpochMicros.now());
+    journal.sync().block();
+  }
+}
@@ -0,0 +1,51 @@
+package dk.souyave.payments.repo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.souyave.payments.domain.Account;
+
+/**
+ * Cost of looking up an account as the number of accounts grows
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AccountsRepoBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  private int accounts;
+
+  private AccountsRepo accountsRepo;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    accountsRepo = new InMemoryAccountsRepo();
+    for (int i = 1; i <= accounts; i++) {
+      Account account = new Account(i);
+      account.setCurrency("DKK");
+      accountsRepo.createAccount(account);
+    }
+  }
+
+  @Benchmark
+  public Account getAccount() {
+    return accountsRepo.getAccount(1 + ThreadLocalRandom.current().nextInt(accounts)).block();
+  }
+}
@@ -0,0 +1,61 @@
+package dk.souyave.payments.repo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.souyave.payments.domain.Account;
+
+/**
+ * Raw lookup cost of the int keyed account store against the boxed
+ * ConcurrentHashMap it replaced, without the Mono wrapping of the repository
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class IntKeyedStoreBenchmark {
+
+  @Param({ "1000", "100000", "1000000" })
+  private int accounts;
+
+  private IntKeyedStore<Account> store;
+  private Map<Integer, Account> map;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    store = new IntKeyedStore<>();
+    map = new ConcurrentHashMap<>();
+    for (int i = 1; i <= accounts; i++) {
+      Account account = new Account(i);
+      store.put(i, account);
+      map.put(i, account);
+    }
+  }
+
+  @Benchmark
+  public Account intKeyedStore() {
+    return store.get(1 + ThreadLocalRandom.current().nextInt(accounts));
+  }
+
+  @Benchmark
+  public Account concurrentHashMap() {
+    return map.get(1 + ThreadLocalRandom.current().nextInt(accounts));
+  }
+}
@@ -0,0 +1,70 @@
+package dk.souyave.payments.repo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+
+/**
+ * A mini statement of an account whose history is all archived, as a single
+ * run of one to a hundred thousand transactions in a segment
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SegmentStatementBenchmark {
+
+  @Param({ "1000", "10000", "100000" })
+  private int transactions;
+
+  private Path directory;
+  private InMemoryTransactionRepo transactionRepo;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("segments");
+    // the hot tier is archived once it holds every transaction
+    transactionRepo = new InMemoryTransactionRepo(true, directory, transactions, Duration.ofDays(1), false);
+    transactionRepo.afterPropertiesSet();
+    for (int i = 0; i < transactions; i++) {
+      transactionRepo.save(i, 1, TransactionType.DEBIT, 100, 1_000_000 - i, 2, 1_000_000L + i);
+    }
+    // seals the full tier and archives it
+    transactionRepo.save(transactions, 2, TransactionType.DEBIT, 100, 0, 2, 1_000_000L + transactions);
+    transactionRepo.awaitArchival();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException, IOException {
+    transactionRepo.destroy();
+    FileSystemUtils.deleteRecursively(directory);
+  }
+
+  @Benchmark
+  public List<Transaction> miniStatement() {
+    return transactionRepo.findAllByAccountIdOrderByDate(1, 20).collectList().block();
+  }
+}
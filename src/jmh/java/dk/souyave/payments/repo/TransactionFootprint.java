@@ -0,0 +1,53 @@
+package dk.souyave.payments.repo;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+
+/**
+ * Retained heap of the transaction ledger per stored transaction, measured by
+ * walking the whole object graph of the repository with JOL. Not a JMH
+ * benchmark, so after ./mvnw -Pbenchmark test-compile run it on the test
+ * classpath with:
+ *
+ * <pre>
+ * java -Djol.magicFieldOffset=true -cp &lt;classpath&gt; dk.souyave.payments.repo.TransactionFootprint [transactions] [accounts] [archive directory]
+ * </pre>
+ *
+ * Given an archive directory, the ledger archives every 100 000 transactions
+ * there, and only what is still held in heap is counted.
+ */
+public class TransactionFootprint {
+
+  public static void main(String[] args) throws Exception {
+    int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+    InMemoryTransactionRepo transactionRepo = args.length > 2
+        ? new InMemoryTransactionRepo(true, Path.of(args[2]), 100_000, Duration.ofDays(1), false)
+        : new InMemoryTransactionRepo();
+    transactionRepo.afterPropertiesSet();
+    long empty = GraphLayout.parseInstance(transactionRepo).totalSize();
+
+    BigDecimal amount = new BigDecimal("12.50"), balance = new BigDecimal("1000.00");
+    for (int i = 0; i < transactions; i++) {
+      transactionRepo.save(Transaction.builder()
+          .accountId(i % accounts)
+          .amount(amount)
+          .balance(balance)
+          .type(i % 2 == 0 ? TransactionType.DEBIT : TransactionType.CREDIT)
+          .build());
+    }
+
+    transactionRepo.awaitArchival();
+    long total = GraphLayout.parseInstance(transactionRepo).totalSize() - empty;
+    System.out.printf("%d transactions over %d accounts: %d bytes, %.1f bytes/transaction%n",
+        transactions, accounts, total, (double) total / transactions);
+    transactionRepo.destroy();
+  }
+}
@@ -0,0 +1,78 @@
+package dk.souyave.payments.repo;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+
+/**
+ * Cost of storing a transaction and of a mini statement as the number of
+ * stored transactions grows from a thousand to ten million, spread over a fixed
+ * set of accounts
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TransactionRepoBenchmark {
+
+  private static final int ACCOUNTS = 1_000;
+
+  @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+  private int transactions;
+
+  private TransactionRepo transactionRepo;
+  private Account[] accounts;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    transactionRepo = new InMemoryTransactionRepo();
+    accounts = new Account[ACCOUNTS];
+    for (int i = 0; i < ACCOUNTS; i++) {
+      accounts[i] = new Account(i + 1);
+      accounts[i].setCurrency("DKK");
+    }
+    for (int i = 0; i < transactions; i++) {
+      transactionRepo.save(transaction(accounts[i % ACCOUNTS]));
+    }
+  }
+
+  @Benchmark
+  public Transaction save() {
+    return transactionRepo.save(transaction(accounts[ThreadLocalRandom.current().nextInt(ACCOUNTS)])).block();
+  }
+
+  @Benchmark
+  public List<Transaction> miniStatement() {
+    return transactionRepo.findAllByAccountIdOrderByDate(1 + ThreadLocalRandom.current().nextInt(ACCOUNTS), 20)
+        .collectList()
+        .block();
+  }
+
+  private static Transaction transaction(Account account) {
+    return Transaction.builder()
+        .accountId(account.getId())
+        .amount(BigDecimal.ONE)
+        .type(TransactionType.DEBIT)
+        .build();
+  }
+}
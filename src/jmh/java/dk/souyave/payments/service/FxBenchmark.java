@@ -0,0 +1,126 @@
+package dk.souyave.payments.service;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.RateSheet;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.journal.FsyncPolicy;
+import dk.souyave.payments.journal.TransferJournal;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InMemoryAccountsRepo;
+import dk.souyave.payments.repo.InMemoryTransactionRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * What converting adds to a transfer: a transfer between accounts in the same
+ * currency against one between currencies, and the conversion on its own with
+ * the precomputed fixed point cross rate against BigDecimal arithmetic on the
+ * quoted rates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FxBenchmark {
+
+  private static final int ACCOUNTS = 1024;
+  private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+  private static final Map<String, BigDecimal> RATES = Map.of(
+      "DKK", new BigDecimal("7.4581"),
+      "USD", new BigDecimal("1.0842"));
+
+  private AccountsService accountsService;
+  private TransactionRepo transactionRepo;
+  private FxRates fxRates;
+  private Account[] dkkAccounts;
+  private Account[] usdAccounts;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    AccountsRepo accountsRepo = new InMemoryAccountsRepo();
+    transactionRepo = new InMemoryTransactionRepo();
+    TransferJournal journal = new TransferJournal(false, Path.of("unused"), FsyncPolicy.TIME, Duration.ofMillis(2),
+        256, DataSize.ofMegabytes(64), Duration.ofMinutes(1), 20);
+    fxRates = new FxRates();
+    fxRates.replace(new RateSheet("EUR", RATES));
+    accountsService = new AccountsService(accountsRepo, transactionRepo, new LockingTransferEngine(1024), journal,
+        new AccountFeed(256), new TransferMetrics(new SimpleMeterRegistry(), accountsRepo, transactionRepo),
+        new TransferAudit(65_536, 1024, Duration.ofMillis(100)), new RepoScheduler(RepoExecution.PARALLEL),
+        fxRates, Optional.empty(), Optional.empty(), 64, 10_000);
+
+    dkkAccounts = new Account[ACCOUNTS];
+    usdAccounts = new Account[ACCOUNTS];
+    for (int i = 0; i < ACCOUNTS; i++) {
+      dkkAccounts[i] = account(accountsRepo, i + 1, "DKK");
+      usdAccounts[i] = account(accountsRepo, ACCOUNTS + i + 1, "USD");
+    }
+  }
+
+  // keep the transaction store from growing over the whole run
+  @Setup(Level.Iteration)
+  public void clearTransactions() {
+    transactionRepo.clearAll();
+  }
+
+  @Benchmark
+  public Transaction sameCurrencyTransfer() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return accountsService.processTransfer(dkkAccounts[random.nextInt(ACCOUNTS)],
+        dkkAccounts[random.nextInt(ACCOUNTS)], AMOUNT).block();
+  }
+
+  @Benchmark
+  public Transaction crossCurrencyTransfer() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return accountsService.processTransfer(dkkAccounts[random.nextInt(ACCOUNTS)],
+        usdAccounts[random.nextInt(ACCOUNTS)], AMOUNT).block();
+  }
+
+  @Benchmark
+  public long convertFixedPoint() {
+    return fxRates.crossRate("DKK", "USD").convert(ThreadLocalRandom.current().nextLong(1, 1_000_000));
+  }
+
+  @Benchmark
+  public long convertBigDecimal() {
+    BigDecimal amount = BigDecimal.valueOf(ThreadLocalRandom.current().nextLong(1, 1_000_000), 2);
+    return amount.multiply(RATES.get("USD"))
+        .divide(RATES.get("DKK"), MathContext.DECIMAL64)
+        .setScale(2, RoundingMode.HALF_UP)
+        .unscaledValue()
+        .longValue();
+  }
+
+  private static Account account(AccountsRepo accountsRepo, int id, String currency) {
+    Account account = new Account(id);
+    account.setCurrency(currency);
+    account.setBalance(BigDecimal.valueOf(1_000_000_000));
+    accountsRepo.createAccount(account);
+    return account;
+  }
+}
@@ -0,0 +1,98 @@
+package dk.souyave.payments.service;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.journal.FsyncPolicy;
+import dk.souyave.payments.journal.TransferJournal;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InMemoryAccountsRepo;
+import dk.souyave.payments.repo.InMemoryTransactionRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Transfers from many accounts into a single merchant account from every core,
+ * with the merchant balance locked per credit or striped
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HotAccountBenchmark {
+
+  private static final int SENDERS = 1024;
+  private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+  @Param({ "false", "true" })
+  private boolean striped;
+
+  private AccountsService accountsService;
+  private TransactionRepo transactionRepo;
+  private Account merchant;
+  private Account[] senders;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // the merchant takes id 0, clear of the senders
+    AccountsRepo accountsRepo = new InMemoryAccountsRepo();
+    transactionRepo = new InMemoryTransactionRepo();
+    TransferJournal journal = new TransferJournal(false, Path.of("unused"), FsyncPolicy.TIME, Duration.ofMillis(2),
+        256, DataSize.ofMegabytes(64), Duration.ofMinutes(1), 20);
+    accountsService = new AccountsService(accountsRepo, transactionRepo, new LockingTransferEngine(1024), journal,
+        new AccountFeed(256), new TransferMetrics(new SimpleMeterRegistry(), accountsRepo, transactionRepo),
+        new TransferAudit(65_536, 1024, Duration.ofMillis(100)), new RepoScheduler(RepoExecution.PARALLEL),
+        new FxRates(), Optional.empty(), Optional.empty(), 64, 10_000);
+
+    merchant = new Account(0);
+    if (striped) {
+      merchant.stripeBalance();
+    }
+    merchant.setCurrency("DKK");
+    accountsRepo.createAccount(merchant);
+
+    senders = new Account[SENDERS];
+    for (int i = 0; i < SENDERS; i++) {
+      senders[i] = new Account(i + 1);
+      senders[i].setCurrency("DKK");
+      senders[i].setBalance(BigDecimal.valueOf(1_000_000_000));
+      accountsRepo.createAccount(senders[i]);
+    }
+  }
+
+  // keep the transaction store from growing over the whole run
+  @Setup(Level.Iteration)
+  public void clearTransactions() {
+    transactionRepo.clearAll();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public Transaction payMerchant() {
+    return accountsService.processTransfer(senders[ThreadLocalRandom.current().nextInt(SENDERS)], merchant, AMOUNT)
+        .block();
+  }
+}
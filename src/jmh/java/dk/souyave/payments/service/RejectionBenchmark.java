@@ -0,0 +1,94 @@
+package dk.souyave.payments.service;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.unit.DataSize;
+
+import ch.qos.logback.classic.LoggerContext;
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.journal.FsyncPolicy;
+import dk.souyave.payments.journal.TransferJournal;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InMemoryAccountsRepo;
+import dk.souyave.payments.repo.InMemoryTransactionRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Signal;
+
+/**
+ * Cost of turning transfers down, as in a flood of retries against drained
+ * accounts or lookups of accounts that do not exist. Every transfer here is
+ * rejected, with logging off so only the rejection itself is measured. Run
+ * with -prof gc to see what each rejection allocates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(1)
+public class RejectionBenchmark {
+
+  private static final int ACCOUNTS = 1024;
+  private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+  private AccountsService accountsService;
+  private Account[] accounts;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // keep debug logging and the audit trail out of the measurement
+    LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+    context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).setLevel(ch.qos.logback.classic.Level.OFF);
+
+    AccountsRepo accountsRepo = new InMemoryAccountsRepo();
+    TransactionRepo transactionRepo = new InMemoryTransactionRepo();
+    TransferJournal journal = new TransferJournal(false, Path.of("unused"), FsyncPolicy.TIME, Duration.ofMillis(2),
+        256, DataSize.ofMegabytes(64), Duration.ofMinutes(1), 20);
+    accountsService = new AccountsService(accountsRepo, transactionRepo, new LockingTransferEngine(1024), journal,
+        new AccountFeed(256), new TransferMetrics(new SimpleMeterRegistry(), accountsRepo, transactionRepo),
+        new TransferAudit(65_536, 1024, Duration.ofMillis(100)), new RepoScheduler(RepoExecution.PARALLEL),
+        new FxRates(), Optional.empty(), Optional.empty(), 64, 10_000);
+
+    // every account is empty, so every transfer between them lacks funds
+    accounts = new Account[ACCOUNTS];
+    for (int i = 0; i < ACCOUNTS; i++) {
+      accounts[i] = new Account(i + 1);
+      accounts[i].setCurrency("DKK");
+      accountsRepo.createAccount(accounts[i]);
+    }
+  }
+
+  @Benchmark
+  public Signal<?> insufficientFunds() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return accountsService.processTransfer(accounts[random.nextInt(ACCOUNTS)], accounts[random.nextInt(ACCOUNTS)],
+        AMOUNT).materialize().block();
+  }
+
+  @Benchmark
+  public Signal<?> unknownAccount() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return accountsService.transfer(random.nextInt(ACCOUNTS) + 1, ACCOUNTS + 1 + random.nextInt(ACCOUNTS), AMOUNT)
+        .materialize().block();
+  }
+}
@@ -0,0 +1,130 @@
+package dk.souyave.payments.service;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.util.unit.DataSize;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.journal.FsyncPolicy;
+import dk.souyave.payments.journal.TransferJournal;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InMemoryAccountsRepo;
+import dk.souyave.payments.repo.InMemoryTransactionRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import dk.souyave.payments.repo.TransferStore;
+import dk.souyave.payments.repo.r2dbc.R2dbcAccountsRepo;
+import dk.souyave.payments.repo.r2dbc.R2dbcConfig;
+import dk.souyave.payments.repo.r2dbc.R2dbcTransactionRepo;
+import dk.souyave.payments.repo.r2dbc.R2dbcTransferStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+
+/**
+ * End to end transfers by account id, lookups included, through the service on
+ * each repository backend. The r2dbc backend runs against embedded in memory
+ * H2, so it measures the cost of going through SQL and database transactions
+ * rather than of a network or disk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RepoBackendBenchmark {
+
+  private static final int ACCOUNTS = 1024;
+  private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+  @Param({ "memory", "r2dbc" })
+  private String backend;
+
+  private AccountsService accountsService;
+  private TransactionRepo transactionRepo;
+  private ConnectionPool connectionPool;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    AccountsRepo accountsRepo;
+    Optional<TransferStore> transferStore;
+    if ("r2dbc".equals(backend)) {
+      connectionPool = R2dbcConfig.createConnectionPool("r2dbc:h2:mem:///benchmark?options=DB_CLOSE_DELAY=-1",
+          Runtime.getRuntime().availableProcessors() * 2);
+      DatabaseClient databaseClient = R2dbcConfig.createDatabaseClient(connectionPool);
+      R2dbcTransactionRepo r2dbcTransactionRepo = new R2dbcTransactionRepo(databaseClient);
+      accountsRepo = new R2dbcAccountsRepo(databaseClient);
+      transactionRepo = r2dbcTransactionRepo;
+      transferStore = Optional.of(new R2dbcTransferStore(databaseClient, r2dbcTransactionRepo,
+          TransactionalOperator.create(new R2dbcTransactionManager(connectionPool))));
+    } else {
+      accountsRepo = new InMemoryAccountsRepo();
+      transactionRepo = new InMemoryTransactionRepo();
+      transferStore = Optional.empty();
+    }
+    accountsRepo.clearAll();
+
+    TransferJournal journal = new TransferJournal(false, Path.of("unused"), FsyncPolicy.TIME, Duration.ofMillis(2),
+        256, DataSize.ofMegabytes(64), Duration.ofMinutes(1), 20);
+    accountsService = new AccountsService(accountsRepo, transactionRepo, new LockingTransferEngine(1024), journal,
+        new AccountFeed(256), new TransferMetrics(new SimpleMeterRegistry(), accountsRepo, transactionRepo),
+        new TransferAudit(65_536, 1024, Duration.ofMillis(100)), new RepoScheduler(RepoExecution.PARALLEL),
+        new FxRates(), transferStore, Optional.empty(), 64, 10_000);
+
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = new Account();
+      account.setCurrency("DKK");
+      account.setBalance(BigDecimal.valueOf(1_000_000_000));
+      accountsRepo.createAccount(account).block();
+    }
+  }
+
+  // keep the transaction store from growing over the whole run
+  @Setup(Level.Iteration)
+  public void clearTransactions() {
+    transactionRepo.clearAll();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (connectionPool != null) {
+      connectionPool.dispose();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Transaction transfer() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return accountsService.transfer(random.nextInt(ACCOUNTS) + 1, random.nextInt(ACCOUNTS) + 1, AMOUNT).block();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public Transaction transferConcurrent() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return accountsService.transfer(random.nextInt(ACCOUNTS) + 1, random.nextInt(ACCOUNTS) + 1, AMOUNT).block();
+  }
+}
@@ -0,0 +1,113 @@
+package dk.souyave.payments.service;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.journal.FsyncPolicy;
+import dk.souyave.payments.journal.TransferJournal;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InMemoryAccountsRepo;
+import dk.souyave.payments.repo.InMemoryTransactionRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+/**
+ * Latency distribution of mini statements from many concurrent clients when
+ * every transaction store query blocks, as it would on JDBC or a file, for each
+ * way of running repository queries. VIRTUAL falls back to bounded elastic
+ * below Java 21, so run it on a Java 21 fork with -jvm &lt;java 21&gt;/bin/java
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Threads(200)
+public class RepoSchedulerBenchmark {
+
+  @Param({ "PARALLEL", "BOUNDED_ELASTIC", "VIRTUAL" })
+  private RepoExecution execution;
+
+  // how long each store query blocks
+  @Param({ "1" })
+  private int blockingMillis;
+
+  private AccountsService accountsService;
+  private RepoScheduler repoScheduler;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    AccountsRepo accountsRepo = new InMemoryAccountsRepo();
+    InMemoryTransactionRepo transactionRepo = new BlockingTransactionRepo(
+        TimeUnit.MILLISECONDS.toNanos(blockingMillis));
+    TransferJournal journal = new TransferJournal(false, Path.of("unused"), FsyncPolicy.TIME, Duration.ofMillis(2),
+        256, DataSize.ofMegabytes(64), Duration.ofMinutes(1), 20);
+    repoScheduler = new RepoScheduler(execution);
+    accountsService = new AccountsService(accountsRepo, transactionRepo, new LockingTransferEngine(1024), journal,
+        new AccountFeed(256), new TransferMetrics(new SimpleMeterRegistry(), accountsRepo, transactionRepo),
+        new TransferAudit(65_536, 1024, Duration.ofMillis(100)), repoScheduler, new FxRates(),
+        Optional.empty(), Optional.empty(), 64, 10_000);
+
+    Account account = new Account(1);
+    account.setCurrency("DKK");
+    accountsRepo.createAccount(account);
+    for (int i = 0; i < 100; i++) {
+      transactionRepo.save(i, 1, TransactionType.CREDIT, 100, 100L * i, 2, EpochMicros.now());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    repoScheduler.destroy();
+  }
+
+  @Benchmark
+  public List<Transaction> miniStatement() {
+    return accountsService.miniList(1).collectList().block();
+  }
+
+  /**
+   * Transaction store whose queries block the calling thread first
+   */
+  private static class BlockingTransactionRepo extends InMemoryTransactionRepo {
+
+    private final long blockingNanos;
+
+    BlockingTransactionRepo(long blockingNanos) {
+      this.blockingNanos = blockingNanos;
+    }
+
+    @Override
+    public Flux<Transaction> findAllByAccountIdOrderByDate(int accountId, int size) {
+      return Flux.defer(() -> {
+        LockSupport.parkNanos(blockingNanos);
+        return super.findAllByAccountIdOrderByDate(accountId, size);
+      });
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package dk.souyave.payments.service;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+
+/**
+ * Throughput of the transfer engines with every core submitting transfers
+ * between random pairs of accounts. Compare the sharded engine across shard
+ * counts against the locking engine to see how it scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class TransferEngineBenchmark {
+
+  private static final int ACCOUNTS = 1024;
+  private static final long AMOUNT = 100;
+
+  @Param({ "locking", "sharded" })
+  private String engine;
+
+  @Param({ "1", "2", "4", "8" })
+  private int shards;
+
+  private TransferEngine transferEngine;
+  private Account[] accounts;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    transferEngine = "sharded".equals(engine)
+        ? new ShardedTransferEngine(shards)
+        : new LockingTransferEngine(1024);
+
+    accounts = new Account[ACCOUNTS];
+    for (int i = 0; i < ACCOUNTS; i++) {
+      accounts[i] = new Account();
+      accounts[i].setCurrency("DKK");
+      accounts[i].setBalance(BigDecimal.valueOf(Long.MAX_VALUE / 1000));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (transferEngine instanceof ShardedTransferEngine sharded) {
+      sharded.destroy();
+    }
+  }
+
+  @Benchmark
+  public Transaction transfer() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Account from = accounts[random.nextInt(ACCOUNTS)];
+    Account to = accounts[random.nextInt(ACCOUNTS)];
+
+    return transferEngine.transfer(from, to,
+        () -> {
+          from.debit(AMOUNT);
+          return null;
+        },
+        debit -> to.credit(AMOUNT))
+        .block();
+  }
+}
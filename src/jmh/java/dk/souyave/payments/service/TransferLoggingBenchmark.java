@@ -0,0 +1,128 @@
+package dk.souyave.payments.service;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.unit.DataSize;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.ConsoleAppender;
+import ch.qos.logback.core.joran.spi.JoranException;
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.journal.FsyncPolicy;
+import dk.souyave.payments.journal.TransferJournal;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InMemoryAccountsRepo;
+import dk.souyave.payments.repo.InMemoryTransactionRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Latency distribution of transfers from many threads with the logging the
+ * app ships with, against every log event written straight to the console by
+ * the thread logging it, as Spring Boot does without a logback configuration.
+ * The console is a file under target, so each line costs a real write without
+ * flooding the JMH output
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TransferLoggingBenchmark {
+
+  private static final int ACCOUNTS = 1024;
+  private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+  @Param({ "sync", "async" })
+  private String logging;
+
+  private AccountsService accountsService;
+  private TransactionRepo transactionRepo;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, JoranException {
+    Path console = Files.createDirectories(Path.of("target")).resolve("transfer-logging-" + logging + ".log");
+    System.setOut(new PrintStream(new FileOutputStream(console.toFile()), true));
+    configureLogging();
+
+    AccountsRepo accountsRepo = new InMemoryAccountsRepo();
+    transactionRepo = new InMemoryTransactionRepo();
+    TransferJournal journal = new TransferJournal(false, Path.of("unused"), FsyncPolicy.TIME, Duration.ofMillis(2),
+        256, DataSize.ofMegabytes(64), Duration.ofMinutes(1), 20);
+    accountsService = new AccountsService(accountsRepo, transactionRepo, new LockingTransferEngine(1024), journal,
+        new AccountFeed(256), new TransferMetrics(new SimpleMeterRegistry(), accountsRepo, transactionRepo),
+        new TransferAudit(65_536, 1024, Duration.ofMillis(100)), new RepoScheduler(RepoExecution.PARALLEL),
+        new FxRates(), Optional.empty(), Optional.empty(), 64, 10_000);
+
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account account = new Account(i + 1);
+      account.setCurrency("DKK");
+      account.setBalance(BigDecimal.valueOf(1_000_000_000));
+      accountsRepo.createAccount(account);
+    }
+  }
+
+  private void configureLogging() throws JoranException {
+    LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+    context.reset();
+    if ("async".equals(logging)) {
+      JoranConfigurator configurator = new JoranConfigurator();
+      configurator.setContext(context);
+      configurator.doConfigure(getClass().getResource("/logback-spring.xml"));
+      return;
+    }
+
+    PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+    encoder.setContext(context);
+    encoder.setPattern("%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p [%15.15t] %-40.40logger{39} : %m %kvp%n");
+    encoder.start();
+    ConsoleAppender<ILoggingEvent> appender = new ConsoleAppender<>();
+    appender.setContext(context);
+    appender.setEncoder(encoder);
+    appender.start();
+    ch.qos.logback.classic.Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+    root.setLevel(ch.qos.logback.classic.Level.INFO);
+    root.addAppender(appender);
+  }
+
+  // keep the transaction store from growing over the whole run
+  @Setup(Level.Iteration)
+  public void clearTransactions() {
+    transactionRepo.clearAll();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Transaction transfer() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return accountsService.transfer(random.nextInt(ACCOUNTS) + 1, random.nextInt(ACCOUNTS) + 1, AMOUNT).block();
+  }
+}
@@ -0,0 +1,54 @@
+package dk.souyave.payments.cluster;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import dk.souyave.payments.cluster.ClusterRouter.RemoteCredit;
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.service.AccountsService;
+import io.swagger.v3.oas.annotations.Hidden;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Calls between the nodes of a cluster, never meant for clients
+ */
+@Hidden
+@RestController
+@RequestMapping("/cluster")
+@ConditionalOnProperty(name = "payments.cluster.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class ClusterController {
+
+  private final AccountsService accountsService;
+  private final ClusterRouter clusterRouter;
+
+  /**
+   * Create an account given the id another node assigned it
+   */
+  @PostMapping("/accounts/{accountId}")
+  @ResponseStatus(HttpStatus.CREATED)
+  public Mono<Account> createAccount(@PathVariable int accountId, @RequestBody Account account) {
+    return accountsService.createAccount(account.withId(accountId));
+  }
+
+  @PutMapping("/transfers/{transferId}/credit")
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public Mono<Void> credit(@PathVariable long transferId, @RequestBody RemoteCredit credit) {
+    return clusterRouter.credit(transferId, credit);
+  }
+
+  @DeleteMapping("/transfers/{transferId}")
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public Mono<Void> cancel(@PathVariable long transferId) {
+    return clusterRouter.cancel(transferId);
+  }
+}
@@ -0,0 +1,98 @@
+package dk.souyave.payments.cluster;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sends requests about a single account on to the node owning it, streaming
+ * the request and the response through unchanged, so a client can talk to any
+ * node. A transfer goes to the owner of the account it is paid from
+ */
+@Component
+@ConditionalOnProperty(name = "payments.cluster.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class ClusterForwardingFilter implements WebFilter {
+
+  private static final Pattern ACCOUNT_PATH = Pattern.compile("^/accounts/(\\d+)/");
+  private static final String DELETE_PATH = "/accounts/delete";
+
+  // only meaningful between a client and the node it is connected to
+  private static final List<String> HOP_BY_HOP_HEADERS = List.of(HttpHeaders.HOST, HttpHeaders.CONNECTION,
+      HttpHeaders.TRANSFER_ENCODING, "Keep-Alive");
+
+  private final ClusterNodes clusterNodes;
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    ServerHttpRequest request = exchange.getRequest();
+    if (request.getHeaders().containsKey(ClusterNodes.FORWARDED_HEADER)) {
+      return chain.filter(exchange);
+    }
+    Integer accountId = accountOf(request);
+    if (accountId == null || clusterNodes.isLocal(accountId)) {
+      return chain.filter(exchange);
+    }
+    return forward(exchange, clusterNodes.ownerOf(accountId));
+  }
+
+  private Mono<Void> forward(ServerWebExchange exchange, int node) {
+    ServerHttpRequest request = exchange.getRequest();
+    ServerHttpResponse response = exchange.getResponse();
+    String rawQuery = request.getURI().getRawQuery();
+    String pathAndQuery = request.getURI().getRawPath() + (rawQuery != null ? "?" + rawQuery : "");
+
+    WebClient.RequestBodySpec forwarded = clusterNodes.webClient()
+        .method(request.getMethod())
+        .uri(clusterNodes.url(node, pathAndQuery))
+        .headers(headers -> {
+          headers.addAll(request.getHeaders());
+          HOP_BY_HOP_HEADERS.forEach(headers::remove);
+          headers.set(ClusterNodes.FORWARDED_HEADER, Integer.toString(clusterNodes.self()));
+        });
+    HttpHeaders requestHeaders = request.getHeaders();
+    boolean hasBody = requestHeaders.getContentLength() > 0
+        || requestHeaders.containsKey(HttpHeaders.TRANSFER_ENCODING);
+    WebClient.RequestHeadersSpec<?> spec = hasBody ? forwarded.body(BodyInserters.fromDataBuffers(request.getBody()))
+        : forwarded;
+
+    return spec.exchangeToMono(remote -> {
+      response.setStatusCode(remote.statusCode());
+      response.getHeaders().addAll(remote.headers().asHttpHeaders());
+      HOP_BY_HOP_HEADERS.forEach(response.getHeaders()::remove);
+      return response.writeWith(remote.bodyToFlux(DataBuffer.class));
+    });
+  }
+
+  /**
+   * @return the account the request is about, or null if it is not about a
+   *         single account
+   */
+  private static Integer accountOf(ServerHttpRequest request) {
+    String path = request.getPath().value();
+    Matcher matcher = ACCOUNT_PATH.matcher(path);
+    String accountId = matcher.find() ? matcher.group(1)
+        : DELETE_PATH.equals(path) ? request.getQueryParams().getFirst("accountId") : null;
+    try {
+      return accountId != null ? Integer.valueOf(accountId) : null;
+    } catch (NumberFormatException e) {
+      // left for the controller to turn down
+      return null;
+    }
+  }
+}
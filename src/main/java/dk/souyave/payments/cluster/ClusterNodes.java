@@ -0,0 +1,92 @@
+package dk.souyave.payments.cluster;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The nodes of the cluster and which of them owns each account. Every node is
+ * given the same list of node urls in the same order, and accounts are spread
+ * over them by a consistent hash ring of their ids
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "payments.cluster.enabled", havingValue = "true")
+public class ClusterNodes {
+
+  /**
+   * Marks a request sent on by another node, which is always served where it
+   * lands so two nodes can never bounce a request between them
+   */
+  public static final String FORWARDED_HEADER = "X-Payments-Forwarded-By";
+
+  private final List<URI> nodes;
+  private final int self;
+  private final HashRing ring;
+  private final WebClient webClient;
+  private final Duration requestTimeout;
+
+  public ClusterNodes(WebClient.Builder webClientBuilder,
+      @Value("${payments.cluster.nodes}") List<URI> nodes,
+      @Value("${payments.cluster.node:0}") int self,
+      @Value("${payments.cluster.virtual-nodes:128}") int virtualNodes,
+      @Value("${payments.cluster.request-timeout:2s}") Duration requestTimeout,
+      @Value("${payments.ids.node:0}") int idNode,
+      @Value("${payments.ids.nodes:1}") int idNodes,
+      @Value("${payments.repo.backend:memory}") String backend,
+      @Value("${payments.journal.enabled:false}") boolean journal) {
+    if (self < 0 || self >= nodes.size()) {
+      throw new IllegalStateException("Cluster node " + self + " is not one of the " + nodes.size() + " nodes");
+    }
+    // accounts are created on any node, so their ids must never collide
+    if (idNode != self || idNodes != nodes.size()) {
+      throw new IllegalStateException("The id partition, node " + idNode + " of " + idNodes
+          + ", must match the cluster, node " + self + " of " + nodes.size());
+    }
+    // transfers across nodes change balances outside the transfer engine and
+    // the journal of either side
+    if (!"memory".equals(backend) || journal) {
+      throw new IllegalStateException("Cluster mode needs the memory backend with the journal off");
+    }
+    this.nodes = List.copyOf(nodes);
+    this.self = self;
+    this.ring = new HashRing(nodes.size(), virtualNodes);
+    this.webClient = webClientBuilder.build();
+    this.requestTimeout = requestTimeout;
+    log.info("Clustered as node {} of {}", self, nodes);
+  }
+
+  public boolean isLocal(int accountId) {
+    return ring.ownerOf(accountId) == self;
+  }
+
+  public int ownerOf(int accountId) {
+    return ring.ownerOf(accountId);
+  }
+
+  public int self() {
+    return self;
+  }
+
+  /**
+   * @return url of the node, with the path and query given resolved against it
+   */
+  public URI url(int node, String pathAndQuery) {
+    return nodes.get(node).resolve(pathAndQuery);
+  }
+
+  public WebClient webClient() {
+    return webClient;
+  }
+
+  public Duration requestTimeout() {
+    return requestTimeout;
+  }
+}
@@ -0,0 +1,383 @@
+package dk.souyave.payments.cluster;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountEvent;
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.Money;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.exception.RejectionException;
+import dk.souyave.payments.exception.TransferInDoubtException;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InProcessTransactionRepo;
+import dk.souyave.payments.service.AccountFeed;
+import dk.souyave.payments.service.TransferEngine;
+import dk.souyave.payments.service.TransferRejection;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Creates accounts on the node owning them and runs transfers whose accounts
+ * live on different nodes.
+ *
+ * A transfer across nodes runs on the node owning the 'from' account. It
+ * reserves the amount by debiting it, asks the owner of the 'to' account to
+ * credit it, and confirms the reservation once the credit is done. A rejected
+ * credit releases the reservation by crediting the amount back. When the other
+ * node does not answer, the reservation is settled once it times out: the
+ * other node is asked to cancel the credit, and it is released if the credit
+ * never happened or confirmed if it did. Each node remembers the outcome of the
+ * credits asked of it, so a credit is applied at most once and never after it
+ * has been cancelled
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "payments.cluster.enabled", havingValue = "true")
+public class ClusterRouter implements DisposableBean {
+
+  private final AccountsRepo accountsRepo;
+  private final InProcessTransactionRepo transactionRepo;
+  private final TransferEngine transferEngine;
+  private final AccountFeed accountFeed;
+  private final ClusterNodes clusterNodes;
+  private final long reservationTimeoutNanos;
+
+  // debits reserved on this node until the other node credits them, by the id
+  // of the debit transaction
+  private final Map<Long, Reservation> reservations = new ConcurrentHashMap<>();
+
+  // outcome of the credits asked of this node, by the id of the debit
+  // transaction on the other node
+  private final Cache<Long, Settlement> settlements;
+
+  private final ScheduledExecutorService settler;
+
+  public ClusterRouter(AccountsRepo accountsRepo, InProcessTransactionRepo transactionRepo,
+      TransferEngine transferEngine, AccountFeed accountFeed, ClusterNodes clusterNodes,
+      @Value("${payments.cluster.reservation-timeout:10s}") Duration reservationTimeout,
+      @Value("${payments.cluster.settlement-retention:1h}") Duration settlementRetention) {
+    this.accountsRepo = accountsRepo;
+    this.transactionRepo = transactionRepo;
+    this.transferEngine = transferEngine;
+    this.accountFeed = accountFeed;
+    this.clusterNodes = clusterNodes;
+    this.reservationTimeoutNanos = reservationTimeout.toNanos();
+    this.settlements = Caffeine.newBuilder()
+        .expireAfterWrite(settlementRetention)
+        .build();
+
+    settler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "cluster-settler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = Math.max(1, reservationTimeout.toMillis() / 2);
+    settler.scheduleWithFixedDelay(this::settleExpiredQuietly, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void destroy() {
+    settler.shutdownNow();
+  }
+
+  public boolean isLocal(int accountId) {
+    return clusterNodes.isLocal(accountId);
+  }
+
+  /**
+   * Create the account on the node owning it
+   *
+   * @param account with its id assigned
+   * @return the account as created on the node owning it
+   */
+  public Mono<Account> createAccount(Account account) {
+    return clusterNodes.webClient().post()
+        .uri(clusterNodes.url(clusterNodes.ownerOf(account.getId()), "/cluster/accounts/" + account.getId()))
+        .header(ClusterNodes.FORWARDED_HEADER, Integer.toString(clusterNodes.self()))
+        .bodyValue(account)
+        .retrieve()
+        .onStatus(HttpStatusCode::isError, ClusterRouter::rejection)
+        .bodyToMono(Account.class)
+        .timeout(clusterNodes.requestTimeout())
+        // the id is not read from a body
+        .map(created -> created.withId(account.getId()));
+  }
+
+  /**
+   * Have the node owning the 'from' account make the transfer
+   *
+   * @return the 'from' account transaction
+   */
+  public Mono<Transaction> forward(int fromAccountId, int toAccountId, BigDecimal amount) {
+    return clusterNodes.webClient().patch()
+        .uri(clusterNodes.url(clusterNodes.ownerOf(fromAccountId),
+            "/accounts/" + fromAccountId + "/transfer/" + toAccountId + "/" + amount.toPlainString()))
+        .header(ClusterNodes.FORWARDED_HEADER, Integer.toString(clusterNodes.self()))
+        .retrieve()
+        .onStatus(HttpStatusCode::isError, ClusterRouter::rejection)
+        .bodyToMono(Transaction.class)
+        .timeout(clusterNodes.requestTimeout());
+  }
+
+  /**
+   * Transfer from an account on this node to one on another node
+   *
+   * @param fromAccount on this node
+   * @param toAccountId owned by another node
+   * @param amount      to transfer
+   * @return the 'from' account transaction once the other node credited the
+   *         amount
+   */
+  public Mono<Transaction> transfer(Account fromAccount, int toAccountId, BigDecimal amount) {
+    return Mono.defer(() -> {
+      long minorAmount = Money.toTransferMinor(amount, fromAccount.getScale());
+      // the credit on the other node takes the second id of the pair
+      long id = Transaction.ID_GENERATOR.next(2);
+      long epochMicros = EpochMicros.now();
+      int node = clusterNodes.ownerOf(toAccountId);
+
+      return transferEngine
+          .exclusive(fromAccount, () -> reserve(id, node, fromAccount, minorAmount, epochMicros))
+          .flatMap(reservation -> clusterNodes.webClient().put()
+              .uri(clusterNodes.url(node, "/cluster/transfers/" + id + "/credit"))
+              .header(ClusterNodes.FORWARDED_HEADER, Integer.toString(clusterNodes.self()))
+              .bodyValue(new RemoteCredit(fromAccount.getId(), toAccountId, minorAmount, fromAccount.getCurrency(),
+                  epochMicros))
+              .retrieve()
+              .onStatus(HttpStatusCode::isError, ClusterRouter::rejection)
+              .toBodilessEntity()
+              .timeout(clusterNodes.requestTimeout())
+              .doOnSuccess(v -> confirm(reservation))
+              .thenReturn(reservation.debit())
+              .onErrorResume(RejectionException.class, e -> release(reservation).then(Mono.error(e)))
+              .onErrorMap(e -> !(e instanceof RejectionException), e -> new TransferInDoubtException(
+                  "Transfer " + id + " is not confirmed by node " + node
+                      + ", it is settled once the reservation times out",
+                  reservation.settlement(), e)));
+    });
+  }
+
+  /**
+   * Credit the 'to' account of a transfer reserved on another node, once
+   *
+   * @param transferId id of the debit transaction on the other node
+   * @param credit     to apply
+   * @return completes once credited, or the rejection of the credit
+   */
+  public Mono<Void> credit(long transferId, RemoteCredit credit) {
+    return Mono.defer(() -> {
+      Settlement previous = settlements.asMap().putIfAbsent(transferId, Settlement.CREDITING);
+      if (previous == Settlement.CREDITED) {
+        return Mono.empty();
+      } else if (previous != null) {
+        return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+            "Transfer " + transferId + " is " + previous.name().toLowerCase()));
+      }
+      // the outcome is recorded along with the credit, so it holds even when the
+      // other node gave up waiting on it
+      return accountsRepo.getAccount(credit.toAccountId())
+          .flatMap(toAccount -> transferEngine.exclusive(toAccount, () -> {
+            try {
+              Transaction creditTransaction = applyCredit(transferId, toAccount, credit);
+              settlements.put(transferId, Settlement.CREDITED);
+              return creditTransaction;
+            } catch (RuntimeException e) {
+              // a rejected credit changed nothing, so the reservation can only
+              // be released
+              settlements.put(transferId, Settlement.CANCELLED);
+              throw e;
+            }
+          }))
+          .doOnNext(creditTransaction -> {
+            if (accountFeed.isWatched(credit.toAccountId())) {
+              accountFeed.publish(AccountEvent.of(creditTransaction));
+            }
+          })
+          .then();
+    });
+  }
+
+  /**
+   * Make sure a credit asked of this node never happens, unless it already has
+   *
+   * @param transferId id of the debit transaction on the other node
+   * @return completes once cancelled, or conflict when it was already credited
+   */
+  public Mono<Void> cancel(long transferId) {
+    return Mono.defer(() -> {
+      Settlement previous = settlements.asMap().putIfAbsent(transferId, Settlement.CANCELLED);
+      if (previous == null || previous == Settlement.CANCELLED) {
+        return Mono.empty();
+      } else if (previous == Settlement.CREDITING) {
+        return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+            "Transfer " + transferId + " is still being credited"));
+      }
+      return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "Transfer " + transferId + " is credited"));
+    });
+  }
+
+  int pendingReservations() {
+    return reservations.size();
+  }
+
+  private Reservation reserve(long id, int node, Account fromAccount, long minorAmount, long epochMicros) {
+    if (minorAmount <= 0) {
+      throw TransferRejection.INVALID_AMOUNT.exception();
+    } else if (!AccountStatus.ACTIVE.equals(fromAccount.getStatus())) {
+      throw TransferRejection.INVALID_ACCOUNT.exception();
+    } else if (fromAccount.getMinorBalance() < minorAmount) {
+      throw TransferRejection.INSUFFICIENT_FUNDS.exception();
+    }
+    fromAccount.debit(minorAmount);
+    Transaction debit = save(id, fromAccount, TransactionType.DEBIT, minorAmount, epochMicros);
+
+    Reservation reservation = new Reservation(debit, node, fromAccount, minorAmount,
+        System.nanoTime() + reservationTimeoutNanos, new CompletableFuture<>());
+    reservations.put(id, reservation);
+    return reservation;
+  }
+
+  private void confirm(Reservation reservation) {
+    if (reservations.remove(reservation.debit().getId()) != null) {
+      accountFeed.publish(AccountEvent.of(reservation.debit()));
+      reservation.settlement().complete(reservation.debit());
+    }
+  }
+
+  /**
+   * Credit the reserved amount back to the 'from' account, recording it under
+   * the id the credit on the other node would have taken
+   */
+  private Mono<Void> release(Reservation reservation) {
+    if (reservations.remove(reservation.debit().getId()) == null) {
+      return Mono.empty();
+    }
+    return transferEngine.exclusive(reservation.fromAccount(), () -> {
+      reservation.fromAccount().credit(reservation.minorAmount());
+      return save(reservation.debit().getId() + 1, reservation.fromAccount(), TransactionType.CREDIT,
+          reservation.minorAmount(), EpochMicros.now());
+    }).doOnNext(credit -> reservation.settlement().complete(null)).then();
+  }
+
+  private Transaction applyCredit(long transferId, Account toAccount, RemoteCredit credit) {
+    if (credit.minorAmount() <= 0) {
+      throw TransferRejection.INVALID_AMOUNT.exception();
+    } else if (!AccountStatus.ACTIVE.equals(toAccount.getStatus())) {
+      throw TransferRejection.INVALID_ACCOUNT.exception();
+    } else if (!toAccount.getCurrency().equals(credit.currency())) {
+      throw TransferRejection.UNMATCHED_CURRENCIES.exception();
+    }
+    toAccount.credit(credit.minorAmount());
+    return save(transferId + 1, toAccount, TransactionType.CREDIT, credit.minorAmount(), credit.epochMicros());
+  }
+
+  private Transaction save(long id, Account account, TransactionType type, long minorAmount, long epochMicros) {
+    long minorBalance = account.getMinorBalance();
+    transactionRepo.save(id, account.getId(), type, minorAmount, minorBalance, account.getScale(), epochMicros);
+    return Transaction.builder()
+        .id(id)
+        .accountId(account.getId())
+        .amount(Money.toBigDecimal(minorAmount, account.getScale()))
+        .balance(Money.toBigDecimal(minorBalance, account.getScale()))
+        .type(type)
+        .date(EpochMicros.toLocalDateTime(epochMicros))
+        .build();
+  }
+
+  private void settleExpiredQuietly() {
+    try {
+      long now = System.nanoTime();
+      Flux.fromIterable(reservations.values())
+          .filter(reservation -> now - reservation.deadline() >= 0)
+          .concatMap(this::settle)
+          .blockLast();
+    } catch (RuntimeException e) {
+      log.error("Failed settling expired transfer reservations", e);
+    }
+  }
+
+  /**
+   * Cancel the credit of a reservation that timed out on the other node, and
+   * release or confirm the reservation by the outcome. Left for the next round
+   * while the other node does not answer
+   */
+  private Mono<Void> settle(Reservation reservation) {
+    long id = reservation.debit().getId();
+    return clusterNodes.webClient().delete()
+        .uri(clusterNodes.url(reservation.node(), "/cluster/transfers/" + id))
+        .header(ClusterNodes.FORWARDED_HEADER, Integer.toString(clusterNodes.self()))
+        .retrieve()
+        .toBodilessEntity()
+        .timeout(clusterNodes.requestTimeout())
+        .then(Mono.defer(() -> {
+          log.warn("Released transfer {} as node {} never credited it", id, reservation.node());
+          return release(reservation);
+        }))
+        .onErrorResume(WebClientResponseException.Conflict.class, e -> Mono.fromRunnable(() -> confirm(reservation)))
+        .onErrorResume(e -> {
+          log.warn("Failed settling transfer {} with node {}, retrying: {}", id, reservation.node(), e.toString());
+          return Mono.empty();
+        });
+  }
+
+  /**
+   * Turns the rejection answered by another node back into the rejection
+   */
+  private static Mono<? extends Throwable> rejection(ClientResponse response) {
+    return response.bodyToMono(Problem.class)
+        .defaultIfEmpty(new Problem(null))
+        .map(problem -> Arrays.stream(TransferRejection.values())
+            .map(TransferRejection::exception)
+            .filter(rejection -> rejection.getMessage().equals(problem.detail()))
+            .<Throwable>map(rejection -> rejection)
+            .findFirst()
+            .orElseGet(() -> new ResponseStatusException(response.statusCode(), problem.detail())));
+  }
+
+  /**
+   * The credit asked of the owner of the 'to' account
+   */
+  public record RemoteCredit(int fromAccountId, int toAccountId, long minorAmount, String currency,
+      long epochMicros) {
+  }
+
+  /**
+   * @param settlement completes with the debit once confirmed, or with null
+   *                   once released
+   */
+  private record Reservation(Transaction debit, int node, Account fromAccount, long minorAmount, long deadline,
+      CompletableFuture<Transaction> settlement) {
+  }
+
+  private record Problem(String detail) {
+  }
+
+  private enum Settlement {
+    CREDITING, CREDITED, CANCELLED
+  }
+}
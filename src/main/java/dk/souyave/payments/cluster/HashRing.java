@@ -0,0 +1,72 @@
+package dk.souyave.payments.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Consistent hash ring spreading account ids over the nodes of a cluster.
+ * Every node is placed on the ring at many pseudo random points, and an account
+ * belongs to the node of the first point at or after the hash of its id. Adding
+ * a node only moves the accounts that land on its new points, about 1/n of
+ * them, and every node computes the same owner from the node count alone
+ */
+public final class HashRing {
+
+  private final int nodes;
+  // ring points in ascending order, with the node owning each
+  private final long[] points;
+  private final int[] owners;
+
+  /**
+   * @param nodes        in the cluster
+   * @param virtualNodes points each node takes on the ring, more even out the
+   *                     share of accounts each node owns
+   */
+  public HashRing(int nodes, int virtualNodes) {
+    if (nodes < 1 || virtualNodes < 1) {
+      throw new IllegalArgumentException("Invalid hash ring of " + nodes + " nodes with " + virtualNodes
+          + " virtual nodes each");
+    }
+    this.nodes = nodes;
+
+    // sort the points together with their owners as pairs, owners breaking ties
+    // between equal points, then split them into the two arrays
+    int size = nodes * virtualNodes;
+    long[][] ring = new long[size][];
+    for (int node = 0; node < nodes; node++) {
+      for (int virtualNode = 0; virtualNode < virtualNodes; virtualNode++) {
+        ring[node * virtualNodes + virtualNode] = new long[] { mix(((long) node << 32) | virtualNode), node };
+      }
+    }
+    Arrays.sort(ring, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+    this.points = new long[size];
+    this.owners = new int[size];
+    for (int i = 0; i < size; i++) {
+      points[i] = ring[i][0];
+      owners[i] = (int) ring[i][1];
+    }
+  }
+
+  public int nodes() {
+    return nodes;
+  }
+
+  /**
+   * @return index of the node owning the account, from 0
+   */
+  public int ownerOf(int accountId) {
+    int point = Arrays.binarySearch(points, mix(~(long) accountId));
+    if (point < 0) {
+      point = -point - 1;
+    }
+    // past the last point wraps around to the first
+    return owners[point == points.length ? 0 : point];
+  }
+
+  // SplitMix64 finaliser, spreads sequential ids evenly over the ring
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -1,21 +1,35 @@
 package dk.souyave.payments.controller;
 
 import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Optional;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
 
 import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountEvent;
+import dk.souyave.payments.domain.StatementCursor;
+import dk.souyave.payments.domain.StatementEntry;
 import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransferRequest;
+import dk.souyave.payments.domain.TransferResult;
 import dk.souyave.payments.service.AccountsService;
+import dk.souyave.payments.service.TransferIdempotency;
 import lombok.RequiredArgsConstructor;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -28,7 +42,11 @@ import reactor.core.publisher.Mono;
 @RequiredArgsConstructor
 public class AccountsController {
 
+  // bounds the memory a single cached key can take
+  private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
   private final AccountsService accountsService;
+  private final TransferIdempotency transferIdempotency;
 
   @PostMapping("/create")
   @ResponseStatus(HttpStatus.CREATED)
@@ -36,15 +54,57 @@ public class AccountsController {
     return accountsService.createAccount(account);
   }
 
+  /**
+   * The version of the account goes out as its ETag. Polling with it in
+   * If-None-Match is answered with 304 Not Modified and no body until the
+   * account changes
+   */
   @GetMapping("/{accountId}/balance")
-  public Mono<Account> getBalance(@PathVariable Integer accountId) {
-    return accountsService.getAccount(accountId);
+  public Mono<Account> getBalance(@PathVariable Integer accountId, ServerWebExchange exchange) {
+    return accountsService.getAccount(accountId)
+        .filter(account -> !exchange.checkNotModified(Long.toString(account.getVersion())));
+  }
+
+  /**
+   * Takes the version of each account the client saw last, by account id, and
+   * returns only the accounts that changed since. Accounts that do not exist
+   * are left out, and so are accounts owned by other nodes in cluster mode
+   */
+  @PostMapping("/balances")
+  public Flux<Account> getChangedBalances(@RequestBody Map<Integer, Long> versions) {
+    return accountsService.changedAccounts(versions);
   }
 
+  /**
+   * Transfers between two accounts. Sending an Idempotency-Key makes retries
+   * safe, repeats of the key return the transaction of the first transfer
+   * without moving any more money
+   */
   @PatchMapping("/{accountId}/transfer/{toAccountId}/{amount}")
   public Mono<Transaction> transfer(@PathVariable Integer accountId, @PathVariable Integer toAccountId,
-      @PathVariable BigDecimal amount) {
-    return accountsService.transfer(accountId, toAccountId, amount);
+      @PathVariable BigDecimal amount,
+      @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+    if (idempotencyKey == null) {
+      return accountsService.transfer(accountId, toAccountId, amount);
+    } else if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+      return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "Idempotency-Key must be 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters"));
+    }
+    return transferIdempotency.transfer(idempotencyKey, accountId, toAccountId, amount,
+        () -> accountsService.transfer(accountId, toAccountId, amount));
+  }
+
+  /**
+   * Transfers a JSON array or NDJSON stream of transfers, streaming back one
+   * result per transfer in the order they were sent. With atomic set either
+   * every transfer completes or none do
+   */
+  @PostMapping(path = "/transfers/batch",
+      consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE },
+      produces = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE })
+  public Flux<TransferResult> transferBatch(@RequestBody Flux<TransferRequest> transfers,
+      @RequestParam(defaultValue = "false") boolean atomic) {
+    return accountsService.transferBatch(transfers, atomic);
   }
 
   @GetMapping(path = "/{accountId}/statements/mini")
@@ -52,8 +112,52 @@ public class AccountsController {
     return accountsService.miniList(accountId);
   }
 
+  /**
+   * Streams the full statement of an account, most recent first, as NDJSON.
+   * Each line carries the cursor to pass as 'after' to carry on from it
+   */
+  @GetMapping(path = "/{accountId}/statements", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public Flux<StatementEntry> getStatement(@PathVariable Integer accountId,
+      @RequestParam(required = false) String after, @RequestParam(defaultValue = "0") int limit) {
+    return Mono.fromCallable(() -> decode(after))
+        .flatMapMany(cursor -> accountsService.statement(accountId, cursor.orElse(null), limit))
+        .map(StatementEntry::of);
+  }
+
+  /**
+   * Streams the full statement of an account as server sent events, using the
+   * cursor as the event id so a reconnecting client resumes where it left off
+   */
+  @GetMapping(path = "/{accountId}/statements", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<Transaction>> getStatementEvents(@PathVariable Integer accountId,
+      @RequestParam(required = false) String after, @RequestParam(defaultValue = "0") int limit,
+      @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+    return Mono.fromCallable(() -> decode(after != null ? after : lastEventId))
+        .flatMapMany(cursor -> accountsService.statement(accountId, cursor.orElse(null), limit))
+        .map(transaction -> ServerSentEvent.builder(transaction)
+            .id(StatementCursor.of(transaction).encode())
+            .build());
+  }
+
+  private static Optional<StatementCursor> decode(String cursor) {
+    try {
+      return Optional.ofNullable(cursor).map(StatementCursor::decode);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid statement cursor", e);
+    }
+  }
+
+  /**
+   * Pushes every transfer touching the account, with the balance it left, as
+   * server sent events for as long as the client stays connected
+   */
+  @GetMapping(path = "/{accountId}/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<AccountEvent> getFeed(@PathVariable Integer accountId) {
+    return accountsService.feed(accountId);
+  }
+
   @DeleteMapping("/delete")
-  public void accountsService(int accountId) {
-    accountsService.deleteAccount(accountId);
+  public Mono<Void> accountsService(int accountId) {
+    return accountsService.deleteAccount(accountId);
   }
 }
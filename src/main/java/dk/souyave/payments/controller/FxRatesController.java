@@ -0,0 +1,44 @@
+package dk.souyave.payments.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import dk.souyave.payments.domain.RateSheet;
+import dk.souyave.payments.service.FxRates;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * The exchange rates transfers between accounts in different currencies are
+ * converted at
+ */
+@RestController
+@RequestMapping("/fx")
+@RequiredArgsConstructor
+public class FxRatesController {
+
+  private final FxRates fxRates;
+
+  @GetMapping("/rates")
+  public Mono<RateSheet> getRates() {
+    return Mono.fromSupplier(fxRates::sheet);
+  }
+
+  /**
+   * Replaces every exchange rate at once with the sheet's. Transfers carry on
+   * at the old rates until the new ones are all in place
+   */
+  @PutMapping("/rates")
+  public Mono<RateSheet> replaceRates(@RequestBody RateSheet sheet) {
+    return Mono.fromCallable(() -> {
+      fxRates.replace(sheet);
+      return fxRates.sheet();
+    }).onErrorMap(IllegalArgumentException.class,
+        e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e));
+  }
+}
@@ -0,0 +1,42 @@
+package dk.souyave.payments.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import dk.souyave.payments.exception.IdempotencyKeyReusedException;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.exception.InvalidAccountException;
+import dk.souyave.payments.exception.InvalidAmountException;
+import dk.souyave.payments.exception.RejectionException;
+import dk.souyave.payments.exception.UnmatchedCurrenciesException;
+
+/**
+ * Maps business rejections to HTTP statuses in one place, so the rejections
+ * themselves stay free of web concerns and can be shared preallocated
+ * instances
+ */
+@RestControllerAdvice
+public class RejectionExceptionHandler {
+
+  @ExceptionHandler(InvalidAccountException.class)
+  public ProblemDetail invalidAccount(InvalidAccountException e) {
+    return problem(HttpStatus.NOT_FOUND, e);
+  }
+
+  @ExceptionHandler(InvalidAmountException.class)
+  public ProblemDetail invalidAmount(InvalidAmountException e) {
+    return problem(HttpStatus.BAD_REQUEST, e);
+  }
+
+  @ExceptionHandler({ InsufficientFundsException.class, UnmatchedCurrenciesException.class,
+      IdempotencyKeyReusedException.class })
+  public ProblemDetail unprocessable(RejectionException e) {
+    return problem(HttpStatus.UNPROCESSABLE_ENTITY, e);
+  }
+
+  private static ProblemDetail problem(HttpStatus status, RejectionException e) {
+    return ProblemDetail.forStatusAndDetail(status, e.getMessage());
+  }
+}
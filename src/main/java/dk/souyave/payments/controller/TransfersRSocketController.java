@@ -0,0 +1,75 @@
+package dk.souyave.payments.controller;
+
+import java.util.List;
+
+import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.stereotype.Controller;
+
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransferRequest;
+import dk.souyave.payments.domain.TransferResult;
+import dk.souyave.payments.exception.RejectionException;
+import dk.souyave.payments.service.AccountsService;
+import io.rsocket.exceptions.ApplicationErrorException;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The transfer calls over RSocket, for callers sending many transfers over one
+ * long lived connection. Payloads are CBOR or JSON as the client sets up the
+ * connection, and any number of requests run over it at once without a round
+ * trip each. Rejections come back as errors with the rejection as message
+ */
+@Controller
+@RequiredArgsConstructor
+public class TransfersRSocketController {
+
+  private final AccountsService accountsService;
+
+  /**
+   * Request-response, a single transfer
+   */
+  @MessageMapping("transfer")
+  public Mono<Transaction> transfer(TransferRequest transfer) {
+    return accountsService.transfer(transfer.getFromAccountId(), transfer.getToAccountId(), transfer.getAmount());
+  }
+
+  /**
+   * Request-stream, a batch sent as one payload with one result per transfer
+   * streamed back in the order they were sent
+   */
+  @MessageMapping("transfers.batch")
+  public Flux<TransferResult> transferBatch(List<TransferRequest> transfers) {
+    return accountsService.transferBatch(Flux.fromIterable(transfers), false);
+  }
+
+  /**
+   * Request-stream, a batch where either every transfer completes or none do
+   */
+  @MessageMapping("transfers.batch.atomic")
+  public Flux<TransferResult> transferAtomicBatch(List<TransferRequest> transfers) {
+    return accountsService.transferBatch(Flux.fromIterable(transfers), true);
+  }
+
+  /**
+   * Request-channel, transfers pipelined by the client for as long as it keeps
+   * the channel open, with one result per transfer streamed back in the order
+   * they were sent. Results are only produced as fast as the client asks for
+   * them, which in turn holds back reading further transfers
+   */
+  @MessageMapping("transfers")
+  public Flux<TransferResult> transfers(Flux<TransferRequest> transfers) {
+    return accountsService.transferBatch(transfers, false);
+  }
+
+  /**
+   * Rejections are an expected outcome, they go back to the caller without
+   * being logged as unhandled
+   */
+  @MessageExceptionHandler
+  public Mono<Void> rejected(RejectionException e) {
+    return Mono.error(new ApplicationErrorException(e.getMessage()));
+  }
+}
@@ -1,9 +1,14 @@
 package dk.souyave.payments.domain;
 
 import java.math.BigDecimal;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotEmpty;
@@ -11,7 +16,8 @@ import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Pattern;
 import lombok.AccessLevel;
 import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.Setter;
 
 /**
@@ -21,19 +27,43 @@ import lombok.Setter;
  * other annotations used in this class
  */
 @Data
-@NoArgsConstructor
 public class Account {
 
-  public static AtomicInteger ID_GENERATOR = new AtomicInteger(1);
+  public static final IdGenerator ID_GENERATOR = new IdGenerator("account");
+
+  // id of an account read from a request body, until it is created
+  public static final int UNASSIGNED_ID = 0;
+
+  // versions start from the time the process started in nanoseconds, so they
+  // keep increasing across restarts unless the clock is set back
+  private static final long INITIAL_VERSION = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+  private static final AtomicLongFieldUpdater<Account> VERSION = AtomicLongFieldUpdater.newUpdater(Account.class,
+      "version");
 
   // Automatically generate the account Id's from a generator
   @NotNull
   @Setter(AccessLevel.NONE)
-  private final int id = ID_GENERATOR.getAndIncrement();
+  private final int id;
 
-  @NotNull
-  @JsonFormat(shape = JsonFormat.Shape.STRING)
-  private BigDecimal balance = BigDecimal.ZERO;
+  // Balance held in minor units of the currency, only exposed as a decimal
+  // through getBalance/setBalance
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  @Getter(AccessLevel.NONE)
+  private volatile long minorBalance;
+
+  // Credits to a striped account are spread over the cells of an adder rather
+  // than added to the balance, so they need no exclusive access. Null unless
+  // the balance is striped
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  @Getter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  private LongAdder stripedCredits;
+
+  @JsonIgnore
+  @Setter(AccessLevel.NONE)
+  private int scale = Money.DEFAULT_SCALE;
 
   // restrict to only 3 characters long as per currency code specs
   @NotEmpty
@@ -42,5 +72,170 @@ public class Account {
   private String currency;
 
   @Schema(description = "Current status of the account.")
+  @Setter(AccessLevel.NONE)
   private AccountStatus status = AccountStatus.ACTIVE;
+
+  // Bumped after every change to the balance, currency or status, so a reader
+  // that sees a version sees at least the change that made it. Striped credits
+  // are added on as it is read instead, so they never contend on it
+  @Setter(AccessLevel.NONE)
+  @Getter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  @JsonFormat(shape = JsonFormat.Shape.STRING)
+  @Schema(type = "string", description = "Increases with every change to the account")
+  private volatile long version = INITIAL_VERSION;
+
+  public Account() {
+    this(ID_GENERATOR.nextInt());
+  }
+
+  /**
+   * Request bodies are read through here, so they do not use up an id. The
+   * account only gets one once it is created
+   */
+  @JsonCreator
+  private Account(@JsonProperty("currency") String currency) {
+    this(UNASSIGNED_ID);
+    setCurrency(currency);
+  }
+
+  /**
+   * Rebuild an account under its existing id, eg. when replaying the journal
+   * 
+   * @param id of the account
+   */
+  public Account(int id) {
+    this.id = id;
+  }
+
+  /**
+   * @return this account, or a copy of it under a new id if it was read from a
+   *         request body and has none yet
+   */
+  public Account withAssignedId() {
+    return id != UNASSIGNED_ID ? this : withId(ID_GENERATOR.nextInt());
+  }
+
+  /**
+   * @return a copy of this account under the given id, eg. one another node
+   *         assigned it
+   */
+  public Account withId(int id) {
+    Account account = new Account(id);
+    account.currency = currency;
+    account.scale = scale;
+    account.minorBalance = minorBalance;
+    account.status = status;
+    return account;
+  }
+
+  /**
+   * For a striped account this is the sum of the debited balance and every
+   * credit so far. Credits only ever add to it, so a read taken while credits
+   * land is never more than the balance, which keeps funds checks safe
+   */
+  @JsonIgnore
+  public long getMinorBalance() {
+    LongAdder credits = stripedCredits;
+    return credits == null ? minorBalance : minorBalance + credits.sum();
+  }
+
+  /**
+   * Switch the account to a striped balance, for hot accounts receiving so many
+   * credits that taking exclusive access for each one would serialise them. Must
+   * be called before the account is shared
+   */
+  public void stripeBalance() {
+    if (stripedCredits == null) {
+      stripedCredits = new LongAdder();
+    }
+  }
+
+  /**
+   * @return true if credits are taken without exclusive access
+   */
+  @JsonIgnore
+  public boolean isStriped() {
+    return stripedCredits != null;
+  }
+
+  /**
+   * For a striped account the credits so far are added on. Credits are always
+   * positive, so their sum grows with every credit and the version still
+   * increases with each of them
+   */
+  public long getVersion() {
+    LongAdder credits = stripedCredits;
+    return credits == null ? version : version + credits.sum();
+  }
+
+  @NotNull
+  @JsonFormat(shape = JsonFormat.Shape.STRING)
+  @Schema(type = "string", example = "100.00")
+  public BigDecimal getBalance() {
+    return Money.toBigDecimal(getMinorBalance(), scale);
+  }
+
+  public void setBalance(BigDecimal balance) {
+    this.minorBalance = Money.toMinorExact(balance, scale);
+    resetStripedCredits();
+    VERSION.incrementAndGet(this);
+  }
+
+  public void setCurrency(String currency) {
+    int newScale = Money.scaleOf(currency);
+    long balance = getMinorBalance();
+    resetStripedCredits();
+    this.minorBalance = Money.rescale(balance, scale, newScale);
+    this.scale = newScale;
+    this.currency = currency;
+    VERSION.incrementAndGet(this);
+  }
+
+  public void setStatus(AccountStatus status) {
+    this.status = status;
+    VERSION.incrementAndGet(this);
+  }
+
+  /**
+   * Take the version as stored by a back-end that keeps accounts outside the
+   * process
+   */
+  public void restoreVersion(long version) {
+    this.version = version;
+  }
+
+  /**
+   * Take minor units off the balance. Callers must have exclusive access to the
+   * account, which the transfer engine gives them
+   */
+  public void debit(long minorUnits) {
+    this.minorBalance -= minorUnits;
+    VERSION.incrementAndGet(this);
+  }
+
+  /**
+   * Add minor units to the balance. Callers must have exclusive access to the
+   * account, which the transfer engine gives them, unless the account is
+   * striped
+   */
+  public void credit(long minorUnits) {
+    LongAdder credits = stripedCredits;
+    if (credits != null) {
+      credits.add(minorUnits);
+    } else {
+      this.minorBalance += minorUnits;
+      VERSION.incrementAndGet(this);
+    }
+  }
+
+  /**
+   * Fold the striped credits into the version as they are dropped, so it never
+   * goes back
+   */
+  private void resetStripedCredits() {
+    if (stripedCredits != null) {
+      VERSION.addAndGet(this, stripedCredits.sumThenReset());
+    }
+  }
 }
@@ -0,0 +1,28 @@
+package dk.souyave.payments.domain;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Value;
+
+/**
+ * A change to an account pushed to its live feed: the transaction that was
+ * applied and the balance it left behind
+ */
+@Value
+public class AccountEvent {
+
+  int accountId;
+
+  @JsonFormat(shape = JsonFormat.Shape.STRING)
+  @Schema(type = "string", example = "100.00", description = "Balance of the account after the transaction")
+  BigDecimal balance;
+
+  Transaction transaction;
+
+  public static AccountEvent of(Transaction transaction) {
+    return new AccountEvent(transaction.getAccountId(), transaction.getBalance(), transaction);
+  }
+}
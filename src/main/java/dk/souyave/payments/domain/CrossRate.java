@@ -0,0 +1,97 @@
+package dk.souyave.payments.domain;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Exchange rate between two currencies in binary fixed point, precomputed so a
+ * conversion is one 64 by 64 bit multiplication and a shift, with no
+ * allocation. The rate is mantissa / 2^shift with the mantissa normalised to 63
+ * significant bits, and it converts straight from minor units of one currency
+ * to minor units of the other, rounding half up
+ */
+public final class CrossRate {
+
+  /**
+   * Rate between a currency and itself
+   */
+  public static final CrossRate IDENTITY = new CrossRate(1L << 62, 62);
+
+  private static final int MAX_SHIFT = 127;
+
+  private final long mantissa;
+  private final int shift;
+
+  private CrossRate(long mantissa, int shift) {
+    this.mantissa = mantissa;
+    this.shift = shift;
+  }
+
+  /**
+   * @param fromRate  units of the 'from' currency per unit of a common base
+   * @param fromScale minor unit digits of the 'from' currency
+   * @param toRate    units of the 'to' currency per unit of the same base
+   * @param toScale   minor unit digits of the 'to' currency
+   * @return the rate from minor units of 'from' to minor units of 'to'
+   * @throws IllegalArgumentException if a rate is not positive or the cross
+   *                                  rate is too large or small to represent
+   */
+  public static CrossRate of(BigDecimal fromRate, int fromScale, BigDecimal toRate, int toScale) {
+    if (fromRate.signum() <= 0 || toRate.signum() <= 0) {
+      throw new IllegalArgumentException("Exchange rates must be positive");
+    }
+    fromRate = fromRate.setScale(Math.max(fromRate.scale(), 0));
+    toRate = toRate.setScale(Math.max(toRate.scale(), 0));
+
+    // the exact cross rate as a fraction, toRate / fromRate * 10^(toScale -
+    // fromScale)
+    BigInteger numerator = toRate.unscaledValue().multiply(BigInteger.TEN.pow(fromRate.scale() + toScale));
+    BigInteger denominator = fromRate.unscaledValue().multiply(BigInteger.TEN.pow(toRate.scale() + fromScale));
+
+    // the mantissa is rounded up, so an amount converting to exactly half a
+    // minor unit is never computed a hair below it and rounded the wrong way
+    int shift = 62 - (numerator.bitLength() - denominator.bitLength());
+    BigInteger mantissa;
+    while (true) {
+      mantissa = divideCeiling(shift >= 0 ? numerator.shiftLeft(shift) : numerator,
+          shift >= 0 ? denominator : denominator.shiftLeft(-shift));
+      if (mantissa.bitLength() > 63) {
+        shift--;
+      } else if (mantissa.bitLength() < 63) {
+        shift++;
+      } else {
+        break;
+      }
+    }
+    if (shift < 1 || shift > MAX_SHIFT) {
+      throw new IllegalArgumentException("Cross rate " + toRate + " / " + fromRate + " is out of range");
+    }
+    return new CrossRate(mantissa.longValueExact(), shift);
+  }
+
+  /**
+   * @param minorAmount in minor units of the 'from' currency
+   * @return the amount in minor units of the 'to' currency, rounded half up
+   * @throws ArithmeticException if the converted amount does not fit in a long
+   */
+  public long convert(long minorAmount) {
+    long high = Math.multiplyHigh(minorAmount, mantissa);
+    long low = minorAmount * mantissa;
+
+    // rounding half up adds the highest bit shifted out
+    if (shift >= Long.SIZE) {
+      int highShift = shift - Long.SIZE;
+      long rounding = highShift == 0 ? low >>> 63 : (high >>> (highShift - 1)) & 1;
+      return (high >> highShift) + rounding;
+    }
+    long converted = (high << (Long.SIZE - shift)) | (low >>> shift);
+    if (high >> shift != converted >> 63) {
+      throw new ArithmeticException("Converted amount overflows");
+    }
+    return Math.addExact(converted, (low >>> (shift - 1)) & 1);
+  }
+
+  private static BigInteger divideCeiling(BigInteger numerator, BigInteger denominator) {
+    return numerator.add(denominator).subtract(BigInteger.ONE).divide(denominator);
+  }
+}
@@ -0,0 +1,37 @@
+package dk.souyave.payments.domain;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamp helpers. Transactions are stored as a primitive long of
+ * microseconds, counting the local wall clock time as if it were UTC so it
+ * converts back to the same LocalDateTime the API shows. A LocalDateTime is
+ * only built at the edges, when a transaction goes out as JSON.
+ */
+public final class EpochMicros {
+
+  private EpochMicros() {
+  }
+
+  /**
+   * @return the local wall clock time now
+   */
+  public static long now() {
+    Instant now = Instant.now();
+    long seconds = now.getEpochSecond() + ZoneId.systemDefault().getRules().getOffset(now).getTotalSeconds();
+    return TimeUnit.SECONDS.toMicros(seconds) + now.getNano() / 1_000;
+  }
+
+  public static long of(LocalDateTime date) {
+    return TimeUnit.SECONDS.toMicros(date.toEpochSecond(ZoneOffset.UTC)) + date.getNano() / 1_000;
+  }
+
+  public static LocalDateTime toLocalDateTime(long epochMicros) {
+    return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000),
+        Math.floorMod(epochMicros, 1_000_000) * 1_000, ZoneOffset.UTC);
+  }
+}
@@ -0,0 +1,193 @@
+package dk.souyave.payments.domain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out 64 bit ids hi/lo style. Each thread takes a block of consecutive
+ * ids and draws from it without any shared writes, so the shared block counter
+ * is only touched once per block. Ids are unique but only increase per thread,
+ * nothing may rely on them being in order across threads.
+ *
+ * Nodes sharing the id space take interleaved blocks, node n of m taking every
+ * m'th block starting at the n'th, so they never hand out the same id.
+ *
+ * With a high-water mark file, blocks are leased ahead in batches and the end
+ * of the lease is made durable before any id in it is handed out. A restart
+ * carries on after the last lease, leaving a gap rather than repeating an id
+ */
+public final class IdGenerator {
+
+  private static final int DEFAULT_BLOCK_SIZE = 64;
+
+  private final String name;
+  private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+  // the next block for this node to hand out, counted in this node's blocks
+  private final AtomicLong nextBlock = new AtomicLong();
+
+  private volatile int blockSize = DEFAULT_BLOCK_SIZE;
+  private volatile int node;
+  private volatile int nodes = 1;
+  private volatile long firstId = 1;
+
+  // bumped whenever the blocks threads hold may have gone stale, only ever
+  // written holding the lock
+  private volatile int generation;
+
+  private Path highWaterMark;
+  private long leaseBlocks = 1;
+  private volatile long leasedUntil = Long.MAX_VALUE;
+
+  public IdGenerator(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Set how ids are partitioned and persisted. Ids handed out before, and the
+   * high-water mark left by an earlier run, are never handed out again
+   *
+   * @param blockSize ids taken by a thread at a time
+   * @param node      index of this node, from 0
+   * @param nodes     number of nodes sharing the id space
+   * @param directory to keep the high-water mark in, or null to keep none
+   * @param leaseSize ids leased ahead per write of the high-water mark
+   */
+  public synchronized void configure(int blockSize, int node, int nodes, Path directory, long leaseSize) {
+    if (blockSize < 2 || nodes < 1 || node < 0 || node >= nodes) {
+      throw new IllegalArgumentException("Invalid " + name + " id partition, block size " + blockSize
+          + ", node " + node + " of " + nodes);
+    }
+    long handedOut = firstIdOf(nextBlock.get()) - 1;
+
+    this.blockSize = blockSize;
+    this.node = node;
+    this.nodes = nodes;
+    this.nextBlock.set(0);
+    this.leaseBlocks = Math.max(1, leaseSize / blockSize);
+    this.highWaterMark = null;
+    this.leasedUntil = Long.MAX_VALUE;
+    advancePast(handedOut);
+
+    if (directory != null) {
+      try {
+        Files.createDirectories(directory);
+        highWaterMark = directory.resolve(name + ".hwm");
+        if (Files.exists(highWaterMark)) {
+          advancePast(ByteBuffer.wrap(Files.readAllBytes(highWaterMark)).getLong() - 1);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed reading the " + name + " id high-water mark", e);
+      }
+      // nothing is leased yet, the first block taken writes the mark
+      leasedUntil = nextBlock.get();
+    }
+  }
+
+  /**
+   * @return a new id
+   */
+  public long next() {
+    return next(1);
+  }
+
+  /**
+   * @param count of consecutive ids to take, at most the block size
+   * @return the first of the consecutive ids
+   */
+  public long next(int count) {
+    Block block = blocks.get();
+    if (block.generation != generation || block.end - block.next < count) {
+      refill(block);
+    }
+    long id = block.next;
+    block.next += count;
+    return id;
+  }
+
+  /**
+   * @return a new id that fits an int
+   * @throws IllegalStateException once the int range is used up
+   */
+  public int nextInt() {
+    long id = next();
+    if (id > Integer.MAX_VALUE) {
+      throw new IllegalStateException("The " + name + " ids have run out of the int range");
+    }
+    return (int) id;
+  }
+
+  /**
+   * Make sure every id handed out from now on is above the given one, eg. once
+   * the ids in use have been recovered
+   */
+  public synchronized void advancePast(long id) {
+    long blockOfId = Math.floorDiv(id - firstId, (long) blockSize);
+    long required = Math.floorDiv(blockOfId - node, (long) nodes) + 1;
+    if (nextBlock.get() < required) {
+      nextBlock.accumulateAndGet(required, Math::max);
+      generation++;
+    }
+  }
+
+  /**
+   * Start over from the given id, dropping the blocks every thread holds. Only
+   * for clearing the repositories, the high-water mark is rewritten from it
+   */
+  public synchronized void reset(long firstId) {
+    this.firstId = firstId;
+    nextBlock.set(0);
+    if (highWaterMark != null) {
+      leasedUntil = 0;
+    }
+    generation++;
+  }
+
+  private void refill(Block block) {
+    // read the generation first, so a reset racing with the refill can only
+    // leave a block that gets dropped on the next call
+    block.generation = generation;
+    long local = nextBlock.getAndIncrement();
+    if (local >= leasedUntil) {
+      lease(local);
+    }
+    block.next = firstIdOf(local);
+    block.end = block.next + blockSize;
+  }
+
+  private synchronized void lease(long local) {
+    if (local < leasedUntil) {
+      return;
+    }
+    // write the mark to a temporary file and move it in place once it is on
+    // disk, so a crash never leaves a torn mark behind
+    long until = local + leaseBlocks;
+    Path temporary = highWaterMark.resolveSibling(highWaterMark.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, firstIdOf(until)));
+      channel.force(false);
+      Files.move(temporary, highWaterMark, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed writing the " + name + " id high-water mark", e);
+    }
+    leasedUntil = until;
+  }
+
+  private long firstIdOf(long local) {
+    return firstId + (local * nodes + node) * blockSize;
+  }
+
+  private static final class Block {
+    long next;
+    long end;
+    int generation = -1;
+  }
+}
@@ -0,0 +1,83 @@
+package dk.souyave.payments.domain;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Fixed point money helpers. Amounts are held as a primitive long of minor
+ * units (eg. øre for DKK, cents for USD) together with the scale of the
+ * currency, so balance checks and updates on the hot path never allocate.
+ * BigDecimal is only used at the edges, when amounts come in or go out as JSON.
+ */
+public final class Money {
+
+  /**
+   * Scale used until an account has a known currency
+   */
+  public static final int DEFAULT_SCALE = 2;
+
+  private Money() {
+  }
+
+  /**
+   * Number of minor unit digits for the ISO 4217 currency code
+   * 
+   * @param currency 3 letter currency code
+   * @return the currency scale, or the default scale if the code is unknown
+   */
+  public static int scaleOf(String currency) {
+    if (currency == null) {
+      return DEFAULT_SCALE;
+    }
+    try {
+      int digits = Currency.getInstance(currency).getDefaultFractionDigits();
+      // pseudo currencies such as XAU have no minor unit
+      return digits < 0 ? 0 : digits;
+    } catch (IllegalArgumentException e) {
+      return DEFAULT_SCALE;
+    }
+  }
+
+  /**
+   * Convert an amount to minor units, failing if it cannot be represented
+   * exactly in the scale
+   * 
+   * @throws ArithmeticException if the amount has more decimals than the scale
+   *                             or does not fit in a long
+   */
+  public static long toMinorExact(BigDecimal amount, int scale) {
+    return amount.setScale(scale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+  }
+
+  /**
+   * Convert an amount to transfer to minor units. Transfer amounts are never
+   * rounded, one with more decimals than the scale or too large for a long comes
+   * back as 0, which validation turns down like any other amount that is not
+   * positive
+   */
+  public static long toTransferMinor(BigDecimal amount, int scale) {
+    try {
+      return toMinorExact(amount, scale);
+    } catch (ArithmeticException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Convert minor units back into a decimal amount in the scale
+   */
+  public static BigDecimal toBigDecimal(long minorUnits, int scale) {
+    return BigDecimal.valueOf(minorUnits, scale);
+  }
+
+  /**
+   * Move an amount of minor units from one scale to another
+   * 
+   * @throws ArithmeticException if the amount cannot be represented exactly in
+   *                             the new scale
+   */
+  public static long rescale(long minorUnits, int fromScale, int toScale) {
+    return fromScale == toScale ? minorUnits : toMinorExact(toBigDecimal(minorUnits, fromScale), toScale);
+  }
+}
@@ -0,0 +1,29 @@
+package dk.souyave.payments.domain;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A full set of exchange rates against one base currency, as it comes in from
+ * a rate feed
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RateSheet {
+
+  @NotNull
+  @Schema(description = "Currency the rates are quoted against", example = "EUR")
+  private String base;
+
+  @NotNull
+  @Schema(description = "Units of each currency one unit of the base buys",
+      example = "{\"DKK\": 7.4604, \"USD\": 1.0850}")
+  private Map<String, BigDecimal> rates;
+}
@@ -0,0 +1,68 @@
+package dk.souyave.payments.domain;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the exchange rates, with the cross rate between every
+ * pair of currencies worked out up front. A new rate sheet builds a new table
+ * rather than changing this one, so readers never see a half updated table
+ */
+public final class RateTable {
+
+  public static final RateTable EMPTY = new RateTable(new RateSheet(null, Map.of()));
+
+  private final RateSheet sheet;
+  // index of each currency into the cross rates
+  private final Map<String, Integer> currencies = new HashMap<>();
+  // cross rate from the i'th to the j'th currency at i * n + j
+  private final CrossRate[] crossRates;
+
+  private RateTable(RateSheet sheet) {
+    this.sheet = sheet;
+
+    Map<String, BigDecimal> rates = new LinkedHashMap<>(sheet.getRates());
+    if (sheet.getBase() != null) {
+      rates.putIfAbsent(sheet.getBase(), BigDecimal.ONE);
+    }
+    String[] codes = rates.keySet().toArray(String[]::new);
+    int n = codes.length;
+    crossRates = new CrossRate[n * n];
+    for (int i = 0; i < n; i++) {
+      currencies.put(codes[i], i);
+      for (int j = 0; j < n; j++) {
+        crossRates[i * n + j] = i == j ? CrossRate.IDENTITY
+            : CrossRate.of(rates.get(codes[i]), Money.scaleOf(codes[i]), rates.get(codes[j]), Money.scaleOf(codes[j]));
+      }
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if the sheet has no base, or a rate that is
+   *                                  missing or not positive
+   */
+  public static RateTable of(RateSheet sheet) {
+    if (sheet.getBase() == null || sheet.getRates() == null
+        || sheet.getRates().values().stream().anyMatch(Objects::isNull)) {
+      throw new IllegalArgumentException("A rate sheet needs a base currency and its rates");
+    }
+    return new RateTable(sheet);
+  }
+
+  /**
+   * @return the rate from minor units of one currency to minor units of the
+   *         other, or null if either currency has no rate
+   */
+  public CrossRate crossRate(String fromCurrency, String toCurrency) {
+    Integer from = currencies.get(fromCurrency);
+    Integer to = currencies.get(toCurrency);
+    return from == null || to == null ? null : crossRates[from * currencies.size() + to];
+  }
+
+  public RateSheet sheet() {
+    return sheet;
+  }
+}
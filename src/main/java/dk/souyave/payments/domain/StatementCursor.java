@@ -0,0 +1,37 @@
+package dk.souyave.payments.domain;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Opaque position in an account statement, pointing just past a transaction.
+ * Encodes the date and id the statement is ordered by, so a page can be
+ * resumed by seeking straight to it
+ */
+public record StatementCursor(long epochMicros, long id) {
+
+  private static final int LENGTH = Long.BYTES + Long.BYTES;
+
+  public static StatementCursor of(Transaction transaction) {
+    return new StatementCursor(EpochMicros.of(transaction.getDate()), transaction.getId());
+  }
+
+  /**
+   * @param cursor as handed out by {@link #encode()}
+   * @return the decoded cursor
+   * @throws IllegalArgumentException if the cursor was not one we handed out
+   */
+  public static StatementCursor decode(String cursor) {
+    byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+    if (bytes.length != LENGTH) {
+      throw new IllegalArgumentException("Malformed statement cursor");
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    return new StatementCursor(buffer.getLong(), buffer.getLong());
+  }
+
+  public String encode() {
+    ByteBuffer buffer = ByteBuffer.allocate(LENGTH).putLong(epochMicros).putLong(id);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+}
@@ -0,0 +1,20 @@
+package dk.souyave.payments.domain;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Value;
+
+/**
+ * A line of a streamed statement, carrying the cursor to resume after it
+ */
+@Value
+public class StatementEntry {
+
+  @Schema(description = "Pass as 'after' to continue the statement from this transaction")
+  String cursor;
+
+  Transaction transaction;
+
+  public static StatementEntry of(Transaction transaction) {
+    return new StatementEntry(StatementCursor.of(transaction).encode(), transaction);
+  }
+}
@@ -2,7 +2,6 @@ package dk.souyave.payments.domain;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.springframework.format.annotation.DateTimeFormat;
 
@@ -16,29 +15,38 @@ import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Data;
 import lombok.Setter;
+import lombok.extern.jackson.Jacksonized;
 
+/**
+ * A ledger entry as it goes out through the API. The ledger itself keeps
+ * transactions as primitive columns and only builds these when they are read
+ */
 @Data
 @Builder
+// read back through the builder when another node returns a transaction
+@Jacksonized
 public class Transaction {
 
-  public static AtomicInteger ID_GENERATOR = new AtomicInteger(1);
+  public static final IdGenerator ID_GENERATOR = new IdGenerator("transaction");
 
   // Automatically generate the transaction Id's from a generator
   @NotNull
   @Setter(AccessLevel.NONE)
   @Builder.Default
-  private int id = ID_GENERATOR.getAndIncrement();
+  private long id = ID_GENERATOR.next();
 
   @NotNull
   @DecimalMin("0")
   @JsonFormat(shape = JsonFormat.Shape.STRING)
   private BigDecimal amount;
 
-  // Storing the entire account object here instead of just an Id as am treating
-  // it like a relational database
   @NotNull
   @Schema(description = "The account that the transaction is performed against")
-  private Account account;
+  private int accountId;
+
+  @JsonFormat(shape = JsonFormat.Shape.STRING)
+  @Schema(type = "string", example = "100.00", description = "Balance of the account right after the transaction")
+  private BigDecimal balance;
 
   @NotNull
   @Schema(description = "The transaction type of debit or credit", example = "CREDIT")
@@ -0,0 +1,35 @@
+package dk.souyave.payments.domain;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A single transfer within a batch
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferRequest {
+
+  @NotNull
+  @Schema(description = "The account being debited", example = "1")
+  private int fromAccountId;
+
+  @NotNull
+  @Schema(description = "The account being credited", example = "2")
+  private int toAccountId;
+
+  @NotNull
+  @DecimalMin(value = "0", inclusive = false)
+  @JsonFormat(shape = JsonFormat.Shape.STRING)
+  @Schema(type = "string", example = "10.00")
+  private BigDecimal amount;
+}
@@ -0,0 +1,41 @@
+package dk.souyave.payments.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Outcome of a single transfer within a batch, in the order the transfers were
+ * submitted
+ */
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferResult {
+
+  @Schema(description = "Position of the transfer in the batch, starting at 0")
+  private long index;
+
+  @Schema(description = "COMPLETED, FAILED, or ABORTED when another transfer in an atomic batch failed")
+  private TransferStatus status;
+
+  @Schema(description = "The 'from' account transaction of a completed transfer")
+  private Transaction transaction;
+
+  @Schema(description = "Why the transfer failed")
+  private String error;
+
+  public static TransferResult completed(long index, Transaction transaction) {
+    return TransferResult.builder().index(index).status(TransferStatus.COMPLETED).transaction(transaction).build();
+  }
+
+  public static TransferResult failed(long index, Throwable error) {
+    return TransferResult.builder().index(index).status(TransferStatus.FAILED).error(error.getMessage()).build();
+  }
+
+  public static TransferResult aborted(long index) {
+    return TransferResult.builder().index(index).status(TransferStatus.ABORTED).build();
+  }
+}
@@ -0,0 +1,5 @@
+package dk.souyave.payments.domain;
+
+public enum TransferStatus {
+  COMPLETED, FAILED, ABORTED;
+}
@@ -0,0 +1,17 @@
+package dk.souyave.payments.exception;
+
+public class IdempotencyKeyReusedException extends RejectionException {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final IdempotencyKeyReusedException INSTANCE = new IdempotencyKeyReusedException();
+
+  public IdempotencyKeyReusedException() {
+    super("The idempotency key has already been used for a different transfer");
+  }
+
+  public IdempotencyKeyReusedException(String message) {
+    super(message);
+  }
+
+}
@@ -1,12 +1,14 @@
 package dk.souyave.payments.exception;
 
-public class InsufficientFundsException extends RuntimeException {
+public class InsufficientFundsException extends RejectionException {
 
   private static final long serialVersionUID = 1L;
 
+  public static final InsufficientFundsException INSTANCE = new InsufficientFundsException();
+
   public InsufficientFundsException() {
     super("The selected account has insufficient funds to do complete transaction");
-  };
+  }
 
   public InsufficientFundsException(String message) {
     super(message);
@@ -1,12 +1,14 @@
 package dk.souyave.payments.exception;
 
-public class InvalidAccountException extends RuntimeException {
+public class InvalidAccountException extends RejectionException {
 
   private static final long serialVersionUID = 1L;
 
+  public static final InvalidAccountException INSTANCE = new InvalidAccountException();
+
   public InvalidAccountException() {
     super("The selected account is invalid");
-  };
+  }
 
   public InvalidAccountException(String message) {
     super(message);
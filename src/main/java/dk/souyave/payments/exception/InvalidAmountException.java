@@ -0,0 +1,17 @@
+package dk.souyave.payments.exception;
+
+public class InvalidAmountException extends RejectionException {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final InvalidAmountException INSTANCE = new InvalidAmountException();
+
+  public InvalidAmountException() {
+    super("The amount to transfer must be positive, with no more decimals than the currency");
+  }
+
+  public InvalidAmountException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,16 @@
+package dk.souyave.payments.exception;
+
+/**
+ * A transfer or lookup turned down by a business rule. Rejections are expected
+ * and can outnumber successes under retry floods, so they carry no stack trace
+ * and the preallocated INSTANCE of each subclass is thrown rather than a new one
+ */
+public abstract class RejectionException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  protected RejectionException(String message) {
+    super(message, null, false, false);
+  }
+
+}
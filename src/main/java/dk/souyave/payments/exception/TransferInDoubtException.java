@@ -0,0 +1,33 @@
+package dk.souyave.payments.exception;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import dk.souyave.payments.domain.Transaction;
+
+/**
+ * A transfer another node took part in without answering in time, so it is not
+ * known yet whether the money moved. It is settled later on
+ */
+public class TransferInDoubtException extends ResponseStatusException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient CompletableFuture<Transaction> settlement;
+
+  /**
+   * @param settlement completes with the 'from' account transaction once the
+   *                   transfer is confirmed, or with null once it is released
+   *                   without moving any money
+   */
+  public TransferInDoubtException(String reason, CompletableFuture<Transaction> settlement, Throwable cause) {
+    super(HttpStatus.GATEWAY_TIMEOUT, reason, cause);
+    this.settlement = settlement;
+  }
+
+  public CompletableFuture<Transaction> getSettlement() {
+    return settlement;
+  }
+}
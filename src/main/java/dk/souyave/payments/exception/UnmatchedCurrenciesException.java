@@ -1,12 +1,14 @@
 package dk.souyave.payments.exception;
 
-public class UnmatchedCurrenciesException extends RuntimeException {
+public class UnmatchedCurrenciesException extends RejectionException {
 
   private static final long serialVersionUID = 1L;
 
+  public static final UnmatchedCurrenciesException INSTANCE = new UnmatchedCurrenciesException();
+
   public UnmatchedCurrenciesException() {
     super("The selected accounts for the transfer have umatched currencies");
-  };
+  }
 
   public UnmatchedCurrenciesException(String message) {
     super(message);
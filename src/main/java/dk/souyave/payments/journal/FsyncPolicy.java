@@ -0,0 +1,23 @@
+package dk.souyave.payments.journal;
+
+/**
+ * When the journal forces appended records to disk
+ */
+public enum FsyncPolicy {
+
+  /**
+   * Every append is forced to disk before it returns
+   */
+  PER_WRITE,
+
+  /**
+   * Appends are grouped and forced together once per batch interval
+   */
+  TIME,
+
+  /**
+   * Appends are grouped and forced together once the batch size is reached, or
+   * at the latest after the batch interval
+   */
+  COUNT;
+}
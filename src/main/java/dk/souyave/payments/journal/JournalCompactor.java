@@ -0,0 +1,173 @@
+package dk.souyave.payments.journal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.TransactionType;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Periodically folds closed journal segments into a new snapshot and removes
+ * what the snapshot covers.
+ * 
+ * The snapshot is built from the previous snapshot and the closed segments
+ * only, never from the live accounts, so transfers carry on appending to the
+ * active segment without ever waiting on a snapshot being taken.
+ * 
+ * Snapshots stay bounded to the balances plus the most recent transactions of
+ * each account. When the transaction history is archived, the archive holds it
+ * instead: a segment is only folded once every transaction in it is archived,
+ * so a restart replays the transactions not yet archived from the segments
+ * kept, and snapshots keep no transactions at all.
+ */
+@Slf4j
+class JournalCompactor {
+
+  private final TransferJournal journal;
+  private final Duration interval;
+  private final int recentTransactions;
+  // date of the last transfer of each closed segment not yet folded
+  private final Map<Long, Long> lastEpochMicros = new HashMap<>();
+  private LongSupplier archivedBefore = () -> Long.MIN_VALUE;
+  private ScheduledExecutorService scheduler;
+
+  JournalCompactor(TransferJournal journal, Duration interval, int recentTransactions) {
+    this.journal = journal;
+    this.interval = interval;
+    this.recentTransactions = recentTransactions;
+  }
+
+  /**
+   * @param archivedBefore date before which every transaction is archived, or
+   *                       Long.MIN_VALUE while no archive is kept
+   */
+  void start(LongSupplier archivedBefore) {
+    this.archivedBefore = archivedBefore;
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "journal-compactor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::compactQuietly, interval.toMillis(), interval.toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Fold the closed segments not yet covered into a new snapshot
+   * 
+   * @return the last segment covered by the new snapshot, or -1 if there was
+   *         nothing to fold
+   */
+  synchronized long compact() throws IOException {
+    // close the active segment so it is picked up by the next run
+    journal.requestRoll();
+
+    long snapshot = JournalSnapshot.latest(journal.getDirectory());
+    long archived = archivedBefore.getAsLong();
+    List<Long> segments = new ArrayList<>();
+    for (long segment : journal.closedSegments()) {
+      if (segment <= snapshot) {
+        continue;
+      }
+      // segments are folded in order, up to the first holding transactions
+      // not yet archived
+      if (archived != Long.MIN_VALUE && lastEpochMicros(segment) >= archived) {
+        break;
+      }
+      segments.add(segment);
+    }
+    if (segments.isEmpty()) {
+      return -1;
+    }
+
+    long start = System.nanoTime();
+    SnapshotState state = new SnapshotState(archived != Long.MIN_VALUE ? 0 : recentTransactions);
+    if (snapshot >= 0) {
+      JournalSnapshot.read(JournalSnapshot.path(journal.getDirectory(), snapshot), state);
+    }
+    for (long segment : segments) {
+      journal.replay(segment, state);
+    }
+
+    long covered = segments.get(segments.size() - 1);
+    JournalSnapshot.write(JournalSnapshot.path(journal.getDirectory(), covered), state);
+
+    // only clean up once the new snapshot is safely on disk
+    journal.deleteSegmentsUpTo(covered);
+    lastEpochMicros.keySet().removeIf(segment -> segment <= covered);
+    if (snapshot >= 0) {
+      Files.deleteIfExists(JournalSnapshot.path(journal.getDirectory(), snapshot));
+    }
+
+    log.info("Snapshot of {} accounts taken up to journal segment {} in {} ms", state.getAccounts().size(), covered,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return covered;
+  }
+
+  private long lastEpochMicros(long segment) throws IOException {
+    Long epochMicros = lastEpochMicros.get(segment);
+    if (epochMicros == null) {
+      LastTransfer lastTransfer = new LastTransfer();
+      journal.replay(segment, lastTransfer);
+      epochMicros = lastTransfer.epochMicros;
+      lastEpochMicros.put(segment, epochMicros);
+    }
+    return epochMicros;
+  }
+
+  private void compactQuietly() {
+    try {
+      compact();
+    } catch (IOException | RuntimeException e) {
+      log.error("Failed taking a journal snapshot", e);
+    }
+  }
+
+  /**
+   * Finds the date of the last transfer of a segment, or Long.MIN_VALUE if it
+   * holds none
+   */
+  private static class LastTransfer implements JournalListener {
+
+    private long epochMicros = Long.MIN_VALUE;
+
+    @Override
+    public void accountCreated(int accountId, String currency, long minorBalance, AccountStatus status) {
+    }
+
+    @Override
+    public void accountDeleted(int accountId) {
+    }
+
+    @Override
+    public void transfer(int fromAccountId, int toAccountId, long minorAmount, long creditMinorAmount,
+        long debitTransactionId, long epochMicros) {
+      this.epochMicros = Math.max(this.epochMicros, epochMicros);
+    }
+
+    @Override
+    public void transaction(long transactionId, int accountId, TransactionType type, long minorAmount,
+        long minorBalance, long epochMicros) {
+    }
+
+    @Override
+    public void lastIds(int lastAccountId, long lastTransactionId) {
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package dk.souyave.payments.journal;
+
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.TransactionType;
+
+/**
+ * Receives the events read back from a snapshot and the journal, in the order
+ * they were recorded
+ */
+public interface JournalListener {
+
+  void accountCreated(int accountId, String currency, long minorBalance, AccountStatus status);
+
+  void accountDeleted(int accountId);
+
+  /**
+   * @param minorAmount        debited, in minor units of the 'from' currency
+   * @param creditMinorAmount  credited, in minor units of the 'to' currency
+   * @param debitTransactionId id of the debit transaction, the credit
+   *                           transaction always follows on with the next id
+   * @param epochMicros        time of the transfer
+   */
+  void transfer(int fromAccountId, int toAccountId, long minorAmount, long creditMinorAmount,
+      long debitTransactionId, long epochMicros);
+
+  /**
+   * A transaction kept in a snapshot, whose effect is already part of the
+   * account balance
+   * 
+   * @param minorBalance balance of the account right after the transaction
+   */
+  void transaction(long transactionId, int accountId, TransactionType type, long minorAmount, long minorBalance,
+      long epochMicros);
+
+  /**
+   * The highest ids handed out up to a snapshot
+   */
+  void lastIds(int lastAccountId, long lastTransactionId);
+}
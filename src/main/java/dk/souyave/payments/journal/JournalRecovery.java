@@ -0,0 +1,105 @@
+package dk.souyave.payments.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InProcessTransactionRepo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Rebuilds the accounts and transactions from the journal once all beans are
+ * created, before the web server starts taking requests. Only with the journal
+ * enabled, which needs the ledger held in process
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "payments.journal.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class JournalRecovery implements SmartInitializingSingleton, JournalListener {
+
+  private final TransferJournal transferJournal;
+  private final AccountsRepo accountsRepo;
+  private final InProcessTransactionRepo transactionRepo;
+
+  private int lastAccountId;
+  private long lastTransactionId;
+  private long accounts;
+  private long transfers;
+
+  @Override
+  public void afterSingletonsInstantiated() {
+    long start = System.nanoTime();
+    try {
+      transferJournal.open(this, transactionRepo::archivedBefore);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed recovering from the journal", e);
+    }
+
+    // carry on generating ids after the recovered ones
+    Account.ID_GENERATOR.advancePast(lastAccountId);
+    Transaction.ID_GENERATOR.advancePast(lastTransactionId);
+
+    log.info("Recovered {} accounts and {} transfers from the journal in {} ms", accounts, transfers,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  @Override
+  public void accountCreated(int accountId, String currency, long minorBalance, AccountStatus status) {
+    Account account = new Account(accountId);
+    account.setCurrency(currency);
+    account.credit(minorBalance);
+    account.setStatus(status);
+    accountsRepo.createAccount(account).block();
+    lastAccountId = Math.max(lastAccountId, accountId);
+    accounts++;
+  }
+
+  @Override
+  public void accountDeleted(int accountId) {
+    accountsRepo.deleteAccount(accountId).block();
+  }
+
+  @Override
+  public void transfer(int fromAccountId, int toAccountId, long minorAmount, long creditMinorAmount,
+      long debitTransactionId, long epochMicros) {
+    Account fromAccount = accountsRepo.getAccount(fromAccountId).block();
+    Account toAccount = accountsRepo.getAccount(toAccountId).block();
+
+    fromAccount.debit(minorAmount);
+    toAccount.credit(creditMinorAmount);
+
+    transactionRepo.save(debitTransactionId, fromAccountId, TransactionType.DEBIT, minorAmount,
+        fromAccount.getMinorBalance(), fromAccount.getScale(), epochMicros);
+    transactionRepo.save(debitTransactionId + 1, toAccountId, TransactionType.CREDIT, creditMinorAmount,
+        toAccount.getMinorBalance(), toAccount.getScale(), epochMicros);
+
+    lastTransactionId = Math.max(lastTransactionId, debitTransactionId + 1);
+    transfers++;
+  }
+
+  @Override
+  public void transaction(long transactionId, int accountId, TransactionType type, long minorAmount,
+      long minorBalance, long epochMicros) {
+    Account account = accountsRepo.getAccount(accountId).block();
+    transactionRepo.save(transactionId, accountId, type, minorAmount, minorBalance, account.getScale(),
+        epochMicros);
+    lastTransactionId = Math.max(lastTransactionId, transactionId);
+  }
+
+  @Override
+  public void lastIds(int lastAccountId, long lastTransactionId) {
+    this.lastAccountId = Math.max(this.lastAccountId, lastAccountId);
+    this.lastTransactionId = Math.max(this.lastTransactionId, lastTransactionId);
+  }
+}
@@ -0,0 +1,160 @@
+package dk.souyave.payments.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.journal.SnapshotState.AccountState;
+import dk.souyave.payments.journal.SnapshotState.RecentTransaction;
+
+/**
+ * Compact binary snapshot of the ledger, named after the last journal segment
+ * it covers. Laid out as a header of the last ids, then per account its id,
+ * balance, status, currency and most recent transactions, with a crc32c of the
+ * whole file as the trailer.
+ */
+final class JournalSnapshot {
+
+  private static final String PREFIX = "snapshot-";
+  private static final String SUFFIX = ".bin";
+  private static final int MAGIC = 0x50534E50;
+  private static final int VERSION = 3;
+  // the last version with 32 bit transaction ids, still read back
+  private static final int INT_ID_VERSION = 2;
+
+  private JournalSnapshot() {
+  }
+
+  static Path path(Path directory, long segment) {
+    return directory.resolve(String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+  }
+
+  /**
+   * @return the segment covered by the latest snapshot, or -1 if there is none
+   */
+  static long latest(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .map(file -> file.getFileName().toString())
+          .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+          .mapToLong(name -> Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())))
+          .max()
+          .orElse(-1);
+    }
+  }
+
+  /**
+   * Write the snapshot to a temporary file and atomically move it in place once
+   * it is on disk, so a crash never leaves a partial snapshot behind
+   */
+  static void write(Path file, SnapshotState state) throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    CRC32C checksum = new CRC32C();
+
+    try (FileChannel channel = FileChannel.open(temporary,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new CheckedOutputStream(Channels.newOutputStream(channel), checksum), 1 << 16))) {
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(state.getLastAccountId());
+      out.writeLong(state.getLastTransactionId());
+      out.writeInt(state.getAccounts().size());
+
+      for (AccountState account : state.getAccounts().values()) {
+        out.writeInt(account.id);
+        out.writeLong(account.minorBalance);
+        out.writeByte(account.status.ordinal());
+        if (account.currency == null) {
+          out.writeShort(-1);
+        } else {
+          byte[] currency = account.currency.getBytes(StandardCharsets.UTF_8);
+          out.writeShort(currency.length);
+          out.write(currency);
+        }
+
+        out.writeInt(account.recent.size());
+        for (RecentTransaction transaction : account.recent) {
+          out.writeLong(transaction.id());
+          out.writeByte(transaction.type().ordinal());
+          out.writeLong(transaction.minorAmount());
+          out.writeLong(transaction.minorBalance());
+          out.writeLong(transaction.epochMicros());
+        }
+      }
+
+      out.flush();
+      out.writeInt((int) checksum.getValue());
+      out.flush();
+      channel.force(true);
+    }
+
+    Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Read a snapshot back, passing each account and its recent transactions on
+   * to the listener
+   */
+  static void read(Path file, JournalListener listener) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      int trailer = snapshot.limit() - Integer.BYTES;
+      if (trailer < 0) {
+        throw new IOException("Snapshot " + file + " is corrupt");
+      }
+      CRC32C checksum = new CRC32C();
+      checksum.update(snapshot.duplicate().limit(trailer));
+      if (snapshot.getInt(trailer) != (int) checksum.getValue() || snapshot.getInt() != MAGIC) {
+        throw new IOException("Snapshot " + file + " is corrupt");
+      }
+      int version = snapshot.getInt();
+      if (version != VERSION && version != INT_ID_VERSION) {
+        throw new IOException("Snapshot " + file + " is corrupt");
+      }
+      boolean longIds = version == VERSION;
+
+      int lastAccountId = snapshot.getInt();
+      long lastTransactionId = longIds ? snapshot.getLong() : snapshot.getInt();
+      int accounts = snapshot.getInt();
+
+      for (int i = 0; i < accounts; i++) {
+        int accountId = snapshot.getInt();
+        long minorBalance = snapshot.getLong();
+        AccountStatus status = AccountStatus.values()[snapshot.get()];
+        short length = snapshot.getShort();
+        String currency = null;
+        if (length >= 0) {
+          byte[] bytes = new byte[length];
+          snapshot.get(bytes);
+          currency = new String(bytes, StandardCharsets.UTF_8);
+        }
+        listener.accountCreated(accountId, currency, minorBalance, status);
+
+        int recent = snapshot.getInt();
+        for (int j = 0; j < recent; j++) {
+          long transactionId = longIds ? snapshot.getLong() : snapshot.getInt();
+          listener.transaction(transactionId, accountId, TransactionType.values()[snapshot.get()],
+              snapshot.getLong(), snapshot.getLong(), snapshot.getLong());
+        }
+      }
+
+      listener.lastIds(lastAccountId, lastTransactionId);
+    }
+  }
+}
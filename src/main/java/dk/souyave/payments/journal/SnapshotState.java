@@ -0,0 +1,103 @@
+package dk.souyave.payments.journal;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.TransactionType;
+import lombok.Getter;
+
+/**
+ * Ledger state folded from a snapshot and the journal segments after it: the
+ * balance and status of every account plus its most recent transactions
+ */
+@Getter
+class SnapshotState implements JournalListener {
+
+  private final int recentTransactions;
+  private final Map<Integer, AccountState> accounts = new TreeMap<>();
+  private int lastAccountId;
+  private long lastTransactionId;
+
+  /**
+   * @param recentTransactions most recent transactions kept per account, none
+   *                           when 0
+   */
+  SnapshotState(int recentTransactions) {
+    this.recentTransactions = recentTransactions;
+  }
+
+  @Override
+  public void accountCreated(int accountId, String currency, long minorBalance, AccountStatus status) {
+    accounts.put(accountId, new AccountState(accountId, currency, minorBalance, status));
+    lastAccountId = Math.max(lastAccountId, accountId);
+  }
+
+  @Override
+  public void accountDeleted(int accountId) {
+    AccountState account = accounts.get(accountId);
+    if (account != null) {
+      account.status = AccountStatus.DELETED;
+    }
+  }
+
+  @Override
+  public void transfer(int fromAccountId, int toAccountId, long minorAmount, long creditMinorAmount,
+      long debitTransactionId, long epochMicros) {
+    AccountState fromAccount = accounts.get(fromAccountId);
+    AccountState toAccount = accounts.get(toAccountId);
+    fromAccount.minorBalance -= minorAmount;
+    toAccount.minorBalance += creditMinorAmount;
+    fromAccount.add(new RecentTransaction(debitTransactionId, TransactionType.DEBIT, minorAmount,
+        fromAccount.minorBalance, epochMicros));
+    toAccount.add(new RecentTransaction(debitTransactionId + 1, TransactionType.CREDIT, creditMinorAmount,
+        toAccount.minorBalance, epochMicros));
+    lastTransactionId = Math.max(lastTransactionId, debitTransactionId + 1);
+  }
+
+  @Override
+  public void transaction(long transactionId, int accountId, TransactionType type, long minorAmount,
+      long minorBalance, long epochMicros) {
+    accounts.get(accountId).add(new RecentTransaction(transactionId, type, minorAmount, minorBalance, epochMicros));
+    lastTransactionId = Math.max(lastTransactionId, transactionId);
+  }
+
+  @Override
+  public void lastIds(int lastAccountId, long lastTransactionId) {
+    this.lastAccountId = Math.max(this.lastAccountId, lastAccountId);
+    this.lastTransactionId = Math.max(this.lastTransactionId, lastTransactionId);
+  }
+
+  class AccountState {
+
+    final int id;
+    final String currency;
+    long minorBalance;
+    AccountStatus status;
+
+    // oldest first, bounded to the number of recent transactions kept
+    final Deque<RecentTransaction> recent = new ArrayDeque<>();
+
+    AccountState(int id, String currency, long minorBalance, AccountStatus status) {
+      this.id = id;
+      this.currency = currency;
+      this.minorBalance = minorBalance;
+      this.status = status;
+    }
+
+    void add(RecentTransaction transaction) {
+      if (recentTransactions == 0) {
+        return;
+      }
+      if (recent.size() == recentTransactions) {
+        recent.removeFirst();
+      }
+      recent.addLast(transaction);
+    }
+  }
+
+  record RecentTransaction(long id, TransactionType type, long minorAmount, long minorBalance, long epochMicros) {
+  }
+}
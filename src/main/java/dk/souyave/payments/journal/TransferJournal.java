@@ -0,0 +1,527 @@
+package dk.souyave.payments.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountStatus;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Append only write ahead journal of account and transfer events, replayed on
+ * startup to rebuild the repositories.
+ * 
+ * Records are encoded into an in memory buffer under a short lock and written
+ * to the file channel in order. Unless every write is forced on its own, a
+ * flusher thread forces the channel once per batch and completes the future
+ * shared by every record in that batch, so concurrent transfers share one
+ * fsync between them (group commit).
+ * 
+ * Each record is laid out as [length][crc32c][type][body], which lets replay
+ * detect and drop a torn tail left by a crash mid write.
+ * 
+ * The journal is split into numbered segments. The active segment is rolled
+ * over once it reaches the segment size or a snapshot asks for it, and closed
+ * segments are folded into snapshots by the {@link JournalCompactor}, so a
+ * restart only loads the latest snapshot and replays the segments after it.
+ */
+@Slf4j
+@Component
+public class TransferJournal implements DisposableBean {
+
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private static final byte ACCOUNT_CREATED = 1;
+  private static final byte ACCOUNT_DELETED = 2;
+  // transfers with 32 bit transaction ids, only read back from older journals
+  private static final byte INT_ID_TRANSFER = 3;
+  private static final byte TRANSFER = 4;
+  // transfers between currencies, which also record the amount credited
+  private static final byte FX_TRANSFER = 5;
+
+  private static final int HEADER_SIZE = 8;
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final int MAX_RECORD_SIZE = 1 << 10;
+
+  private final boolean enabled;
+  private final Path directory;
+  private final FsyncPolicy fsync;
+  private final long batchIntervalNanos;
+  private final int batchSize;
+  private final long segmentSize;
+  private final JournalCompactor compactor;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  // only used by appenders under the lock, replays have their own
+  private final CRC32C checksum = new CRC32C();
+
+  // the batch still collecting records, and the batch currently being forced
+  private CompletableFuture<Void> pending = new CompletableFuture<>();
+  private CompletableFuture<Void> flushing = CompletableFuture.completedFuture(null);
+  private int pendingCount;
+
+  private FileChannel channel;
+  private volatile long segment;
+  private long segmentBytes;
+  private volatile boolean rollRequested;
+  private Thread flusher;
+  private volatile boolean running;
+
+  public TransferJournal(
+      @Value("${payments.journal.enabled:false}") boolean enabled,
+      @Value("${payments.journal.directory:data/journal}") Path directory,
+      @Value("${payments.journal.fsync:time}") FsyncPolicy fsync,
+      @Value("${payments.journal.batch-interval:2ms}") Duration batchInterval,
+      @Value("${payments.journal.batch-size:256}") int batchSize,
+      @Value("${payments.journal.segment-size:64MB}") DataSize segmentSize,
+      @Value("${payments.journal.snapshot-interval:1m}") Duration snapshotInterval,
+      @Value("${payments.journal.snapshot-transactions:20}") int snapshotTransactions) {
+    this.enabled = enabled;
+    this.directory = directory;
+    this.fsync = fsync;
+    this.batchIntervalNanos = batchInterval.toNanos();
+    this.batchSize = batchSize;
+    this.segmentSize = segmentSize.toBytes();
+    this.compactor = new JournalCompactor(this, snapshotInterval, snapshotTransactions);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Load the latest snapshot, replay every intact record of the segments after
+   * it to the listener, and start accepting appends in a fresh segment
+   * 
+   * @param listener to receive the recovered events
+   */
+  public void open(JournalListener listener) throws IOException {
+    open(listener, () -> Long.MIN_VALUE);
+  }
+
+  /**
+   * Open the journal with the transaction history kept in an archive, so that
+   * segments are only folded into a snapshot once every transaction in them is
+   * archived, and snapshots keep no transactions of their own
+   *
+   * @param listener       to receive the recovered events
+   * @param archivedBefore date before which every transaction is archived, or
+   *                       Long.MIN_VALUE while no archive is kept
+   */
+  public void open(JournalListener listener, LongSupplier archivedBefore) throws IOException {
+    Files.createDirectories(directory);
+
+    long snapshot = JournalSnapshot.latest(directory);
+    if (snapshot >= 0) {
+      JournalSnapshot.read(JournalSnapshot.path(directory, snapshot), listener);
+    }
+
+    long last = snapshot;
+    for (long closed : segments()) {
+      if (closed > snapshot) {
+        replay(closed, listener);
+      }
+      last = Math.max(last, closed);
+    }
+
+    segment = last + 1;
+    channel = openSegment(segment);
+
+    if (fsync != FsyncPolicy.PER_WRITE) {
+      running = true;
+      flusher = new Thread(this::runFlusher, "journal-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+    }
+    compactor.start(archivedBefore);
+  }
+
+  public void accountCreated(Account account) {
+    if (!enabled) {
+      return;
+    }
+    byte[] currency = account.getCurrency() == null ? null
+        : account.getCurrency().getBytes(StandardCharsets.UTF_8);
+
+    lock.lock();
+    try {
+      int start = begin(ACCOUNT_CREATED);
+      buffer.putInt(account.getId())
+          .putLong(account.getMinorBalance())
+          .put((byte) account.getStatus().ordinal())
+          .putShort((short) (currency == null ? -1 : currency.length));
+      if (currency != null) {
+        buffer.put(currency);
+      }
+      end(start);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void accountDeleted(int accountId) {
+    if (!enabled) {
+      return;
+    }
+    lock.lock();
+    try {
+      int start = begin(ACCOUNT_DELETED);
+      buffer.putInt(accountId);
+      end(start);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Append a transfer. Called from the debit leg before any balance is touched,
+   * so a transfer is never applied without being journaled first
+   */
+  public void transfer(Account fromAccount, Account toAccount, long minorAmount, long debitTransactionId,
+      long epochMicros) {
+    transfer(fromAccount, toAccount, minorAmount, minorAmount, debitTransactionId, epochMicros);
+  }
+
+  /**
+   * Append a transfer between currencies, where the amount credited differs
+   * from the amount debited
+   */
+  public void transfer(Account fromAccount, Account toAccount, long minorAmount, long creditMinorAmount,
+      long debitTransactionId, long epochMicros) {
+    if (!enabled) {
+      return;
+    }
+    lock.lock();
+    try {
+      // the credited amount is only written when it differs
+      boolean converted = creditMinorAmount != minorAmount;
+      int start = begin(converted ? FX_TRANSFER : TRANSFER);
+      buffer.putInt(fromAccount.getId())
+          .putInt(toAccount.getId())
+          .putLong(minorAmount);
+      if (converted) {
+        buffer.putLong(creditMinorAmount);
+      }
+      buffer.putLong(debitTransactionId)
+          .putLong(epochMicros);
+      end(start);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return completes once everything appended so far is durable on disk
+   */
+  public Mono<Void> sync() {
+    if (!enabled || fsync == FsyncPolicy.PER_WRITE) {
+      return Mono.empty();
+    }
+
+    CompletableFuture<Void> batch;
+    lock.lock();
+    try {
+      batch = pendingCount > 0 ? pending : flushing;
+    } finally {
+      lock.unlock();
+    }
+    return batch.isDone() && !batch.isCompletedExceptionally() ? Mono.empty() : Mono.fromFuture(batch, true);
+  }
+
+  @Override
+  public void destroy() throws IOException {
+    compactor.stop();
+    if (flusher != null) {
+      running = false;
+      LockSupport.unpark(flusher);
+      try {
+        flusher.join(TimeUnit.SECONDS.toMillis(5));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  /**
+   * Take a snapshot straight away rather than waiting for the next interval
+   * 
+   * @return the last segment covered by the snapshot, or -1 if there was
+   *         nothing new to snapshot
+   */
+  long snapshot() throws IOException {
+    return compactor.compact();
+  }
+
+  Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Ask for the active segment to be closed, so everything appended so far can
+   * be folded into the next snapshot
+   */
+  void requestRoll() {
+    rollRequested = true;
+  }
+
+  /**
+   * @return the numbers of all segments no longer being appended to, in order
+   */
+  List<Long> closedSegments() throws IOException {
+    long active = segment;
+    return segments().stream().filter(closed -> closed < active).toList();
+  }
+
+  /**
+   * Replay every intact record of a segment to the listener
+   */
+  void replay(long number, JournalListener listener) throws IOException {
+    try (FileChannel segmentChannel = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+      long size = segmentChannel.size();
+      long valid = replay(segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, size), listener);
+      if (valid < size) {
+        log.warn("Ignoring {} bytes of incomplete records at the end of journal segment {}", size - valid, number);
+      }
+    }
+  }
+
+  /**
+   * Remove closed segments that are covered by a snapshot
+   */
+  void deleteSegmentsUpTo(long number) throws IOException {
+    for (long closed : closedSegments()) {
+      if (closed <= number) {
+        Files.deleteIfExists(segmentPath(closed));
+      }
+    }
+  }
+
+  private int begin(byte type) {
+    if (buffer.remaining() < MAX_RECORD_SIZE) {
+      write();
+    }
+    int start = buffer.position();
+    buffer.position(start + HEADER_SIZE);
+    buffer.put(type);
+    return start;
+  }
+
+  private void end(int start) {
+    int end = buffer.position();
+    buffer.limit(end).position(start + HEADER_SIZE);
+    checksum.reset();
+    checksum.update(buffer);
+    buffer.limit(buffer.capacity());
+    buffer.putInt(start, end - start - HEADER_SIZE)
+        .putInt(start + 4, (int) checksum.getValue());
+
+    if (fsync == FsyncPolicy.PER_WRITE) {
+      write();
+      force();
+      if (rollRequested || segmentBytes >= segmentSize) {
+        roll();
+      }
+    } else if (++pendingCount >= batchSize && fsync == FsyncPolicy.COUNT) {
+      LockSupport.unpark(flusher);
+    }
+  }
+
+  // write out the buffered records, must hold the lock
+  private void write() {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        segmentBytes += channel.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed writing to the journal", e);
+    } finally {
+      buffer.clear();
+    }
+  }
+
+  private void force() {
+    try {
+      channel.force(false);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed forcing the journal to disk", e);
+    }
+  }
+
+  private void runFlusher() {
+    while (running) {
+      LockSupport.parkNanos(this, batchIntervalNanos);
+      flush();
+    }
+    flush();
+  }
+
+  private void flush() {
+    CompletableFuture<Void> batch = null;
+    lock.lock();
+    try {
+      if (pendingCount > 0) {
+        batch = pending;
+        pending = new CompletableFuture<>();
+        flushing = batch;
+        pendingCount = 0;
+        write();
+      }
+    } catch (RuntimeException e) {
+      log.error("Failed writing journal batch", e);
+      flushing.completeExceptionally(e);
+      return;
+    } finally {
+      lock.unlock();
+    }
+
+    // force outside the lock so appends carry on filling the next batch
+    if (batch != null) {
+      try {
+        force();
+        batch.complete(null);
+      } catch (RuntimeException e) {
+        log.error("Failed forcing journal batch", e);
+        batch.completeExceptionally(e);
+      }
+    }
+
+    if (rollRequested || segmentBytes >= segmentSize) {
+      lock.lock();
+      try {
+        roll();
+      } catch (RuntimeException e) {
+        log.error("Failed rolling journal segment", e);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  // close the active segment and start the next one, must hold the lock and
+  // only ever be called from the thread that forces the channel
+  private void roll() {
+    write();
+    force();
+    try {
+      FileChannel next = openSegment(segment + 1);
+      channel.close();
+      channel = next;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed rolling journal segment", e);
+    }
+    segment++;
+    segmentBytes = 0;
+    rollRequested = false;
+  }
+
+  private FileChannel openSegment(long number) throws IOException {
+    return FileChannel.open(segmentPath(number),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private Path segmentPath(long number) {
+    return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+  }
+
+  private List<Long> segments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .map(file -> file.getFileName().toString())
+          .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+          .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+          .sorted()
+          .toList();
+    }
+  }
+
+  private static long replay(MappedByteBuffer records, JournalListener listener) {
+    // the compactor replays closed segments while records are appended
+    CRC32C checksum = new CRC32C();
+    long valid = 0;
+    while (records.remaining() >= HEADER_SIZE) {
+      int start = records.position();
+      int length = records.getInt();
+      int crc = records.getInt();
+      if (length <= 0 || length > records.remaining()) {
+        break;
+      }
+
+      int end = start + HEADER_SIZE + length;
+      records.limit(end);
+      checksum.reset();
+      checksum.update(records);
+      records.limit(records.capacity());
+      if ((int) checksum.getValue() != crc) {
+        break;
+      }
+
+      records.position(start + HEADER_SIZE);
+      dispatch(records, listener);
+      records.position(end);
+      valid = end;
+    }
+    return valid;
+  }
+
+  private static void dispatch(ByteBuffer record, JournalListener listener) {
+    switch (record.get()) {
+      case ACCOUNT_CREATED -> {
+        int accountId = record.getInt();
+        long minorBalance = record.getLong();
+        AccountStatus status = AccountStatus.values()[record.get()];
+        short length = record.getShort();
+        String currency = null;
+        if (length >= 0) {
+          byte[] bytes = new byte[length];
+          record.get(bytes);
+          currency = new String(bytes, StandardCharsets.UTF_8);
+        }
+        listener.accountCreated(accountId, currency, minorBalance, status);
+      }
+      case ACCOUNT_DELETED -> listener.accountDeleted(record.getInt());
+      case TRANSFER -> {
+        int fromAccountId = record.getInt();
+        int toAccountId = record.getInt();
+        long minorAmount = record.getLong();
+        listener.transfer(fromAccountId, toAccountId, minorAmount, minorAmount, record.getLong(), record.getLong());
+      }
+      case INT_ID_TRANSFER -> {
+        int fromAccountId = record.getInt();
+        int toAccountId = record.getInt();
+        long minorAmount = record.getLong();
+        listener.transfer(fromAccountId, toAccountId, minorAmount, minorAmount, record.getInt(), record.getLong());
+      }
+      case FX_TRANSFER -> listener.transfer(record.getInt(), record.getInt(), record.getLong(), record.getLong(),
+          record.getLong(), record.getLong());
+      default -> throw new IllegalStateException("Unknown journal record type");
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package dk.souyave.payments.repo;
+
+import java.util.Arrays;
+
+/**
+ * The rows of one account's transactions, kept sorted oldest first by date
+ * then id. Transactions almost always arrive in order and are simply appended,
+ * a late one is slotted in place. Guarded by its own monitor, which also
+ * publishes the columns of each added row to readers
+ */
+class AccountIndex {
+
+  private final TransactionColumns columns;
+  private int[] rows = new int[4];
+  private int size;
+
+  AccountIndex(TransactionColumns columns) {
+    this.columns = columns;
+  }
+
+  synchronized void add(int row) {
+    if (size == rows.length) {
+      rows = Arrays.copyOf(rows, size + (size >> 1));
+    }
+    long epochMicros = columns.epochMicros(row);
+    long id = columns.id(row);
+
+    int at = size;
+    while (at > 0 && compare(rows[at - 1], epochMicros, id) > 0) {
+      at--;
+    }
+    System.arraycopy(rows, at, rows, at + 1, size - at);
+    rows[at] = row;
+    size++;
+  }
+
+  /**
+   * Copy out the next rows of a most recent first walk
+   * 
+   * @param epochMicros date of the last row already seen
+   * @param id          of the last row already seen
+   * @param fromStart   true to start at the most recent row instead
+   * @param page        filled with the rows older than the last one seen
+   * @return number of rows copied into the page
+   */
+  synchronized int page(long epochMicros, long id, boolean fromStart, int[] page) {
+    // index of the first row older than the last one seen
+    int end = fromStart ? size : olderThan(epochMicros, id);
+    int count = Math.min(page.length, end);
+    for (int i = 0; i < count; i++) {
+      page[i] = rows[end - 1 - i];
+    }
+    return count;
+  }
+
+  /**
+   * @return a copy of all the rows, oldest first
+   */
+  synchronized int[] rows() {
+    return Arrays.copyOf(rows, size);
+  }
+
+  private int olderThan(long epochMicros, long id) {
+    int low = 0, high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compare(rows[mid], epochMicros, id) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int compare(int row, long epochMicros, long id) {
+    int byDate = Long.compare(columns.epochMicros(row), epochMicros);
+    return byDate != 0 ? byDate : Long.compare(columns.id(row), id);
+  }
+}
@@ -1,23 +1,12 @@
 package dk.souyave.payments.repo;
 
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.springframework.stereotype.Repository;
-
 import dk.souyave.payments.domain.Account;
-import dk.souyave.payments.domain.AccountStatus;
-import dk.souyave.payments.exception.InvalidAccountException;
 import reactor.core.publisher.Mono;
 
 /**
- * Repository holding the all the accounts and payment details
+ * Store of all the accounts and their balances
  */
-@Repository
-public class AccountsRepo {
-
-  private Map<Integer, Account> accounts = new ConcurrentHashMap<>();
+public interface AccountsRepo {
 
   /**
    * Get the account details for the provided id
@@ -25,37 +14,25 @@ public class AccountsRepo {
    * @param accountId to look for
    * @return found account object or invalid account if it doesnt exist
    */
-  public Mono<Account> getAccount(int accountId) {
-    return Mono.justOrEmpty(this.accounts.get(accountId))
-        .switchIfEmpty(Mono.error(new InvalidAccountException()));
-  }
+  Mono<Account> getAccount(int accountId);
 
   /**
    * Create an account with the provided account details
    * 
    * @param account
+   * @return the created account
    */
-  public Mono<Account> createAccount(Account account) {
-    this.accounts.put(account.getId(), account);
-    return Mono.justOrEmpty(account);
-  }
+  Mono<Account> createAccount(Account account);
 
   /**
-   * Delete an account with the associated account id
+   * Mark the account with the associated account id as deleted
    * 
    * @param accountId
+   * @return completes once deleted, or invalid account if it doesnt exist
    */
-  public void deleteAccount(int accountId) {
-    Optional.ofNullable(this.accounts.get(accountId))
-        .ifPresentOrElse(
-            account -> account.setStatus(AccountStatus.DELETED),
-            () -> {
-              throw new InvalidAccountException();
-            });
-  }
+  Mono<Void> deleteAccount(int accountId);
+
+  int count();
 
-  public void clearAll() {
-    accounts.clear();
-    Account.ID_GENERATOR.set(1);
-  }
+  void clearAll();
 }
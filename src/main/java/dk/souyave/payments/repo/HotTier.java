@@ -0,0 +1,200 @@
+package dk.souyave.payments.repo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import dk.souyave.payments.domain.StatementCursor;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+
+/**
+ * The tier new transactions are appended to, held in heap as primitive
+ * columns with a per account index of rows in date order. A hot tier takes a
+ * bounded number of rows, or rows up to the end of its time bucket, and is then
+ * sealed so it can be archived while a fresh tier takes over
+ */
+class HotTier implements TransactionTier {
+
+  /** returned by {@link #reserve()} to the one appender that filled the tier */
+  static final int FULL = -1;
+  /** returned by {@link #reserve()} once the tier takes no more rows */
+  static final int SEALED = -2;
+
+  // rows copied out of an account index at a time while walking a statement
+  private static final int PAGE_SIZE = 256;
+
+  private final int capacity;
+  private final long bucketEnd;
+  private final TransactionColumns columns;
+
+  // per account index kept in date order, so statements only ever touch the
+  // transactions of the requested account
+  private final IntKeyedStore<AccountIndex> accountTransactions = new IntKeyedStore<>();
+
+  private final AtomicInteger reserved = new AtomicInteger();
+  private final AtomicInteger written = new AtomicInteger();
+  private volatile int limit = -1;
+  // only lowered by transactions dated before the tier was created, which
+  // appenders that raced the previous tier being sealed may still write
+  private final AtomicLong minEpochMicros;
+
+  /**
+   * @param capacity  most rows the tier takes
+   * @param start     epoch micros the tier was created at
+   * @param bucketEnd epoch micros from which transactions belong to the next
+   *                  tier
+   */
+  HotTier(int capacity, long start, long bucketEnd) {
+    this.capacity = capacity;
+    this.bucketEnd = bucketEnd;
+    this.columns = new TransactionColumns(capacity);
+    this.minEpochMicros = new AtomicLong(start);
+  }
+
+  long bucketEnd() {
+    return bucketEnd;
+  }
+
+  /**
+   * @return the date of the oldest transaction in the tier, or when it was
+   *         created if all are newer
+   */
+  long minEpochMicros() {
+    return minEpochMicros.get();
+  }
+
+  /**
+   * @return the row to write the next transaction to, or {@link #FULL} or
+   *         {@link #SEALED} when the tier takes no more rows
+   */
+  int reserve() {
+    int row = reserved.getAndIncrement();
+    if (row < capacity) {
+      return row;
+    }
+    if (row == capacity) {
+      limit = capacity;
+      return FULL;
+    }
+    return SEALED;
+  }
+
+  /**
+   * Stop taking rows before the tier is full
+   *
+   * @return true if this call sealed the tier, false if it was already sealed
+   *         or full
+   */
+  boolean seal() {
+    int count = reserved.getAndSet(capacity + 1);
+    if (count > capacity) {
+      return false;
+    }
+    limit = count;
+    return true;
+  }
+
+  void write(int row, long id, int accountId, TransactionType type, long minorAmount, long minorBalance, int scale,
+      long epochMicros) {
+    if (epochMicros < minEpochMicros.get()) {
+      minEpochMicros.accumulateAndGet(epochMicros, Math::min);
+    }
+    columns.write(row, id, accountId, type, minorAmount, minorBalance, scale, epochMicros);
+    accountTransactions.computeIfAbsent(accountId, key -> new AccountIndex(columns)).add(row);
+    written.incrementAndGet();
+  }
+
+  /**
+   * Wait until every row reserved before the tier was sealed has been written
+   */
+  void awaitWritten() {
+    while (limit < 0 || written.get() < limit) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+    }
+  }
+
+  /**
+   * Visit every account of a sealed tier in ascending order of id, with its
+   * rows oldest first
+   */
+  void forEachAccount(IntKeyedStore.Visitor<int[]> visitor) {
+    accountTransactions.forEach((accountId, index) -> visitor.visit(accountId, index.rows()));
+  }
+
+  TransactionColumns columns() {
+    return columns;
+  }
+
+  @Override
+  public long maxEpochMicros() {
+    return Long.MAX_VALUE;
+  }
+
+  @Override
+  public int size() {
+    return written.get();
+  }
+
+  @Override
+  public Cursor cursor(int accountId, StatementCursor after) {
+    AccountIndex index = accountTransactions.get(accountId);
+    return index == null ? null : new HotCursor(index, after);
+  }
+
+  /**
+   * Walk of an account index, copying out a page of rows at a time
+   */
+  private class HotCursor implements Cursor {
+
+    private final AccountIndex index;
+    private final int[] page = new int[PAGE_SIZE];
+    private int next;
+    private int count;
+    private boolean fromStart;
+    private long epochMicros;
+    private long id;
+    private int row;
+
+    HotCursor(AccountIndex index, StatementCursor after) {
+      this.index = index;
+      this.fromStart = after == null;
+      if (after != null) {
+        epochMicros = after.epochMicros();
+        id = after.id();
+      }
+    }
+
+    @Override
+    public boolean next() {
+      if (next == count) {
+        count = index.page(epochMicros, id, fromStart, page);
+        next = 0;
+        fromStart = false;
+        if (count == 0) {
+          return false;
+        }
+      }
+      row = page[next++];
+      epochMicros = columns.epochMicros(row);
+      id = columns.id(row);
+      return true;
+    }
+
+    @Override
+    public long epochMicros() {
+      return epochMicros;
+    }
+
+    @Override
+    public long id() {
+      return id;
+    }
+
+    @Override
+    public Transaction transaction() {
+      return columns.materialise(row);
+    }
+  }
+}
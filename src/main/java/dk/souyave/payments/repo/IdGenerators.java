@@ -0,0 +1,34 @@
+package dk.souyave.payments.repo;
+
+import java.nio.file.Path;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sets up the account and transaction id generators on startup, with the
+ * block size, the partition of this node and where their high-water marks are
+ * kept. Ids recovered by the repositories or the journal are skipped however
+ * the two are ordered
+ */
+@Slf4j
+@Component
+public class IdGenerators {
+
+  public IdGenerators(
+      @Value("${payments.ids.block-size:64}") int blockSize,
+      @Value("${payments.ids.node:0}") int node,
+      @Value("${payments.ids.nodes:1}") int nodes,
+      @Value("${payments.ids.persist:false}") boolean persist,
+      @Value("${payments.ids.directory:data/ids}") Path directory,
+      @Value("${payments.ids.lease:65536}") long lease) {
+    Path highWaterMarks = persist ? directory : null;
+    Account.ID_GENERATOR.configure(blockSize, node, nodes, highWaterMarks, lease);
+    Transaction.ID_GENERATOR.configure(blockSize, node, nodes, highWaterMarks, lease);
+    log.info("Generating ids in blocks of {} as node {} of {}", blockSize, node, nodes);
+  }
+}
@@ -0,0 +1,89 @@
+package dk.souyave.payments.repo;
+
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.exception.InvalidAccountException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Repository holding the all the accounts and payment details in memory
+ */
+@Repository
+@ConditionalOnProperty(name = "payments.repo.backend", havingValue = "memory", matchIfMissing = true)
+public class InMemoryAccountsRepo implements AccountsRepo {
+
+  // indexed straight by the sequential account id
+  private final IntKeyedStore<Account> accounts = new IntKeyedStore<>();
+
+  // hot accounts whose balances are striped as they are created
+  private final Set<Integer> stripedAccounts;
+
+  public InMemoryAccountsRepo() {
+    this(Set.of());
+  }
+
+  @Autowired
+  public InMemoryAccountsRepo(@Value("${payments.transfer.striped-accounts:}") Set<Integer> stripedAccounts) {
+    this.stripedAccounts = Set.copyOf(stripedAccounts);
+  }
+
+  /**
+   * Get the account details for the provided id
+   * 
+   * @param accountId to look for
+   * @return found account object or invalid account if it doesnt exist
+   */
+  @Override
+  public Mono<Account> getAccount(int accountId) {
+    Account account = this.accounts.get(accountId);
+    return account != null ? Mono.just(account) : Mono.error(InvalidAccountException.INSTANCE);
+  }
+
+  /**
+   * Create an account with the provided account details
+   * 
+   * @param account
+   */
+  @Override
+  public Mono<Account> createAccount(Account account) {
+    if (stripedAccounts.contains(account.getId())) {
+      account.stripeBalance();
+    }
+    this.accounts.put(account.getId(), account);
+    return Mono.justOrEmpty(account);
+  }
+
+  /**
+   * Delete an account with the associated account id
+   * 
+   * @param accountId
+   */
+  @Override
+  public Mono<Void> deleteAccount(int accountId) {
+    return Mono.fromRunnable(() -> Optional.ofNullable(this.accounts.get(accountId))
+        .ifPresentOrElse(
+            account -> account.setStatus(AccountStatus.DELETED),
+            () -> {
+              throw InvalidAccountException.INSTANCE;
+            }));
+  }
+
+  @Override
+  public int count() {
+    return accounts.size();
+  }
+
+  @Override
+  public void clearAll() {
+    accounts.clear();
+    Account.ID_GENERATOR.reset(1);
+  }
+}
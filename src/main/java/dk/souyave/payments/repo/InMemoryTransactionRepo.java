@@ -0,0 +1,405 @@
+package dk.souyave.payments.repo;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.Money;
+import dk.souyave.payments.domain.StatementCursor;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Ledger of every transaction. Transactions are held as rows of primitive
+ * columns rather than objects, with a per account index of rows in date order,
+ * and are only turned into Transaction objects as they are read.
+ *
+ * With retention enabled the ledger is tiered. New transactions go to a hot
+ * tier in heap, which is sealed once it holds the configured number of
+ * transactions or its time bucket ends. Sealed tiers are written in the
+ * background to compressed, memory mapped segment files, so heap use stays flat
+ * however much history is kept. Statements merge all tiers transparently.
+ */
+@Slf4j
+@Repository
+@ConditionalOnProperty(name = "payments.repo.backend", havingValue = "memory", matchIfMissing = true)
+public class InMemoryTransactionRepo implements InProcessTransactionRepo, InitializingBean, DisposableBean {
+
+  private static final String SEGMENT_PREFIX = "transactions-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  // without retention a hot tier is only rolled over at this many rows
+  private static final int UNBOUNDED = 1 << 30;
+
+  // tiers most recent first: hot tiers, then segments by descending date
+  private static final Comparator<TransactionTier> MOST_RECENT_FIRST = Comparator
+      .comparingLong(TransactionTier::maxEpochMicros).reversed();
+
+  private static final Comparator<TransactionTier.Cursor> NEWEST_HEAD_FIRST = Comparator
+      .comparingLong(TransactionTier.Cursor::epochMicros)
+      .thenComparingLong(TransactionTier.Cursor::id)
+      .reversed();
+
+  private final boolean retention;
+  private final Path directory;
+  private final int hotTransactions;
+  private final long bucketMicros;
+  private final boolean keepArchive;
+  private final AtomicLong nextSegment = new AtomicLong();
+  private ExecutorService archiver;
+
+  private volatile HotTier hot;
+  private volatile List<TransactionTier> tiers;
+
+  /**
+   * Ledger held in heap only, without retention
+   */
+  public InMemoryTransactionRepo() {
+    this(false, null, UNBOUNDED, null, false);
+  }
+
+  @Autowired
+  public InMemoryTransactionRepo(
+      @Value("${payments.retention.enabled:false}") boolean retention,
+      @Value("${payments.retention.directory:data/archive}") Path directory,
+      @Value("${payments.retention.hot-transactions:1000000}") int hotTransactions,
+      @Value("${payments.retention.bucket:1h}") Duration bucket,
+      @Value("${payments.journal.enabled:false}") boolean keepArchive) {
+    this.retention = retention;
+    this.directory = directory;
+    this.hotTransactions = retention ? Math.min(hotTransactions, UNBOUNDED) : UNBOUNDED;
+    this.bucketMicros = retention ? TimeUnit.NANOSECONDS.toMicros(bucket.toNanos()) : 0;
+    this.keepArchive = keepArchive;
+    this.hot = newHotTier(EpochMicros.now());
+    this.tiers = List.of(hot);
+  }
+
+  /**
+   * Map the segments archived before a restart. They are only kept when the
+   * journal is enabled, as without it the accounts they belong to are gone
+   */
+  @Override
+  public void afterPropertiesSet() throws IOException {
+    if (!retention) {
+      return;
+    }
+    Files.createDirectories(directory);
+    List<TransactionTier> archived = new ArrayList<>(tiers);
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.sorted().toList()) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX)) {
+          continue;
+        }
+        if (keepArchive && name.endsWith(SEGMENT_SUFFIX)) {
+          archived.add(TransactionSegment.open(file));
+          String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+          nextSegment.set(Math.max(nextSegment.get(), Long.parseLong(number) + 1));
+        } else {
+          Files.delete(file);
+        }
+      }
+    }
+    archived.sort(MOST_RECENT_FIRST);
+    tiers = List.copyOf(archived);
+
+    archiver = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "transaction-archiver");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public void destroy() throws InterruptedException {
+    if (archiver != null) {
+      archiver.shutdown();
+      archiver.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Override
+  public Mono<Transaction> save(Transaction transaction) {
+    BigDecimal balance = transaction.getBalance() != null ? transaction.getBalance() : BigDecimal.ZERO;
+    int scale = Math.max(0, Math.max(transaction.getAmount().scale(), balance.scale()));
+    save(transaction.getId(), transaction.getAccountId(), transaction.getType(),
+        Money.toMinorExact(transaction.getAmount(), scale), Money.toMinorExact(balance, scale), scale,
+        EpochMicros.of(transaction.getDate()));
+    return Mono.just(transaction);
+  }
+
+  @Override
+  public void save(long id, int accountId, TransactionType type, long minorAmount, long minorBalance, int scale,
+      long epochMicros) {
+    while (true) {
+      HotTier tier = hot;
+      if (epochMicros >= tier.bucketEnd() && tier.seal()) {
+        roll(tier, epochMicros);
+        continue;
+      }
+      int row = tier.reserve();
+      if (row >= 0) {
+        tier.write(row, id, accountId, type, minorAmount, minorBalance, scale, epochMicros);
+        return;
+      }
+      if (row == HotTier.FULL) {
+        roll(tier, epochMicros);
+      } else {
+        // sealed by another appender that is about to swap in the next tier
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  /**
+   * JPA-like query to find all transactions for provided account id, and limits
+   * the result set by the provided size of the most recent transactions
+   *
+   * @param size of result set
+   * @return stream of most recent transactions limited by size
+   */
+  @Override
+  public Flux<Transaction> findAllByAccountIdOrderByDate(int accountId, int size) {
+    return Flux.defer(() -> {
+      Merge merge = new Merge(tiers, accountId, null);
+      Transaction[] transactions = new Transaction[size];
+      int count = 0;
+      while (count < size && (transactions[count] = merge.next()) != null) {
+        count++;
+      }
+      return Flux.fromArray(count == size ? transactions : Arrays.copyOf(transactions, count));
+    });
+  }
+
+  /**
+   * JPA-like query to stream the whole history of an account, most recent
+   * first, optionally resuming after a cursor. The history of every tier is
+   * walked lazily as the subscriber requests more, and older tiers are only
+   * opened once the walk reaches their dates, so it is never copied or sorted
+   * whatever its size
+   *
+   * @param accountId whose history to stream
+   * @param after     cursor to resume after, or null to start at the most
+   *                  recent transaction
+   * @return stream of the account's transactions older than the cursor
+   */
+  @Override
+  public Flux<Transaction> findAllByAccountIdOrderByDateAfter(int accountId, StatementCursor after) {
+    return Flux.<Transaction, Merge>generate(() -> new Merge(tiers, accountId, after), (merge, sink) -> {
+      Transaction transaction = merge.next();
+      if (transaction == null) {
+        sink.complete();
+      } else {
+        sink.next(transaction);
+      }
+      return merge;
+    });
+  }
+
+  @Override
+  public int count() {
+    return tiers.stream().mapToInt(TransactionTier::size).sum();
+  }
+
+  @Override
+  public void clearAll() {
+    awaitArchival();
+    synchronized (this) {
+      for (TransactionTier tier : tiers) {
+        if (tier instanceof TransactionSegment segment) {
+          try {
+            segment.delete();
+          } catch (IOException e) {
+            log.warn("Failed to delete transaction segment", e);
+          }
+        }
+      }
+      hot = newHotTier(EpochMicros.now());
+      tiers = List.of(hot);
+    }
+  }
+
+  /**
+   * Every tier still in heap, hot or sealed and waiting on the archiver, holds
+   * the transactions not yet archived
+   */
+  @Override
+  public long archivedBefore() {
+    if (!retention || !keepArchive) {
+      return Long.MIN_VALUE;
+    }
+    long before = Long.MAX_VALUE;
+    for (TransactionTier tier : tiers) {
+      if (tier instanceof HotTier hotTier) {
+        before = Math.min(before, hotTier.minEpochMicros());
+      }
+    }
+    return before;
+  }
+
+  /**
+   * Wait for every sealed tier handed to the archiver so far to be archived
+   */
+  void awaitArchival() {
+    if (archiver == null) {
+      return;
+    }
+    try {
+      archiver.submit(() -> {
+      }).get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Swap in a fresh hot tier for one that was just sealed, and hand the sealed
+   * one to the archiver. It stays readable in heap until its segment replaces
+   * it
+   *
+   * @param epochMicros of the transaction that sealed the tier, which the next
+   *                    tier's bucket must take
+   */
+  private void roll(HotTier sealed, long epochMicros) {
+    synchronized (this) {
+      hot = newHotTier(Math.max(EpochMicros.now(), epochMicros));
+      List<TransactionTier> rolled = new ArrayList<>(tiers.size() + 1);
+      rolled.add(hot);
+      rolled.addAll(tiers);
+      tiers = List.copyOf(rolled);
+    }
+    if (archiver != null) {
+      archiver.execute(() -> archive(sealed));
+    }
+  }
+
+  private void archive(HotTier sealed) {
+    sealed.awaitWritten();
+    try {
+      TransactionSegment segment = sealed.size() == 0 ? null
+          : TransactionSegment.write(directory.resolve(
+              String.format("%s%019d%s", SEGMENT_PREFIX, nextSegment.getAndIncrement(), SEGMENT_SUFFIX)), sealed);
+      replace(sealed, segment);
+    } catch (IOException e) {
+      log.error("Failed to archive {} transactions, keeping them in memory", sealed.size(), e);
+    }
+  }
+
+  private synchronized void replace(HotTier sealed, TransactionSegment segment) {
+    if (!tiers.contains(sealed)) {
+      // cleared while it was being archived
+      return;
+    }
+    List<TransactionTier> replaced = new ArrayList<>(tiers);
+    replaced.remove(sealed);
+    if (segment != null) {
+      replaced.add(segment);
+    }
+    replaced.sort(MOST_RECENT_FIRST);
+    tiers = List.copyOf(replaced);
+  }
+
+  /**
+   * @param epochMicros date within the bucket of the new tier
+   */
+  private HotTier newHotTier(long epochMicros) {
+    long bucketEnd = bucketMicros > 0 ? (epochMicros / bucketMicros + 1) * bucketMicros : Long.MAX_VALUE;
+    return new HotTier(hotTransactions, epochMicros, bucketEnd);
+  }
+
+  /**
+   * Walk of an account's history across every tier, merging the cursors of the
+   * tiers that hold it by date. The cursor with the newest transaction is kept
+   * out of the queue, so a walk within a single tier never touches it. A
+   * transaction replayed from the journal into the hot tier after it was
+   * already archived is only returned once
+   */
+  private static class Merge {
+
+    private final List<TransactionTier> tiers;
+    private final int accountId;
+    private final StatementCursor after;
+    private final PriorityQueue<TransactionTier.Cursor> heads = new PriorityQueue<>(NEWEST_HEAD_FIRST);
+    private TransactionTier.Cursor newest;
+    private int nextTier;
+    private boolean started;
+    private long lastEpochMicros;
+    private long lastId;
+
+    Merge(List<TransactionTier> tiers, int accountId, StatementCursor after) {
+      this.tiers = tiers;
+      this.accountId = accountId;
+      this.after = after;
+    }
+
+    Transaction next() {
+      while (true) {
+        openTiers();
+        if (newest == null) {
+          return null;
+        }
+        long epochMicros = newest.epochMicros();
+        long id = newest.id();
+        Transaction transaction = started && epochMicros == lastEpochMicros && id == lastId ? null
+            : newest.transaction();
+        if (!newest.next()) {
+          newest = heads.poll();
+        } else if (!heads.isEmpty() && NEWEST_HEAD_FIRST.compare(heads.peek(), newest) < 0) {
+          heads.add(newest);
+          newest = heads.poll();
+        }
+        if (transaction != null) {
+          started = true;
+          lastEpochMicros = epochMicros;
+          lastId = id;
+          return transaction;
+        }
+      }
+    }
+
+    // open every tier that may hold a transaction as recent as the next one
+    private void openTiers() {
+      while (nextTier < tiers.size()
+          && (newest == null || tiers.get(nextTier).maxEpochMicros() >= newest.epochMicros())) {
+        TransactionTier.Cursor cursor = tiers.get(nextTier++).cursor(accountId, after);
+        if (cursor == null || !cursor.next()) {
+          continue;
+        }
+        if (newest == null) {
+          newest = cursor;
+        } else if (NEWEST_HEAD_FIRST.compare(cursor, newest) < 0) {
+          heads.add(newest);
+          newest = cursor;
+        } else {
+          heads.add(cursor);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package dk.souyave.payments.repo;
+
+import dk.souyave.payments.domain.TransactionType;
+
+/**
+ * Ledger held in process, which the legs of an in memory transfer and journal
+ * replay write to straight from primitive fields, without building a
+ * Transaction. Back-ends with a {@link TransferStore} write the transactions
+ * of a transfer in the store instead
+ */
+public interface InProcessTransactionRepo extends TransactionRepo {
+
+  /**
+   * @param minorAmount  amount in minor units of the account currency
+   * @param minorBalance balance of the account right after the transaction
+   * @param scale        of the account currency
+   */
+  void save(long id, int accountId, TransactionType type, long minorAmount, long minorBalance, int scale,
+      long epochMicros);
+
+  /**
+   * @return date before which every transaction saved so far is archived, and
+   *         kept across a restart, or Long.MIN_VALUE if no archive is kept
+   */
+  long archivedBefore();
+}
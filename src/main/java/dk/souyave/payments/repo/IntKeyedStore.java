@@ -0,0 +1,126 @@
+package dk.souyave.payments.repo;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Concurrent map from non negative int keys to values, for the dense
+ * sequential ids handed out by the id generators. Values live in fixed size
+ * segments indexed straight by the key, so a lookup is two array loads with no
+ * boxing and no hashing. Reads never lock; the directory of segments is copied
+ * on write, which only happens once per segment
+ */
+class IntKeyedStore<V> {
+
+  private static final int SEGMENT_BITS = 12;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private volatile AtomicReferenceArray<V>[] segments = newDirectory(0);
+
+  private final AtomicInteger size = new AtomicInteger();
+
+  V get(int key) {
+    AtomicReferenceArray<V>[] directory = segments;
+    int index = key >>> SEGMENT_BITS;
+    if (key < 0 || index >= directory.length) {
+      return null;
+    }
+    AtomicReferenceArray<V> segment = directory[index];
+    return segment == null ? null : segment.get(key & SEGMENT_MASK);
+  }
+
+  /**
+   * @return the value previously held under the key, or null
+   */
+  V put(int key, V value) {
+    V previous = segment(key).getAndSet(key & SEGMENT_MASK, value);
+    if (previous == null) {
+      size.incrementAndGet();
+    }
+    return previous;
+  }
+
+  /**
+   * @return the value held under the key, created by the factory if there was
+   *         none. The factory may be called by racing threads, only one of
+   *         their values is kept
+   */
+  V computeIfAbsent(int key, IntFunction<V> factory) {
+    V value = get(key);
+    if (value != null) {
+      return value;
+    }
+    AtomicReferenceArray<V> segment = segment(key);
+    V created = factory.apply(key);
+    while (!segment.compareAndSet(key & SEGMENT_MASK, null, created)) {
+      V existing = segment.get(key & SEGMENT_MASK);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    size.incrementAndGet();
+    return created;
+  }
+
+  /**
+   * Visit every value in ascending order of key
+   */
+  void forEach(Visitor<V> visitor) {
+    AtomicReferenceArray<V>[] directory = segments;
+    for (int index = 0; index < directory.length; index++) {
+      AtomicReferenceArray<V> segment = directory[index];
+      for (int i = 0; segment != null && i < SEGMENT_SIZE; i++) {
+        V value = segment.get(i);
+        if (value != null) {
+          visitor.visit(index << SEGMENT_BITS | i, value);
+        }
+      }
+    }
+  }
+
+  int size() {
+    return size.get();
+  }
+
+  synchronized void clear() {
+    segments = newDirectory(0);
+    size.set(0);
+  }
+
+  private AtomicReferenceArray<V> segment(int key) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Negative key " + key);
+    }
+    int index = key >>> SEGMENT_BITS;
+    AtomicReferenceArray<V>[] directory = segments;
+    if (index < directory.length && directory[index] != null) {
+      return directory[index];
+    }
+    return addSegment(index);
+  }
+
+  private synchronized AtomicReferenceArray<V> addSegment(int index) {
+    AtomicReferenceArray<V>[] directory = segments;
+    if (index < directory.length && directory[index] != null) {
+      return directory[index];
+    }
+    AtomicReferenceArray<V>[] grown = index < directory.length ? directory.clone()
+        : Arrays.copyOf(directory, Math.max(index + 1, directory.length * 2));
+    grown[index] = new AtomicReferenceArray<>(SEGMENT_SIZE);
+    segments = grown;
+    return grown[index];
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static <V> AtomicReferenceArray<V>[] newDirectory(int length) {
+    return new AtomicReferenceArray[length];
+  }
+
+  interface Visitor<V> {
+
+    void visit(int key, V value);
+  }
+}
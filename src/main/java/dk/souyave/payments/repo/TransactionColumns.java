@@ -0,0 +1,120 @@
+package dk.souyave.payments.repo;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.Money;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+
+/**
+ * Append only store of the transactions of a hot tier, one primitive array per
+ * field. The arrays grow in fixed size chunks, so appending never copies what
+ * is already stored and a row costs 38 bytes with no per transaction objects at
+ * all
+ */
+class TransactionColumns {
+
+  private static final int CHUNK_BITS = 16;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final TransactionType[] TYPES = TransactionType.values();
+
+  private final AtomicReferenceArray<Chunk> chunks;
+
+  /**
+   * @param capacity most rows that will be written
+   */
+  TransactionColumns(int capacity) {
+    this.chunks = new AtomicReferenceArray<>((int) (((long) capacity + CHUNK_SIZE - 1) >>> CHUNK_BITS));
+  }
+
+  /**
+   * Store a transaction at a row reserved by the caller. Other threads may only
+   * read the row once it has been published to them, ie. through the lock of an
+   * account index
+   */
+  void write(int row, long id, int accountId, TransactionType type, long minorAmount, long minorBalance, int scale,
+      long epochMicros) {
+    Chunk chunk = chunk(row >>> CHUNK_BITS);
+    int i = row & CHUNK_MASK;
+    chunk.ids[i] = id;
+    chunk.accountIds[i] = accountId;
+    chunk.epochMicros[i] = epochMicros;
+    chunk.minorAmounts[i] = minorAmount;
+    chunk.minorBalances[i] = minorBalance;
+    chunk.types[i] = (byte) type.ordinal();
+    chunk.scales[i] = (byte) scale;
+  }
+
+  long id(int row) {
+    return chunks.get(row >>> CHUNK_BITS).ids[row & CHUNK_MASK];
+  }
+
+  long epochMicros(int row) {
+    return chunks.get(row >>> CHUNK_BITS).epochMicros[row & CHUNK_MASK];
+  }
+
+  long minorAmount(int row) {
+    return chunks.get(row >>> CHUNK_BITS).minorAmounts[row & CHUNK_MASK];
+  }
+
+  long minorBalance(int row) {
+    return chunks.get(row >>> CHUNK_BITS).minorBalances[row & CHUNK_MASK];
+  }
+
+  TransactionType type(int row) {
+    return TYPES[chunks.get(row >>> CHUNK_BITS).types[row & CHUNK_MASK]];
+  }
+
+  int scale(int row) {
+    return chunks.get(row >>> CHUNK_BITS).scales[row & CHUNK_MASK];
+  }
+
+  /**
+   * Build the API view of a row
+   */
+  Transaction materialise(int row) {
+    Chunk chunk = chunks.get(row >>> CHUNK_BITS);
+    int i = row & CHUNK_MASK;
+    return transaction(chunk.ids[i], chunk.accountIds[i], TYPES[chunk.types[i]], chunk.minorAmounts[i],
+        chunk.minorBalances[i], chunk.scales[i], chunk.epochMicros[i]);
+  }
+
+  /**
+   * Build the API view of a transaction from its primitive fields, wherever
+   * they are stored
+   */
+  static Transaction transaction(long id, int accountId, TransactionType type, long minorAmount, long minorBalance,
+      int scale, long epochMicros) {
+    return Transaction.builder()
+        .id(id)
+        .accountId(accountId)
+        .amount(Money.toBigDecimal(minorAmount, scale))
+        .balance(Money.toBigDecimal(minorBalance, scale))
+        .type(type)
+        .date(EpochMicros.toLocalDateTime(epochMicros))
+        .build();
+  }
+
+  private Chunk chunk(int index) {
+    Chunk chunk = chunks.get(index);
+    if (chunk == null) {
+      // racing appenders may both allocate, only one chunk wins
+      chunks.compareAndSet(index, null, new Chunk());
+      chunk = chunks.get(index);
+    }
+    return chunk;
+  }
+
+  private static class Chunk {
+
+    final long[] ids = new long[CHUNK_SIZE];
+    final int[] accountIds = new int[CHUNK_SIZE];
+    final long[] epochMicros = new long[CHUNK_SIZE];
+    final long[] minorAmounts = new long[CHUNK_SIZE];
+    final long[] minorBalances = new long[CHUNK_SIZE];
+    final byte[] types = new byte[CHUNK_SIZE];
+    final byte[] scales = new byte[CHUNK_SIZE];
+  }
+}
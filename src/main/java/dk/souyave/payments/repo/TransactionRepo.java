@@ -1,38 +1,38 @@
 package dk.souyave.payments.repo;
 
-import java.util.Comparator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.springframework.stereotype.Repository;
-
+import dk.souyave.payments.domain.StatementCursor;
 import dk.souyave.payments.domain.Transaction;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
-@Repository
-public class TransactionRepo {
+/**
+ * Ledger of every transaction
+ */
+public interface TransactionRepo {
 
-  private Map<Integer, Transaction> transactions = new ConcurrentHashMap<>();
-
-  public Mono<Transaction> save(Transaction transaction) {
-    transactions.put(transaction.getId(), transaction);
-    return Mono.just(transaction);
-  }
+  Mono<Transaction> save(Transaction transaction);
 
   /**
    * JPA-like query to find all transactions for provided account id, and limits
    * the result set by the provided size of the most recent transactions
-   * 
+   *
    * @param size of result set
    * @return stream of most recent transactions limited by size
    */
-  public Flux<Transaction> findAllByAccountIdOrderByDate(int accountId, int size) {
-    return Flux.fromStream(transactions.values().stream()
-        .filter(transaction -> accountId == transaction.getAccount().getId())
-        .sorted(Comparator.comparing(Transaction::getDate).reversed())
-        .limit(size))
-        .subscribeOn(Schedulers.parallel());
-  }
+  Flux<Transaction> findAllByAccountIdOrderByDate(int accountId, int size);
+
+  /**
+   * JPA-like query to stream the whole history of an account, most recent
+   * first, optionally resuming after a cursor
+   *
+   * @param accountId whose history to stream
+   * @param after     cursor to resume after, or null to start at the most
+   *                  recent transaction
+   * @return stream of the account's transactions older than the cursor
+   */
+  Flux<Transaction> findAllByAccountIdOrderByDateAfter(int accountId, StatementCursor after);
+
+  int count();
+
+  void clearAll();
 }
@@ -0,0 +1,400 @@
+package dk.souyave.payments.repo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.souyave.payments.domain.StatementCursor;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+
+/**
+ * An archived hot tier: an immutable file of transactions that is memory
+ * mapped rather than read into heap.
+ *
+ * The file starts with a header, then a directory of every account in the
+ * segment sorted by id, each pointing at a run of its transactions oldest
+ * first. Runs are compressed by storing dates and ids as deltas to the
+ * previous transaction, and every number as a variable length integer, so a
+ * transaction takes around a dozen bytes.
+ *
+ * Each run is split into blocks of a fixed number of transactions that decode
+ * on their own, and starts with a checkpoint per block: where the block starts
+ * and the date and id of its first transaction. A cursor finds the block to
+ * start from by the checkpoints and only decodes the blocks it walks through.
+ */
+class TransactionSegment implements TransactionTier {
+
+  private static final int MAGIC = 0x50545853;
+  private static final int VERSION = 2;
+  // runs without checkpoints, decoded whole, still read back
+  private static final int UNINDEXED_VERSION = 1;
+
+  // magic, version, transactions, accounts, min epoch micros, max epoch micros
+  private static final int HEADER_SIZE = 32;
+  // account id, transactions, offset of the run from the start of the file
+  private static final int ENTRY_SIZE = 16;
+  // transactions per block of a run
+  private static final int BLOCK_SIZE = 64;
+  // offset of the block from the start of the run, date and id of its first
+  // transaction
+  private static final int CHECKPOINT_SIZE = 20;
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final TransactionType[] TYPES = TransactionType.values();
+
+  private final Path path;
+  private final MappedByteBuffer buffer;
+  private final int size;
+  private final int accounts;
+  private final long minEpochMicros;
+  private final long maxEpochMicros;
+  private final boolean indexed;
+
+  private TransactionSegment(Path path, MappedByteBuffer buffer) throws IOException {
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION && buffer.getInt(4) != UNINDEXED_VERSION) {
+      throw new IOException("Not a transaction segment: " + path);
+    }
+    this.path = path;
+    this.buffer = buffer;
+    this.indexed = buffer.getInt(4) == VERSION;
+    this.size = buffer.getInt(8);
+    this.accounts = buffer.getInt(12);
+    this.minEpochMicros = buffer.getLong(16);
+    this.maxEpochMicros = buffer.getLong(24);
+  }
+
+  /**
+   * Map an existing segment file
+   */
+  static TransactionSegment open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Transaction segment too large: " + path);
+      }
+      return new TransactionSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Write every transaction of a sealed hot tier to a new segment file, and map
+   * it. The file only appears under its name once it is complete and forced to
+   * disk
+   */
+  static TransactionSegment write(Path path, HotTier tier) throws IOException {
+    TransactionColumns columns = tier.columns();
+    List<int[]> runs = new ArrayList<>();
+    List<Integer> accountIds = new ArrayList<>();
+    tier.forEachAccount((accountId, rows) -> {
+      accountIds.add(accountId);
+      runs.add(rows);
+    });
+
+    long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+    int size = 0;
+    for (int[] rows : runs) {
+      min = Math.min(min, columns.epochMicros(rows[0]));
+      max = Math.max(max, columns.epochMicros(rows[rows.length - 1]));
+      size += rows.length;
+    }
+
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer directory = ByteBuffer.allocate(ENTRY_SIZE * runs.size());
+      Output out = new Output(channel, HEADER_SIZE + (long) ENTRY_SIZE * runs.size());
+
+      for (int account = 0; account < runs.size(); account++) {
+        int[] rows = runs.get(account);
+        long run = out.position();
+        directory.putInt(accountIds.get(account)).putInt(rows.length).putLong(run);
+
+        // the checkpoints are only known once the blocks are written
+        ByteBuffer checkpoints = ByteBuffer.allocate(CHECKPOINT_SIZE * ((rows.length + BLOCK_SIZE - 1) / BLOCK_SIZE));
+        out.skip(checkpoints.capacity());
+        long previousMicros = 0;
+        long previousId = 0;
+        for (int i = 0; i < rows.length; i++) {
+          int row = rows[i];
+          long epochMicros = columns.epochMicros(row);
+          long id = columns.id(row);
+          // a block starts over from its first transaction
+          if (i % BLOCK_SIZE == 0) {
+            checkpoints.putInt((int) (out.position() - run)).putLong(epochMicros).putLong(id);
+            previousMicros = epochMicros;
+            previousId = id;
+          }
+          out.putVarLong(epochMicros - previousMicros);
+          out.putVarLong(zigZag(id - previousId));
+          out.put((byte) (columns.type(row).ordinal() | columns.scale(row) << 4));
+          out.putVarLong(zigZag(columns.minorAmount(row)));
+          out.putVarLong(zigZag(columns.minorBalance(row)));
+          previousMicros = epochMicros;
+          previousId = id;
+        }
+        channel.write(checkpoints.flip(), run);
+      }
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+          .putInt(MAGIC).putInt(VERSION).putInt(size).putInt(runs.size()).putLong(min).putLong(max);
+      channel.write(header.flip(), 0);
+      channel.write(directory.flip(), HEADER_SIZE);
+      channel.force(true);
+    }
+    Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+    return open(path);
+  }
+
+  void delete() throws IOException {
+    Files.deleteIfExists(path);
+  }
+
+  @Override
+  public long maxEpochMicros() {
+    return maxEpochMicros;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Cursor cursor(int accountId, StatementCursor after) {
+    int low = 0, high = accounts - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = HEADER_SIZE + mid * ENTRY_SIZE;
+      int id = buffer.getInt(entry);
+      if (id < accountId) {
+        low = mid + 1;
+      } else if (id > accountId) {
+        high = mid - 1;
+      } else {
+        return new SegmentCursor(accountId, buffer.getInt(entry + 4), (int) buffer.getLong(entry + 8), after);
+      }
+    }
+    return null;
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Walk of one account's run back from its end, decoding a block at a time
+   */
+  private class SegmentCursor implements Cursor {
+
+    private final int accountId;
+    private final int count;
+    private final int run;
+    private final int blocks;
+    // the block being walked
+    private final long[] epochMicros;
+    private final long[] ids;
+    private final byte[] kinds;
+    private final long[] minorAmounts;
+    private final long[] minorBalances;
+    private int block;
+    private int next;
+
+    SegmentCursor(int accountId, int count, int run, StatementCursor after) {
+      this.accountId = accountId;
+      this.count = count;
+      this.run = run;
+      // a run without checkpoints is one block
+      this.blocks = indexed ? (count + BLOCK_SIZE - 1) / BLOCK_SIZE : 1;
+      int size = indexed ? Math.min(count, BLOCK_SIZE) : count;
+      epochMicros = new long[size];
+      ids = new long[size];
+      kinds = new byte[size];
+      minorAmounts = new long[size];
+      minorBalances = new long[size];
+
+      if (after == null) {
+        block = blocks;
+      } else {
+        // the last block starting before the position, if any
+        block = indexed ? blocksBefore(after) - 1 : 0;
+        if (block >= 0) {
+          next = olderThan(after, decode(block));
+        } else {
+          block = 0;
+        }
+      }
+    }
+
+    private int blocksBefore(StatementCursor after) {
+      int low = 0, high = blocks;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        int checkpoint = run + mid * CHECKPOINT_SIZE;
+        if (compare(buffer.getLong(checkpoint + 4), buffer.getLong(checkpoint + 12), after) < 0) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    private int olderThan(StatementCursor after, int size) {
+      int low = 0, high = size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (compare(epochMicros[mid], ids[mid], after) < 0) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    private int compare(long epochMicros, long id, StatementCursor after) {
+      int byDate = Long.compare(epochMicros, after.epochMicros());
+      return byDate != 0 ? byDate : Long.compare(id, after.id());
+    }
+
+    /**
+     * @return the number of transactions in the block
+     */
+    private int decode(int block) {
+      ByteBuffer entries;
+      long previousMicros;
+      long previousId;
+      int size;
+      if (indexed) {
+        int checkpoint = run + block * CHECKPOINT_SIZE;
+        entries = buffer.duplicate().position(run + buffer.getInt(checkpoint));
+        previousMicros = buffer.getLong(checkpoint + 4);
+        previousId = buffer.getLong(checkpoint + 12);
+        size = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+      } else {
+        entries = buffer.duplicate().position(run);
+        previousMicros = minEpochMicros;
+        previousId = 0;
+        size = count;
+      }
+
+      for (int i = 0; i < size; i++) {
+        previousMicros += getVarLong(entries);
+        previousId += unZigZag(getVarLong(entries));
+        epochMicros[i] = previousMicros;
+        ids[i] = previousId;
+        kinds[i] = entries.get();
+        minorAmounts[i] = unZigZag(getVarLong(entries));
+        minorBalances[i] = unZigZag(getVarLong(entries));
+      }
+      return size;
+    }
+
+    private long getVarLong(ByteBuffer run) {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = run.get();
+        value |= (long) (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+
+    @Override
+    public boolean next() {
+      if (next == 0) {
+        if (block == 0) {
+          return false;
+        }
+        next = decode(--block);
+      }
+      next--;
+      return true;
+    }
+
+    @Override
+    public long epochMicros() {
+      return epochMicros[next];
+    }
+
+    @Override
+    public long id() {
+      return ids[next];
+    }
+
+    @Override
+    public Transaction transaction() {
+      return TransactionColumns.transaction(ids[next], accountId, TYPES[kinds[next] & 0x0f], minorAmounts[next],
+          minorBalances[next], (kinds[next] & 0xff) >>> 4, epochMicros[next]);
+    }
+  }
+
+  /**
+   * Buffered writer of the runs, tracking the file position it has reached
+   */
+  private static class Output {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position;
+
+    Output(FileChannel channel, long position) {
+      this.channel = channel;
+      this.position = position;
+    }
+
+    long position() {
+      return position + buffer.position();
+    }
+
+    void put(byte value) throws IOException {
+      ensure(1);
+      buffer.put(value);
+    }
+
+    void putVarLong(long value) throws IOException {
+      ensure(10);
+      while ((value & ~0x7fL) != 0) {
+        buffer.put((byte) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      buffer.put((byte) value);
+    }
+
+    /**
+     * Leave room for bytes written later at their position
+     */
+    void skip(int bytes) throws IOException {
+      flush();
+      position += bytes;
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+      buffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+  }
+}
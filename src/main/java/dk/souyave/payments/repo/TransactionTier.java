@@ -0,0 +1,45 @@
+package dk.souyave.payments.repo;
+
+import dk.souyave.payments.domain.StatementCursor;
+import dk.souyave.payments.domain.Transaction;
+
+/**
+ * One tier of the transaction ledger, either the hot tier still held in heap
+ * or an archived segment. Statements merge the cursors of every tier
+ */
+interface TransactionTier {
+
+  /**
+   * @return no transaction in the tier is dated after this
+   */
+  long maxEpochMicros();
+
+  int size();
+
+  /**
+   * @param accountId whose transactions to walk
+   * @param after     position to walk back from, or null to start at the most
+   *                  recent transaction
+   * @return cursor over the account's transactions older than the position,
+   *         most recent first, or null if the tier holds none for the account
+   */
+  Cursor cursor(int accountId, StatementCursor after);
+
+  /**
+   * Walk of one account's transactions within a tier, most recent first.
+   * Starts before the first transaction
+   */
+  interface Cursor {
+
+    /**
+     * @return false once there are no older transactions
+     */
+    boolean next();
+
+    long epochMicros();
+
+    long id();
+
+    Transaction transaction();
+  }
+}
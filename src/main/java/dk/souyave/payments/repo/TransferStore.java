@@ -0,0 +1,28 @@
+package dk.souyave.payments.repo;
+
+import dk.souyave.payments.domain.Account;
+import reactor.core.publisher.Mono;
+
+/**
+ * Applies a whole transfer in the store itself, for back-ends where balances
+ * live outside the process and cannot be guarded by the transfer engine. The
+ * debit only happens if the balance covers it, and both balance updates and
+ * the pair of transactions are written atomically
+ */
+public interface TransferStore {
+
+  /**
+   * @param debitTransactionId id of the debit transaction, the credit takes the
+   *                           next one
+   * @param minorAmount        debited, in minor units of the 'from' currency
+   * @param creditMinorAmount  credited, in minor units of the 'to' currency
+   * @param epochMicros        date of both transactions
+   * @return the balances of both accounts right after the transfer, or
+   *         insufficient funds if the debit would overdraw the 'from' account
+   */
+  Mono<Balances> transfer(long debitTransactionId, Account fromAccount, Account toAccount, long minorAmount,
+      long creditMinorAmount, long epochMicros);
+
+  record Balances(long fromMinorBalance, long toMinorBalance) {
+  }
+}
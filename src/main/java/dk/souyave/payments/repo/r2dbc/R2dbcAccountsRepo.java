@@ -0,0 +1,96 @@
+package dk.souyave.payments.repo.r2dbc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.exception.InvalidAccountException;
+import dk.souyave.payments.repo.AccountsRepo;
+import io.r2dbc.spi.Readable;
+import reactor.core.publisher.Mono;
+
+/**
+ * Repository holding the accounts in a database through R2DBC. Accounts are
+ * read fresh on every lookup, the database holds the only copy of a balance
+ */
+@Repository
+@ConditionalOnProperty(name = "payments.repo.backend", havingValue = "r2dbc")
+public class R2dbcAccountsRepo implements AccountsRepo {
+
+  private final DatabaseClient databaseClient;
+
+  // kept in process so the metrics gauge never queries the database
+  private final AtomicInteger count = new AtomicInteger();
+
+  public R2dbcAccountsRepo(DatabaseClient databaseClient) {
+    this.databaseClient = databaseClient;
+
+    // carry on generating ids after the stored ones
+    databaseClient.sql("SELECT COUNT(*), COALESCE(MAX(id), 0) FROM account")
+        .map(row -> {
+          count.set(row.get(0, Long.class).intValue());
+          return row.get(1, Integer.class);
+        })
+        .one()
+        .doOnNext(Account.ID_GENERATOR::advancePast)
+        .block();
+  }
+
+  @Override
+  public Mono<Account> getAccount(int accountId) {
+    return databaseClient.sql("SELECT id, currency, balance, status, version FROM account WHERE id = :id")
+        .bind("id", accountId)
+        .map(R2dbcAccountsRepo::account)
+        .one()
+        .switchIfEmpty(Mono.error(InvalidAccountException.INSTANCE));
+  }
+
+  @Override
+  public Mono<Account> createAccount(Account account) {
+    return databaseClient.sql("INSERT INTO account (id, currency, balance, status, version) "
+        + "VALUES (:id, :currency, :balance, :status, :version)")
+        .bind("id", account.getId())
+        .bind("currency", account.getCurrency())
+        .bind("balance", account.getMinorBalance())
+        .bind("status", account.getStatus().name())
+        .bind("version", account.getVersion())
+        .then()
+        .doOnSuccess(v -> count.incrementAndGet())
+        .thenReturn(account);
+  }
+
+  @Override
+  public Mono<Void> deleteAccount(int accountId) {
+    return databaseClient.sql("UPDATE account SET status = :status, version = version + 1 WHERE id = :id")
+        .bind("status", AccountStatus.DELETED.name())
+        .bind("id", accountId)
+        .fetch()
+        .rowsUpdated()
+        .flatMap(updated -> updated == 0 ? Mono.error(InvalidAccountException.INSTANCE) : Mono.empty());
+  }
+
+  @Override
+  public int count() {
+    return count.get();
+  }
+
+  @Override
+  public void clearAll() {
+    databaseClient.sql("DELETE FROM account").then().block();
+    count.set(0);
+    Account.ID_GENERATOR.reset(1);
+  }
+
+  private static Account account(Readable row) {
+    Account account = new Account(row.get("id", Integer.class));
+    account.setCurrency(row.get("currency", String.class));
+    account.credit(row.get("balance", Long.class));
+    account.setStatus(AccountStatus.valueOf(row.get("status", String.class)));
+    account.restoreVersion(row.get("version", Long.class));
+    return account;
+  }
+}
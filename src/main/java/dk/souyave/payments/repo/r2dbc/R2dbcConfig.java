@@ -0,0 +1,63 @@
+package dk.souyave.payments.repo.r2dbc;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+
+/**
+ * Connection pool, client and transactions for the R2DBC repository backend.
+ * The schema is created if missing before any repository gets the client
+ */
+@Configuration
+@ConditionalOnProperty(name = "payments.repo.backend", havingValue = "r2dbc")
+public class R2dbcConfig {
+
+  @Bean(destroyMethod = "dispose")
+  public ConnectionPool connectionFactory(
+      @Value("${payments.repo.r2dbc.url:r2dbc:h2:mem:///payments?options=DB_CLOSE_DELAY=-1}") String url,
+      @Value("${payments.repo.r2dbc.pool-size:16}") int poolSize,
+      @Value("${payments.journal.enabled:false}") boolean journal) {
+    // the journal replays straight into in process balances, the database is
+    // its own journal
+    if (journal) {
+      throw new IllegalStateException("The journal needs the memory repository backend");
+    }
+    return createConnectionPool(url, poolSize);
+  }
+
+  @Bean
+  public DatabaseClient databaseClient(ConnectionFactory connectionFactory) {
+    return createDatabaseClient(connectionFactory);
+  }
+
+  @Bean
+  public TransactionalOperator transactionalOperator(ConnectionFactory connectionFactory) {
+    return TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+  }
+
+  public static ConnectionPool createConnectionPool(String url, int poolSize) {
+    return new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(url))
+        .initialSize(poolSize)
+        .maxSize(poolSize)
+        .build());
+  }
+
+  /**
+   * @return client of the database, once its schema is created
+   */
+  public static DatabaseClient createDatabaseClient(ConnectionFactory connectionFactory) {
+    new ResourceDatabasePopulator(new ClassPathResource("db/schema.sql")).populate(connectionFactory).block();
+    return DatabaseClient.create(connectionFactory);
+  }
+}
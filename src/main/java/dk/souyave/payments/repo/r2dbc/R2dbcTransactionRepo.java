@@ -0,0 +1,153 @@
+package dk.souyave.payments.repo.r2dbc;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.Money;
+import dk.souyave.payments.domain.StatementCursor;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.repo.TransactionRepo;
+import io.r2dbc.spi.Readable;
+import io.r2dbc.spi.Statement;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Ledger of every transaction in a database through R2DBC. Statements are
+ * keyset queries over an index of each account's transactions by date, so
+ * resuming after a cursor costs the same however deep into the history it is
+ */
+@Repository
+@ConditionalOnProperty(name = "payments.repo.backend", havingValue = "r2dbc")
+public class R2dbcTransactionRepo implements TransactionRepo {
+
+  private static final String INSERT = "INSERT INTO account_transaction "
+      + "(id, account_id, type, amount, balance, scale, epoch_micros) ";
+  private static final String SELECT = "SELECT id, account_id, type, amount, balance, scale, epoch_micros "
+      + "FROM account_transaction WHERE account_id = :account ";
+  private static final String MOST_RECENT_FIRST = "ORDER BY epoch_micros DESC, id DESC";
+
+  private final DatabaseClient databaseClient;
+
+  // kept in process so the metrics gauge never queries the database
+  private final AtomicInteger count = new AtomicInteger();
+
+  public R2dbcTransactionRepo(DatabaseClient databaseClient) {
+    this.databaseClient = databaseClient;
+
+    // carry on generating ids after the stored ones
+    databaseClient.sql("SELECT COUNT(*), COALESCE(MAX(id), 0) FROM account_transaction")
+        .map(row -> {
+          count.set(row.get(0, Long.class).intValue());
+          return row.get(1, Long.class);
+        })
+        .one()
+        .doOnNext(Transaction.ID_GENERATOR::advancePast)
+        .block();
+  }
+
+  @Override
+  public Mono<Transaction> save(Transaction transaction) {
+    BigDecimal balance = transaction.getBalance() != null ? transaction.getBalance() : BigDecimal.ZERO;
+    int scale = Math.max(0, Math.max(transaction.getAmount().scale(), balance.scale()));
+    return databaseClient.sql(INSERT
+        + "VALUES (:id, :account, :type, :amount, :balance, :scale, :epochMicros)")
+        .bind("id", transaction.getId())
+        .bind("account", transaction.getAccountId())
+        .bind("type", transaction.getType().name())
+        .bind("amount", Money.toMinorExact(transaction.getAmount(), scale))
+        .bind("balance", Money.toMinorExact(balance, scale))
+        .bind("scale", scale)
+        .bind("epochMicros", EpochMicros.of(transaction.getDate()))
+        .then()
+        .doOnSuccess(v -> count.incrementAndGet())
+        .thenReturn(transaction);
+  }
+
+  /**
+   * Insert the debit and credit transactions of a transfer as one batch, in
+   * whatever database transaction is in progress
+   */
+  Mono<Void> insertPair(long debitTransactionId, int fromAccountId, long minorAmount, long fromMinorBalance,
+      int fromScale, int toAccountId, long creditMinorAmount, long toMinorBalance, int toScale, long epochMicros) {
+    return databaseClient.inConnectionMany(connection -> {
+      // bind markers are native here, H2 numbers them from $1
+      Statement statement = connection.createStatement(INSERT + "VALUES ($1, $2, $3, $4, $5, $6, $7)");
+      bind(statement, debitTransactionId, fromAccountId, TransactionType.DEBIT, minorAmount, fromMinorBalance,
+          fromScale, epochMicros).add();
+      bind(statement, debitTransactionId + 1, toAccountId, TransactionType.CREDIT, creditMinorAmount,
+          toMinorBalance, toScale, epochMicros);
+      return Flux.from(statement.execute()).flatMap(result -> result.getRowsUpdated());
+    })
+        .then()
+        .doOnSuccess(v -> count.addAndGet(2));
+  }
+
+  private static Statement bind(Statement statement, long id, int accountId, TransactionType type, long minorAmount,
+      long minorBalance, int scale, long epochMicros) {
+    return statement
+        .bind(0, id)
+        .bind(1, accountId)
+        .bind(2, type.name())
+        .bind(3, minorAmount)
+        .bind(4, minorBalance)
+        .bind(5, scale)
+        .bind(6, epochMicros);
+  }
+
+  @Override
+  public Flux<Transaction> findAllByAccountIdOrderByDate(int accountId, int size) {
+    return databaseClient.sql(SELECT + MOST_RECENT_FIRST + " LIMIT :size")
+        .bind("account", accountId)
+        .bind("size", size)
+        .map(R2dbcTransactionRepo::transaction)
+        .all();
+  }
+
+  @Override
+  public Flux<Transaction> findAllByAccountIdOrderByDateAfter(int accountId, StatementCursor after) {
+    if (after == null) {
+      return databaseClient.sql(SELECT + MOST_RECENT_FIRST)
+          .bind("account", accountId)
+          .map(R2dbcTransactionRepo::transaction)
+          .all();
+    }
+    return databaseClient.sql(SELECT
+        + "AND (epoch_micros < :epochMicros OR (epoch_micros = :epochMicros AND id < :id)) " + MOST_RECENT_FIRST)
+        .bind("account", accountId)
+        .bind("epochMicros", after.epochMicros())
+        .bind("id", after.id())
+        .map(R2dbcTransactionRepo::transaction)
+        .all();
+  }
+
+  @Override
+  public int count() {
+    return count.get();
+  }
+
+  @Override
+  public void clearAll() {
+    databaseClient.sql("DELETE FROM account_transaction").then().block();
+    count.set(0);
+    Transaction.ID_GENERATOR.reset(1);
+  }
+
+  private static Transaction transaction(Readable row) {
+    int scale = row.get("scale", Integer.class);
+    return Transaction.builder()
+        .id(row.get("id", Long.class))
+        .accountId(row.get("account_id", Integer.class))
+        .amount(Money.toBigDecimal(row.get("amount", Long.class), scale))
+        .balance(Money.toBigDecimal(row.get("balance", Long.class), scale))
+        .type(TransactionType.valueOf(row.get("type", String.class)))
+        .date(EpochMicros.toLocalDateTime(row.get("epoch_micros", Long.class)))
+        .build();
+  }
+}
@@ -0,0 +1,63 @@
+package dk.souyave.payments.repo.r2dbc;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.repo.TransferStore;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * Applies transfers in one database transaction each. The debit is a single
+ * conditional update that only matches while the balance covers the amount,
+ * rather than reading the balance, checking it and writing it back, so the
+ * database row lock is all that guards the balance
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "payments.repo.backend", havingValue = "r2dbc")
+public class R2dbcTransferStore implements TransferStore {
+
+  // H2 returns the updated row through a data change delta table, the way
+  // other databases use UPDATE ... RETURNING
+  private static final String DEBIT = "SELECT balance FROM FINAL TABLE ("
+      + "UPDATE account SET balance = balance - :amount, version = version + 1 WHERE id = :id AND balance >= :amount)";
+  private static final String CREDIT = "SELECT balance FROM FINAL TABLE ("
+      + "UPDATE account SET balance = balance + :amount, version = version + 1 WHERE id = :id)";
+
+  private final DatabaseClient databaseClient;
+  private final R2dbcTransactionRepo transactionRepo;
+  private final TransactionalOperator transactionalOperator;
+
+  @Override
+  public Mono<Balances> transfer(long debitTransactionId, Account fromAccount, Account toAccount, long minorAmount,
+      long creditMinorAmount, long epochMicros) {
+    Mono<Long> debit = update(DEBIT, fromAccount.getId(), minorAmount)
+        .switchIfEmpty(Mono.error(InsufficientFundsException.INSTANCE));
+    Mono<Long> credit = update(CREDIT, toAccount.getId(), creditMinorAmount);
+
+    // rows are always locked in ascending order of account id, so two opposite
+    // transfers cannot deadlock
+    Mono<Balances> balances = fromAccount.getId() < toAccount.getId()
+        ? debit.flatMap(from -> credit.map(to -> new Balances(from, to)))
+        : credit.flatMap(to -> debit.map(from -> new Balances(from, to)));
+
+    return transactionalOperator.transactional(balances
+        .flatMap(updated -> transactionRepo.insertPair(debitTransactionId, fromAccount.getId(), minorAmount,
+            updated.fromMinorBalance(), fromAccount.getScale(), toAccount.getId(), creditMinorAmount,
+            updated.toMinorBalance(), toAccount.getScale(), epochMicros)
+            .thenReturn(updated)));
+  }
+
+  private Mono<Long> update(String sql, int accountId, long minorAmount) {
+    return databaseClient.sql(sql)
+        .bind("amount", minorAmount)
+        .bind("id", accountId)
+        .map(row -> row.get(0, Long.class))
+        .one();
+  }
+}
@@ -0,0 +1,79 @@
+package dk.souyave.payments.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import dk.souyave.payments.domain.AccountEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Sinks.EmitResult;
+
+/**
+ * Fans account changes out to live subscribers through one sink per watched
+ * account. Accounts nobody is watching have no sink, so publishing to them is a
+ * single map lookup.
+ * 
+ * Subscribers are plain reactive subscriptions, so idle ones cost no thread.
+ * Each gets a bounded buffer, and one that falls further behind than that is
+ * dropped with an overflow error rather than holding up the others
+ */
+@Component
+public class AccountFeed {
+
+  private final Map<Integer, Feed> feeds = new ConcurrentHashMap<>();
+  private final int bufferSize;
+
+  public AccountFeed(@Value("${payments.feed.buffer-size:256}") int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * @param accountId to watch
+   * @return every event published for the account from now on
+   */
+  public Flux<AccountEvent> subscribe(int accountId) {
+    return Flux.defer(() -> feeds.compute(accountId, (id, feed) -> {
+      Feed watched = feed != null ? feed : new Feed();
+      watched.subscribers++;
+      return watched;
+    }).sink.asFlux())
+        // detach as soon as the buffer below overflows, not once the subscriber
+        // gets round to the error
+        .doFinally(signal -> feeds.computeIfPresent(accountId, (id, feed) -> --feed.subscribers == 0 ? null : feed))
+        .onBackpressureBuffer(bufferSize);
+  }
+
+  public boolean isWatched(int accountId) {
+    return feeds.containsKey(accountId);
+  }
+
+  /**
+   * @param event to push to the watchers of its account, null is ignored
+   */
+  public void publish(AccountEvent event) {
+    Feed feed = event != null ? feeds.get(event.getAccountId()) : null;
+    if (feed != null) {
+      // concurrent transfers on the same account may publish at once, so spin
+      // until our turn rather than fail
+      feed.sink.emitNext(event, (signal, result) -> result == EmitResult.FAIL_NON_SERIALIZED);
+    }
+  }
+
+  int subscribers(int accountId) {
+    Feed feed = feeds.get(accountId);
+    return feed != null ? feed.subscribers : 0;
+  }
+
+  private static class Feed {
+
+    // only ever pushes to subscribers with demand, which the per subscriber
+    // buffer always has until it overflows
+    final Sinks.Many<AccountEvent> sink = Sinks.many().multicast().directBestEffort();
+
+    // guarded by the map's compute
+    int subscribers;
+  }
+}
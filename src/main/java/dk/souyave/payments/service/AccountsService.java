@@ -1,45 +1,136 @@
 package dk.souyave.payments.service;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import dk.souyave.payments.cluster.ClusterRouter;
 import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountEvent;
 import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.CrossRate;
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.Money;
+import dk.souyave.payments.domain.StatementCursor;
 import dk.souyave.payments.domain.Transaction;
 import dk.souyave.payments.domain.TransactionType;
-import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.domain.TransferRequest;
+import dk.souyave.payments.domain.TransferResult;
 import dk.souyave.payments.exception.InvalidAccountException;
-import dk.souyave.payments.exception.UnmatchedCurrenciesException;
+import dk.souyave.payments.journal.TransferJournal;
 import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.InProcessTransactionRepo;
 import dk.souyave.payments.repo.TransactionRepo;
-import lombok.RequiredArgsConstructor;
+import dk.souyave.payments.repo.TransferStore;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class AccountsService {
 
   private final AccountsRepo accountsRepo;
   private final TransactionRepo transactionRepo;
+  // only set for back-ends holding the ledger in process, which the legs of a
+  // transfer write to straight from minor units
+  private final InProcessTransactionRepo inProcessRepo;
+  private final TransferEngine transferEngine;
+  private final TransferJournal transferJournal;
+  private final AccountFeed accountFeed;
+  private final TransferMetrics transferMetrics;
+  private final TransferAudit transferAudit;
+  private final RepoScheduler repoScheduler;
+  private final FxRates fxRates;
+  // only set for back-ends that apply transfers in the store itself
+  private final TransferStore transferStore;
+  // only set in cluster mode, for accounts owned by other nodes
+  private final ClusterRouter clusterRouter;
+  private final int batchConcurrency;
+  private final int atomicBatchSize;
+
+  public AccountsService(AccountsRepo accountsRepo, TransactionRepo transactionRepo, TransferEngine transferEngine,
+      TransferJournal transferJournal, AccountFeed accountFeed, TransferMetrics transferMetrics,
+      TransferAudit transferAudit, RepoScheduler repoScheduler, FxRates fxRates, Optional<TransferStore> transferStore,
+      Optional<ClusterRouter> clusterRouter,
+      @Value("${payments.transfer.batch-concurrency:64}") int batchConcurrency,
+      @Value("${payments.transfer.atomic-batch-size:10000}") int atomicBatchSize) {
+    this.accountsRepo = accountsRepo;
+    this.transactionRepo = transactionRepo;
+    this.inProcessRepo = transactionRepo instanceof InProcessTransactionRepo repo ? repo : null;
+    this.transferEngine = transferEngine;
+    this.transferJournal = transferJournal;
+    this.accountFeed = accountFeed;
+    this.transferMetrics = transferMetrics;
+    this.transferAudit = transferAudit;
+    this.repoScheduler = repoScheduler;
+    this.fxRates = fxRates;
+    this.transferStore = transferStore.orElse(null);
+    this.clusterRouter = clusterRouter.orElse(null);
+    this.batchConcurrency = batchConcurrency;
+    this.atomicBatchSize = atomicBatchSize;
+  }
 
   public Mono<Account> getAccount(int accountId) {
     return accountsRepo.getAccount(accountId);
   }
 
   public Mono<Account> createAccount(Account account) {
-    return accountsRepo.createAccount(account);
+    Account assigned = account.withAssignedId();
+    if (clusterRouter != null && !clusterRouter.isLocal(assigned.getId())) {
+      return clusterRouter.createAccount(assigned);
+    }
+    return accountsRepo.createAccount(assigned)
+        .doOnNext(transferJournal::accountCreated)
+        .flatMap(created -> transferJournal.sync().thenReturn(created));
+  }
+
+  /**
+   * @param versions the version of each account the client saw last, by
+   *                 account id
+   * @return the accounts whose version is no longer the one seen, in the order
+   *         asked for. Accounts that do not exist are left out
+   */
+  public Flux<Account> changedAccounts(Map<Integer, Long> versions) {
+    return Flux.fromIterable(versions.entrySet())
+        .concatMap(seen -> accountsRepo.getAccount(seen.getKey())
+            .onErrorResume(InvalidAccountException.class, e -> Mono.empty())
+            .filter(account -> seen.getValue() == null || account.getVersion() != seen.getValue()));
   }
 
-  public void deleteAccount(int accountId) {
-    accountsRepo.deleteAccount(accountId);
+  public Mono<Void> deleteAccount(int accountId) {
+    return accountsRepo.deleteAccount(accountId)
+        .doOnSuccess(v -> transferJournal.accountDeleted(accountId));
   }
 
   public Flux<Transaction> miniList(int accountId) {
-    return transactionRepo.findAllByAccountIdOrderByDate(accountId, 20);
+    return transactionRepo.findAllByAccountIdOrderByDate(accountId, 20)
+        .subscribeOn(repoScheduler.get());
+  }
+
+  /**
+   * Stream the full statement of an account, most recent first
+   * 
+   * @param accountId whose statement to stream
+   * @param after     cursor to resume after, or null to start from the most
+   *                  recent transaction
+   * @param limit     most transactions to return, or 0 for the rest of the
+   *                  history
+   * @return stream of the account's transactions
+   */
+  public Flux<Transaction> statement(int accountId, StatementCursor after, int limit) {
+    Flux<Transaction> statement = accountsRepo.getAccount(accountId)
+        .thenMany(transactionRepo.findAllByAccountIdOrderByDateAfter(accountId, after))
+        .subscribeOn(repoScheduler.get());
+    return limit > 0 ? statement.take(limit, true) : statement;
   }
 
   /**
@@ -51,61 +142,414 @@ public class AccountsService {
    * @return the 'from' account transaction details
    */
   public Mono<Transaction> transfer(int fromAccountId, int toAccountId, BigDecimal amount) {
+    if (clusterRouter != null && !clusterRouter.isLocal(fromAccountId)) {
+      // the owner of the 'from' account records the metrics and audit trail
+      return clusterRouter.forward(fromAccountId, toAccountId, amount);
+    } else if (clusterRouter != null && !clusterRouter.isLocal(toAccountId)) {
+      return crossNodeTransfer(fromAccountId, toAccountId, amount);
+    }
 
     Mono<Account> fromAccount = accountsRepo.getAccount(fromAccountId);
     Mono<Account> toAccount = accountsRepo.getAccount(toAccountId);
 
-    return Mono
-        .zip(fromAccount, toAccount)
-        .flatMap(v -> this.processTransfer(v.getT1(), v.getT2(), amount))
-        .doOnSuccess(t -> {
-          log.info("Successfully transferred {} {} from account {} to account {}",
-              amount, t.getAccount().getCurrency(), fromAccountId, toAccountId);
-        });
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      return Mono
+          .zip(fromAccount, toAccount)
+          .doOnNext(v -> transferMetrics.lookup(start))
+          .flatMap(v -> this.processTransfer(v.getT1(), v.getT2(), amount)
+              .doOnSuccess(t -> {
+                transferMetrics.completed(start);
+                transferAudit.completed(fromAccountId, toAccountId, amount, v.getT1().getCurrency(), t);
+              }))
+          .doOnError(e -> {
+            transferMetrics.failed(start, e);
+            transferAudit.failed(fromAccountId, toAccountId, amount, e);
+          });
+    });
+  }
+
+  private Mono<Transaction> crossNodeTransfer(int fromAccountId, int toAccountId, BigDecimal amount) {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      return accountsRepo.getAccount(fromAccountId)
+          .doOnNext(v -> transferMetrics.lookup(start))
+          .flatMap(fromAccount -> clusterRouter.transfer(fromAccount, toAccountId, amount)
+              .doOnSuccess(t -> {
+                transferMetrics.completed(start);
+                transferAudit.completed(fromAccountId, toAccountId, amount, fromAccount.getCurrency(), t);
+              }))
+          .doOnError(e -> {
+            transferMetrics.failed(start, e);
+            transferAudit.failed(fromAccountId, toAccountId, amount, e);
+          });
+    });
+  }
+
+  /**
+   * Live feed of changes to an account, as transfers touching it complete
+   * 
+   * @param accountId to watch
+   * @return never ending stream of account events
+   */
+  public Flux<AccountEvent> feed(int accountId) {
+    return accountsRepo.getAccount(accountId)
+        .thenMany(accountFeed.subscribe(accountId));
+  }
+
+  /**
+   * Transfer a stream of transfers in one pipeline, a bounded number at a time.
+   * Results are emitted in submission order, one per transfer, and a failed
+   * transfer does not stop the ones after it
+   * 
+   * In atomic mode the batch is collected, then validated and applied as a whole
+   * with exclusive access to every account involved, so either every transfer
+   * completes or none do
+   * 
+   * @param transfers to make
+   * @param atomic    all or nothing
+   * @return the result of each transfer
+   */
+  public Flux<TransferResult> transferBatch(Flux<TransferRequest> transfers, boolean atomic) {
+    if (atomic) {
+      return transfers
+          .take(atomicBatchSize + 1L)
+          .collectList()
+          .flatMapMany(this::transferAll);
+    }
+
+    return transfers
+        .index()
+        .flatMapSequential(indexed -> Mono
+            .defer(() -> transfer(indexed.getT2().getFromAccountId(), indexed.getT2().getToAccountId(),
+                indexed.getT2().getAmount()))
+            .map(transaction -> TransferResult.completed(indexed.getT1(), transaction))
+            .onErrorResume(e -> Mono.just(TransferResult.failed(indexed.getT1(), e))),
+            batchConcurrency);
+  }
+
+  private Flux<TransferResult> transferAll(List<TransferRequest> transfers) {
+    if (transferStore != null) {
+      IllegalStateException unsupported = new IllegalStateException(
+          "Atomic batches need the memory repository backend");
+      return Flux.range(0, transfers.size()).map(i -> TransferResult.failed(i, unsupported));
+    }
+    if (clusterRouter != null && !transfers.stream().allMatch(
+        t -> clusterRouter.isLocal(t.getFromAccountId()) && clusterRouter.isLocal(t.getToAccountId()))) {
+      IllegalStateException unsupported = new IllegalStateException(
+          "Atomic batches need every account on the node they are sent to");
+      return Flux.range(0, transfers.size()).map(i -> TransferResult.failed(i, unsupported));
+    }
+    if (transfers.size() > atomicBatchSize) {
+      IllegalArgumentException tooLarge = new IllegalArgumentException(
+          "Atomic batches are limited to " + atomicBatchSize + " transfers");
+      return Flux.range(0, transfers.size()).map(i -> TransferResult.failed(i, tooLarge));
+    }
+
+    // unknown accounts are left out here and fail their transfers during
+    // validation
+    return Flux.fromIterable(transfers)
+        .flatMapIterable(t -> List.of(t.getFromAccountId(), t.getToAccountId()))
+        .distinct()
+        .flatMap(accountId -> accountsRepo.getAccount(accountId)
+            .map(account -> Tuples.of(accountId, account))
+            .onErrorResume(InvalidAccountException.class, e -> Mono.empty()))
+        .collectMap(Tuple2::getT1, Tuple2::getT2)
+        .flatMap(accounts -> {
+          List<AccountEvent> events = new ArrayList<>();
+          return transferEngine.exclusive(accounts.values(), () -> applyAll(transfers, accounts, events))
+              .flatMap(results -> transferJournal.sync().thenReturn(results))
+              .doOnNext(results -> events.forEach(accountFeed::publish));
+        })
+        .flatMapIterable(results -> results);
+  }
+
+  private List<TransferResult> applyAll(List<TransferRequest> transfers, Map<Integer, Account> accounts,
+      List<AccountEvent> events) {
+    long[] minorAmounts = new long[transfers.size()];
+    long[] creditMinorAmounts = new long[transfers.size()];
+    CrossRate[] rates = new CrossRate[transfers.size()];
+    Map<Integer, Long> projected = new HashMap<>();
+
+    // validate every transfer against the balances left by the ones before it
+    // before applying any of them
+    for (int i = 0; i < transfers.size(); i++) {
+      TransferRequest transfer = transfers.get(i);
+      Account fromAccount = accounts.get(transfer.getFromAccountId());
+      Account toAccount = accounts.get(transfer.getToAccountId());
+      if (fromAccount == null || toAccount == null) {
+        return failedBatch(transfers.size(), i, TransferRejection.INVALID_ACCOUNT.exception());
+      }
+      long available = projected.getOrDefault(fromAccount.getId(), fromAccount.getMinorBalance());
+      TransferRejection rejection;
+      try {
+        minorAmounts[i] = Money.toTransferMinor(transfer.getAmount(), fromAccount.getScale());
+        rates[i] = fxRates.crossRate(fromAccount.getCurrency(), toAccount.getCurrency());
+        creditMinorAmounts[i] = toCreditMinor(rates[i], minorAmounts[i]);
+        rejection = validate(fromAccount, toAccount, rates[i], minorAmounts[i], creditMinorAmounts[i], available,
+            transfer.getAmount());
+      } catch (RuntimeException e) {
+        return failedBatch(transfers.size(), i, e);
+      }
+      if (rejection != null) {
+        return failedBatch(transfers.size(), i, rejection.exception());
+      }
+
+      projected.put(fromAccount.getId(), available - minorAmounts[i]);
+      projected.put(toAccount.getId(),
+          projected.getOrDefault(toAccount.getId(), toAccount.getMinorBalance()) + creditMinorAmounts[i]);
+    }
+
+    // apply without validating again, a status change made meanwhile outside
+    // the engine must not fail a transfer half way through the batch
+    List<TransferResult> results = new ArrayList<>(transfers.size());
+    for (int i = 0; i < transfers.size(); i++) {
+      TransferRequest transfer = transfers.get(i);
+      Account fromAccount = accounts.get(transfer.getFromAccountId());
+      Account toAccount = accounts.get(transfer.getToAccountId());
+
+      Transaction fromTransaction = applyDebit(fromAccount, toAccount, minorAmounts[i], creditMinorAmounts[i],
+          Money.toBigDecimal(minorAmounts[i], fromAccount.getScale()), System.nanoTime());
+      events.add(AccountEvent.of(fromTransaction));
+      events.add(credit(toAccount, creditMinorAmounts[i], fromTransaction));
+      results.add(TransferResult.completed(i, fromTransaction));
+    }
+    return results;
+  }
+
+  private static List<TransferResult> failedBatch(int size, int failedIndex, Throwable error) {
+    List<TransferResult> results = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      results.add(i == failedIndex ? TransferResult.failed(i, error) : TransferResult.aborted(i));
+    }
+    return results;
   }
 
+  /**
+   * Hands the transfer to the transfer engine, which runs the validation and
+   * balance updates with exclusive access to both accounts, and completes once
+   * the transfer is durable in the journal. Only then is it pushed to the live
+   * feeds of both accounts. Back-ends with a transfer store apply the whole
+   * transfer in the store instead
+   * 
+   * @param fromAccount
+   * @param toAccount
+   * @param amount
+   * @return the 'from' account transaction details
+   */
   public Mono<Transaction> processTransfer(Account fromAccount, Account toAccount, BigDecimal amount) {
+    // convert once up front so the checks and updates work on minor units only
+    long minorAmount = Money.toTransferMinor(amount, fromAccount.getScale());
+    BigDecimal transactionAmount = Money.toBigDecimal(minorAmount, fromAccount.getScale());
+    // the rate is read once so both legs convert at the same one, even if the
+    // rates are replaced meanwhile
+    CrossRate rate = fxRates.crossRate(fromAccount.getCurrency(), toAccount.getCurrency());
+    long creditMinorAmount = toCreditMinor(rate, minorAmount);
 
-    // both accounts should be active for a transaction to occur
-    if (!AccountStatus.ACTIVE.equals(fromAccount.getStatus()) || !AccountStatus.ACTIVE.equals(toAccount.getStatus())) {
-      log.error("One of the accounts for the transfer is not active. account {} = {}, account {} = {}",
-          fromAccount.getId(), fromAccount.getStatus(), toAccount.getId(), toAccount.getStatus());
-      throw new InvalidAccountException();
+    if (transferStore != null) {
+      return storeTransfer(fromAccount, toAccount, rate, minorAmount, creditMinorAmount, transactionAmount);
+    }
 
-      // check if the currencies match for a straight conversion
-    } else if (!fromAccount.getCurrency().equals(toAccount.getCurrency())) {
-      log.error("The account currencies to not match. account {} = {}, account {} = {}",
-          fromAccount.getId(), fromAccount.getCurrency(), toAccount.getId(), toAccount.getCurrency());
-      throw new UnmatchedCurrenciesException();
+    // events are captured inside the legs, where the balances are exactly as
+    // each leg left them
+    AccountEvent[] events = new AccountEvent[2];
 
-      // check if from account has sufficient funds to do the transaction
-    } else if (fromAccount.getBalance().compareTo(amount) < 0) {
-      log.error("The debiting account has insufficient funds to do the transfer. account {} = {}, amount = {}",
-          fromAccount.getId(), fromAccount.getBalance(), amount);
-      throw new InsufficientFundsException();
+    return transferEngine.transfer(fromAccount, toAccount,
+        () -> {
+          Transaction fromTransaction = debit(fromAccount, toAccount, rate, minorAmount, creditMinorAmount,
+              transactionAmount);
+          events[0] = AccountEvent.of(fromTransaction);
+          return fromTransaction;
+        },
+        fromTransaction -> events[1] = credit(toAccount, creditMinorAmount, fromTransaction))
+        .flatMap(fromTransaction -> transferJournal.sync().thenReturn(fromTransaction))
+        .doOnNext(fromTransaction -> {
+          accountFeed.publish(events[0]);
+          accountFeed.publish(events[1]);
+        });
+  }
+
+  private Mono<Transaction> storeTransfer(Account fromAccount, Account toAccount, CrossRate rate, long minorAmount,
+      long creditMinorAmount, BigDecimal amount) {
+    return Mono.defer(() -> {
+      // funds are checked by the store as it debits, against the balance as it
+      // is in the store rather than as it was read
+      TransferRejection rejection = validate(fromAccount, toAccount, rate, minorAmount, creditMinorAmount,
+          Long.MAX_VALUE, amount);
+      if (rejection != null) {
+        return Mono.error(rejection.exception());
+      }
+      long id = Transaction.ID_GENERATOR.next(2);
+      long epochMicros = EpochMicros.now();
+
+      return transferStore.transfer(id, fromAccount, toAccount, minorAmount, creditMinorAmount, epochMicros)
+          .map(balances -> {
+            Transaction fromTransaction = Transaction.builder()
+                .id(id)
+                .accountId(fromAccount.getId())
+                .amount(amount)
+                .balance(Money.toBigDecimal(balances.fromMinorBalance(), fromAccount.getScale()))
+                .type(TransactionType.DEBIT)
+                .date(EpochMicros.toLocalDateTime(epochMicros))
+                .build();
+            accountFeed.publish(AccountEvent.of(fromTransaction));
+            accountFeed.publish(
+                creditEvent(toAccount, creditMinorAmount, balances.toMinorBalance(), fromTransaction));
+            return fromTransaction;
+          });
+    });
+  }
+
+  private Transaction debit(Account fromAccount, Account toAccount, CrossRate rate, long minorAmount,
+      long creditMinorAmount, BigDecimal amount) {
+    long phase = System.nanoTime();
+    TransferRejection rejection = validate(fromAccount, toAccount, rate, minorAmount, creditMinorAmount,
+        fromAccount.getMinorBalance(), amount);
+    phase = transferMetrics.validation(phase);
+    if (rejection != null) {
+      // the engine aborts the transfer on the exception, it is preallocated and
+      // stackless so throwing it costs no more than returning
+      throw rejection.exception();
     }
+    return applyDebit(fromAccount, toAccount, minorAmount, creditMinorAmount, amount, phase);
+  }
 
-    // adjust the balances accordingly for each account
-    fromAccount.setBalance(fromAccount.getBalance().subtract(amount));
-    toAccount.setBalance(toAccount.getBalance().add(amount));
+  private Transaction applyDebit(Account fromAccount, Account toAccount, long minorAmount, long creditMinorAmount,
+      BigDecimal amount, long phase) {
+    // the debit and credit transactions take a pair of consecutive ids and
+    // share a time, so the journal only has to record the first
+    long id = Transaction.ID_GENERATOR.next(2);
+    long epochMicros = EpochMicros.now();
 
-    // add the main and inverse transactions to the store
-    Transaction fromTransaction = Transaction.builder()
-        .account(fromAccount)
+    // journal before touching any balance
+    transferJournal.transfer(fromAccount, toAccount, minorAmount, creditMinorAmount, id, epochMicros);
+
+    fromAccount.debit(minorAmount);
+    long minorBalance = fromAccount.getMinorBalance();
+    phase = transferMetrics.balanceUpdate(phase);
+
+    inProcessRepo.save(id, fromAccount.getId(), TransactionType.DEBIT, minorAmount, minorBalance,
+        fromAccount.getScale(), epochMicros);
+    transferMetrics.transactionSave(phase);
+
+    // return the originating transaction
+    return Transaction.builder()
+        .id(id)
+        .accountId(fromAccount.getId())
         .amount(amount)
+        .balance(Money.toBigDecimal(minorBalance, fromAccount.getScale()))
         .type(TransactionType.DEBIT)
+        .date(EpochMicros.toLocalDateTime(epochMicros))
         .build();
+  }
 
-    Transaction toTransaction = Transaction.builder()
-        .account(toAccount)
-        .amount(amount)
-        .type(TransactionType.CREDIT)
-        .build();
+  /**
+   * Rejections are recorded in the audit trail by the caller, the details are
+   * only logged at debug level and built when it is enabled
+   * 
+   * @return why the transfer is rejected, or null when it can go ahead
+   */
+  private TransferRejection validate(Account fromAccount, Account toAccount, CrossRate rate, long minorAmount,
+      long creditMinorAmount, long availableBalance, BigDecimal amount) {
 
-    transactionRepo.save(toTransaction);
-    transactionRepo.save(fromTransaction);
+    // a negative amount would move money the other way without any funds check
+    if (minorAmount <= 0) {
+      if (log.isDebugEnabled()) {
+        log.debug("The amount to transfer is not positive or not exact in the currency. amount = {}", amount);
+      }
+      return TransferRejection.INVALID_AMOUNT;
 
-    // return the originating transaction
-    return Mono.just(fromTransaction);
+      // both accounts should be active for a transaction to occur
+    } else if (!AccountStatus.ACTIVE.equals(fromAccount.getStatus())
+        || !AccountStatus.ACTIVE.equals(toAccount.getStatus())) {
+      if (log.isDebugEnabled()) {
+        log.debug("One of the accounts for the transfer is not active. account {} = {}, account {} = {}",
+            fromAccount.getId(), fromAccount.getStatus(), toAccount.getId(), toAccount.getStatus());
+      }
+      return TransferRejection.INVALID_ACCOUNT;
+
+      // check there is a rate between the currencies, the same currency always
+      // has one
+    } else if (rate == null) {
+      if (log.isDebugEnabled()) {
+        log.debug("There is no exchange rate between the account currencies. account {} = {}, account {} = {}",
+            fromAccount.getId(), fromAccount.getCurrency(), toAccount.getId(), toAccount.getCurrency());
+      }
+      return TransferRejection.UNMATCHED_CURRENCIES;
+
+      // an amount too small to credit anything in the 'to' currency, or too
+      // large to convert, moves no money
+    } else if (creditMinorAmount <= 0) {
+      if (log.isDebugEnabled()) {
+        log.debug("The amount to transfer does not convert to a creditable amount. amount = {}, {} to {}", amount,
+            fromAccount.getCurrency(), toAccount.getCurrency());
+      }
+      return TransferRejection.INVALID_AMOUNT;
+
+      // check if from account has sufficient funds to do the transaction
+    } else if (availableBalance < minorAmount) {
+      if (log.isDebugEnabled()) {
+        log.debug("The debiting account has insufficient funds to do the transfer. account {} = {}, amount = {}",
+            fromAccount.getId(), Money.toBigDecimal(availableBalance, fromAccount.getScale()), amount);
+      }
+      return TransferRejection.INSUFFICIENT_FUNDS;
+    }
+    return null;
+  }
+
+  /**
+   * Convert an amount to credit at the rate. One without a rate, or that
+   * overflows a long once converted, comes back as 0 for validation to turn down
+   */
+  private static long toCreditMinor(CrossRate rate, long minorAmount) {
+    if (rate == null) {
+      return 0;
+    }
+    try {
+      return rate.convert(minorAmount);
+    } catch (ArithmeticException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * @return the event for the live feed of the 'to' account, or null when
+   *         nobody is watching it
+   */
+  private AccountEvent credit(Account toAccount, long minorAmount, Transaction fromTransaction) {
+    long phase = System.nanoTime();
+    toAccount.credit(minorAmount);
+    // a striped account is credited concurrently, so its balance here may
+    // already include credits racing with this one
+    long minorBalance = toAccount.getMinorBalance();
+    phase = transferMetrics.balanceUpdate(phase);
+
+    // add the inverse transaction to the store
+    long epochMicros = EpochMicros.of(fromTransaction.getDate());
+    inProcessRepo.save(fromTransaction.getId() + 1, toAccount.getId(), TransactionType.CREDIT, minorAmount,
+        minorBalance, toAccount.getScale(), epochMicros);
+    transferMetrics.transactionSave(phase);
+
+    return creditEvent(toAccount, minorAmount, minorBalance, fromTransaction);
+  }
+
+  /**
+   * @return the event for the live feed of the 'to' account, or null when
+   *         nobody is watching it
+   */
+  private AccountEvent creditEvent(Account toAccount, long minorAmount, long minorBalance,
+      Transaction fromTransaction) {
+    if (!accountFeed.isWatched(toAccount.getId())) {
+      return null;
+    }
+    return AccountEvent.of(Transaction.builder()
+        .id(fromTransaction.getId() + 1)
+        .accountId(toAccount.getId())
+        .amount(Money.toBigDecimal(minorAmount, toAccount.getScale()))
+        .balance(Money.toBigDecimal(minorBalance, toAccount.getScale()))
+        .type(TransactionType.CREDIT)
+        .date(fromTransaction.getDate())
+        .build());
   }
+
 }
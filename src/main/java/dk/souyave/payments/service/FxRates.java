@@ -0,0 +1,72 @@
+package dk.souyave.payments.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dk.souyave.payments.domain.CrossRate;
+import dk.souyave.payments.domain.RateSheet;
+import dk.souyave.payments.domain.RateTable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The exchange rates transfers between currencies are converted at. The whole
+ * table is replaced at once by swapping in a new immutable snapshot, so
+ * transfers read the rates without any locking and always see one consistent
+ * sheet
+ */
+@Slf4j
+@Component
+public class FxRates {
+
+  private volatile RateTable table = RateTable.EMPTY;
+
+  public FxRates() {
+  }
+
+  /**
+   * @param ratesFile rate sheet in JSON to start from, or empty to start
+   *                  without rates
+   */
+  @Autowired
+  public FxRates(ObjectMapper objectMapper, @Value("${payments.fx.rates-file:}") String ratesFile) {
+    if (!ratesFile.isEmpty()) {
+      try {
+        replace(objectMapper.readValue(Path.of(ratesFile).toFile(), RateSheet.class));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed reading the exchange rates from " + ratesFile, e);
+      }
+    }
+  }
+
+  /**
+   * @return the rate from minor units of one currency to minor units of the
+   *         other, or null if there is none
+   */
+  public CrossRate crossRate(String fromCurrency, String toCurrency) {
+    return Objects.equals(fromCurrency, toCurrency) ? CrossRate.IDENTITY : table.crossRate(fromCurrency, toCurrency);
+  }
+
+  /**
+   * Replace every rate with the sheet's
+   *
+   * @throws IllegalArgumentException if the sheet is invalid, the current rates
+   *                                  are then kept
+   */
+  public void replace(RateSheet sheet) {
+    // every cross rate is worked out before the swap
+    table = RateTable.of(sheet);
+    log.info("Exchange rates of {} currencies against {} loaded", sheet.getRates().size(), sheet.getBase());
+  }
+
+  public RateSheet sheet() {
+    return table.sheet();
+  }
+}
@@ -0,0 +1,131 @@
+package dk.souyave.payments.service;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import reactor.core.publisher.Mono;
+
+/**
+ * Transfer engine guarding accounts with a fixed set of striped locks. The
+ * stripes of both accounts are always taken in ascending order, so two
+ * transfers between the same accounts in opposite directions can never
+ * deadlock, and transfers whose accounts land on different stripes never wait
+ * on each other. Credits to a striped account take no lock for it, so
+ * transfers into a hot account only contend on their 'from' accounts
+ */
+@Component
+@ConditionalOnProperty(name = "payments.transfer.engine", havingValue = "locking", matchIfMissing = true)
+public class LockingTransferEngine implements TransferEngine, MeterBinder {
+
+  private final ReentrantLock[] stripes;
+  private final int mask;
+
+  // lock acquisitions that found the stripe already held
+  private final LongAdder contended = new LongAdder();
+
+  public LockingTransferEngine(@Value("${payments.transfer.lock-stripes:1024}") int lockStripes) {
+    // round up to a power of two so the stripe can be found with a mask
+    int size = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+    this.stripes = new ReentrantLock[size];
+    this.mask = size - 1;
+    for (int i = 0; i < size; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+  }
+
+  @Override
+  public Mono<Transaction> transfer(Account fromAccount, Account toAccount, Supplier<Transaction> debit,
+      Consumer<Transaction> credit) {
+    return Mono.fromSupplier(() -> {
+      int fromStripe = fromAccount.getId() & mask;
+      int toStripe = toAccount.isStriped() ? fromStripe : toAccount.getId() & mask;
+
+      ReentrantLock first = stripes[Math.min(fromStripe, toStripe)];
+      ReentrantLock second = stripes[Math.max(fromStripe, toStripe)];
+
+      lock(first);
+      try {
+        // accounts sharing a stripe only need the one lock
+        if (second != first) {
+          lock(second);
+        }
+        try {
+          Transaction transaction = debit.get();
+          credit.accept(transaction);
+          return transaction;
+        } finally {
+          if (second != first) {
+            second.unlock();
+          }
+        }
+      } finally {
+        first.unlock();
+      }
+    });
+  }
+
+  @Override
+  public <T> Mono<T> exclusive(Account account, Supplier<T> work) {
+    return Mono.fromSupplier(() -> {
+      ReentrantLock stripe = stripes[account.getId() & mask];
+      lock(stripe);
+      try {
+        return work.get();
+      } finally {
+        stripe.unlock();
+      }
+    });
+  }
+
+  @Override
+  public <T> Mono<T> exclusive(Collection<Account> accounts, Supplier<T> work) {
+    return Mono.fromSupplier(() -> {
+      BitSet held = new BitSet(stripes.length);
+      for (Account account : accounts) {
+        held.set(account.getId() & mask);
+      }
+
+      // same ascending order as single transfers, so a batch can't deadlock
+      // against them either
+      int locked = -1;
+      try {
+        for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+          lock(stripes[i]);
+          locked = i;
+        }
+        return work.get();
+      } finally {
+        for (int i = locked; i >= 0; i = held.previousSetBit(i - 1)) {
+          stripes[i].unlock();
+        }
+      }
+    });
+  }
+
+  private void lock(ReentrantLock lock) {
+    if (!lock.tryLock()) {
+      contended.increment();
+      lock.lock();
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("payments.transfer.lock.contended", contended, LongAdder::sum)
+        .description("Stripe lock acquisitions that had to wait for another transfer")
+        .register(registry);
+  }
+}
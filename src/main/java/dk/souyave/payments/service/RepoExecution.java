@@ -0,0 +1,26 @@
+package dk.souyave.payments.service;
+
+/**
+ * Where the service runs repository queries
+ */
+public enum RepoExecution {
+
+  /**
+   * On the parallel pool of one thread per core. Only fit for stores that never
+   * block, as a blocked call holds up a whole core
+   */
+  PARALLEL,
+
+  /**
+   * On the bounded elastic pool, which grows to ten threads per core for
+   * blocking work and queues calls beyond that
+   */
+  BOUNDED_ELASTIC,
+
+  /**
+   * Each call on a virtual thread of its own, so blocking calls never queue
+   * behind each other. Needs Java 21, older runtimes fall back to bounded
+   * elastic
+   */
+  VIRTUAL;
+}
@@ -0,0 +1,62 @@
+package dk.souyave.payments.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The scheduler repository queries are subscribed on, chosen by the configured
+ * {@link RepoExecution}
+ */
+@Slf4j
+@Component
+public class RepoScheduler implements DisposableBean {
+
+  private final RepoExecution execution;
+  private final Scheduler scheduler;
+
+  public RepoScheduler(@Value("${payments.repo.execution:parallel}") RepoExecution execution) {
+    this.execution = execution;
+    this.scheduler = switch (execution) {
+      case PARALLEL -> Schedulers.parallel();
+      case BOUNDED_ELASTIC -> Schedulers.boundedElastic();
+      case VIRTUAL -> virtualThreads();
+    };
+  }
+
+  public Scheduler get() {
+    return scheduler;
+  }
+
+  @Override
+  public void destroy() {
+    // the shared schedulers are left to Reactor
+    if (execution == RepoExecution.VIRTUAL) {
+      scheduler.dispose();
+    }
+  }
+
+  /**
+   * Looked up reflectively, so the service still builds and runs on Java 17
+   */
+  private static Scheduler virtualThreads() {
+    try {
+      ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+      return Schedulers.fromExecutorService(executor, "repo-virtual");
+    } catch (NoSuchMethodException e) {
+      log.warn("Virtual threads need Java 21, running repository queries on bounded elastic instead");
+      return Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+          Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "repo-elastic");
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Failed to create virtual thread executor", e);
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package dk.souyave.payments.service;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Single writer transfer engine. Accounts are partitioned over a number of
+ * shards by id, and every mutation of an account happens on the one thread
+ * owning its shard, so no locks are needed at all.
+ * 
+ * A transfer within a shard runs both legs in one go on the shard thread. A
+ * transfer across shards is handed off in two steps: the 'from' shard
+ * validates and debits, then passes the credit on to the 'to' shard. Credits
+ * to a striped account need no single writer and run on the 'from' shard.
+ * 
+ * Work on a single account runs on its shard like any leg. Work needing
+ * several accounts at once parks every shard involved on a barrier and runs
+ * while they are all parked.
+ * 
+ * Any failure of a piece of work, errors included, is passed on to its caller
+ * and never ends the shard thread, which every account of the shard relies on.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "payments.transfer.engine", havingValue = "sharded")
+public class ShardedTransferEngine implements TransferEngine, MeterBinder, DisposableBean {
+
+  private final Shard[] shards;
+
+  // only one exclusive piece of work parks shards at a time, otherwise two of
+  // them could each hold a shard the other is waiting for
+  private final ReentrantLock exclusiveLock = new ReentrantLock();
+
+  public ShardedTransferEngine(@Value("${payments.transfer.shards:0}") int shardCount) {
+    int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+    this.shards = new Shard[count];
+    for (int i = 0; i < count; i++) {
+      shards[i] = new Shard(i);
+      shards[i].start();
+    }
+    log.info("Started sharded transfer engine with {} shards", count);
+  }
+
+  @Override
+  public Mono<Transaction> transfer(Account fromAccount, Account toAccount, Supplier<Transaction> debit,
+      Consumer<Transaction> credit) {
+    Shard fromShard = shardOf(fromAccount);
+    Shard toShard = toAccount.isStriped() ? fromShard : shardOf(toAccount);
+
+    return Mono.<Transaction>create(sink -> fromShard.submit(() -> {
+      Transaction transaction;
+      try {
+        transaction = debit.get();
+      } catch (Throwable e) {
+        sink.error(e);
+        return;
+      }
+
+      if (fromShard == toShard) {
+        credit(sink, credit, transaction);
+      } else {
+        toShard.submit(() -> credit(sink, credit, transaction));
+      }
+    }))
+        // keep the shard threads free for ledger work only
+        .publishOn(Schedulers.parallel());
+  }
+
+  private static void credit(MonoSink<Transaction> sink, Consumer<Transaction> credit, Transaction transaction) {
+    try {
+      credit.accept(transaction);
+      sink.success(transaction);
+    } catch (Throwable e) {
+      sink.error(e);
+    }
+  }
+
+  @Override
+  public <T> Mono<T> exclusive(Account account, Supplier<T> work) {
+    return Mono.<T>create(sink -> shardOf(account).submit(() -> {
+      try {
+        sink.success(work.get());
+      } catch (Throwable e) {
+        sink.error(e);
+      }
+    }))
+        .publishOn(Schedulers.parallel());
+  }
+
+  @Override
+  public <T> Mono<T> exclusive(Collection<Account> accounts, Supplier<T> work) {
+    return Mono.fromSupplier(() -> {
+      Set<Shard> involved = new LinkedHashSet<>();
+      for (Account account : accounts) {
+        involved.add(shardOf(account));
+      }
+
+      exclusiveLock.lock();
+      try {
+        CountDownLatch parked = new CountDownLatch(involved.size());
+        CountDownLatch released = new CountDownLatch(1);
+        for (Shard shard : involved) {
+          shard.submit(() -> {
+            parked.countDown();
+            awaitUninterruptibly(released);
+          });
+        }
+
+        awaitUninterruptibly(parked);
+        try {
+          return work.get();
+        } finally {
+          released.countDown();
+        }
+      } finally {
+        exclusiveLock.unlock();
+      }
+    })
+        // waits for the shards to drain up to the barrier
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    for (int i = 0; i < shards.length; i++) {
+      // walks the queue, which is fine at scrape time but kept off the hot path
+      Gauge.builder("payments.transfer.shard.queue", shards[i].queue, Queue::size)
+          .description("Ledger work waiting on a shard")
+          .tag("shard", String.valueOf(i))
+          .register(registry);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    for (Shard shard : shards) {
+      shard.stop();
+    }
+  }
+
+  private Shard shardOf(Account account) {
+    return shards[Math.floorMod(account.getId(), shards.length)];
+  }
+
+  /**
+   * One event loop draining a lock free queue of ledger work
+   */
+  private static class Shard implements Runnable {
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean waiting;
+    private volatile boolean running = true;
+
+    Shard(int index) {
+      this.thread = new Thread(this, "ledger-shard-" + index);
+      this.thread.setDaemon(true);
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    void stop() {
+      running = false;
+      LockSupport.unpark(thread);
+    }
+
+    void submit(Runnable work) {
+      queue.offer(work);
+      if (waiting) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        Runnable work = queue.poll();
+        if (work != null) {
+          try {
+            work.run();
+          } catch (Throwable e) {
+            log.error("Unexpected failure on {}", thread.getName(), e);
+          }
+          continue;
+        }
+
+        // announce we are about to sleep, then check again so a submit racing
+        // with us is never missed
+        waiting = true;
+        if (queue.isEmpty() && running) {
+          LockSupport.park(this);
+        }
+        waiting = false;
+      }
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package dk.souyave.payments.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.exception.InvalidAccountException;
+import dk.souyave.payments.exception.InvalidAmountException;
+import dk.souyave.payments.exception.UnmatchedCurrenciesException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Audit trail of every transfer, completed or rejected, written to the
+ * payments.audit logger as structured key value events.
+ * 
+ * Transfers only hand their fields to a bounded queue, without formatting or
+ * logging anything. A single writer thread drains the queue in batches and
+ * logs them, so the cost of the log output is never paid on the transfer path.
+ * When the writer falls so far behind that the queue is full, further events
+ * are dropped and counted rather than making transfers wait
+ */
+@Component
+public class TransferAudit implements MeterBinder, DisposableBean {
+
+  private static final Logger audit = LoggerFactory.getLogger("payments.audit");
+
+  private final BlockingQueue<Event> queue;
+  private final int batchSize;
+  private final long flushIntervalNanos;
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  // events dropped because the queue was full
+  private final LongAdder dropped = new LongAdder();
+
+  public TransferAudit(
+      @Value("${payments.audit.queue-size:65536}") int queueSize,
+      @Value("${payments.audit.batch-size:1024}") int batchSize,
+      @Value("${payments.audit.flush-interval:100ms}") Duration flushInterval) {
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = flushInterval.toNanos();
+    this.writer = new Thread(this::write, "transfer-audit");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  public void completed(int fromAccountId, int toAccountId, BigDecimal amount, String currency,
+      Transaction fromTransaction) {
+    record(new Event("completed", fromAccountId, toAccountId, amount, currency, fromTransaction));
+  }
+
+  public void failed(int fromAccountId, int toAccountId, BigDecimal amount, Throwable error) {
+    String outcome = error instanceof InsufficientFundsException ? "insufficient_funds"
+        : error instanceof UnmatchedCurrenciesException ? "unmatched_currencies"
+            : error instanceof InvalidAccountException ? "invalid_account"
+                : error instanceof InvalidAmountException ? "invalid_amount"
+                    : "error";
+    record(new Event(outcome, fromAccountId, toAccountId, amount, null, null));
+  }
+
+  private void record(Event event) {
+    if (!queue.offer(event)) {
+      dropped.increment();
+    }
+  }
+
+  private void write() {
+    List<Event> batch = new ArrayList<>(batchSize);
+    while (running || !queue.isEmpty()) {
+      queue.drainTo(batch, batchSize);
+      for (Event event : batch) {
+        log(event);
+      }
+      // keep draining while full batches are waiting, otherwise let the next
+      // batch build up
+      if (batch.size() < batchSize && running) {
+        LockSupport.parkNanos(flushIntervalNanos);
+      }
+      batch.clear();
+    }
+  }
+
+  private static void log(Event event) {
+    var builder = audit.atInfo()
+        .setMessage("transfer")
+        .addKeyValue("outcome", event.outcome())
+        .addKeyValue("from", event.fromAccountId())
+        .addKeyValue("to", event.toAccountId())
+        .addKeyValue("amount", event.amount());
+    if (event.fromTransaction() != null) {
+      builder = builder
+          .addKeyValue("currency", event.currency())
+          .addKeyValue("transaction", event.fromTransaction().getId())
+          .addKeyValue("date", event.fromTransaction().getDate());
+    }
+    builder.log();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("payments.audit.dropped", dropped, LongAdder::sum)
+        .description("Transfer audit events dropped because the audit writer fell behind")
+        .register(registry);
+  }
+
+  /**
+   * Write out whatever is still queued, then stop
+   */
+  @Override
+  public void destroy() throws InterruptedException {
+    running = false;
+    LockSupport.unpark(writer);
+    writer.join(TimeUnit.SECONDS.toMillis(10));
+  }
+
+  private record Event(String outcome, int fromAccountId, int toAccountId, BigDecimal amount, String currency,
+      Transaction fromTransaction) {
+  }
+}
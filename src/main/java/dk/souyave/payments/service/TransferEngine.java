@@ -0,0 +1,51 @@
+package dk.souyave.payments.service;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import reactor.core.publisher.Mono;
+
+/**
+ * Executes the legs of a transfer so that no two transfers touching the same
+ * account ever mutate it at the same time, while transfers on unrelated
+ * accounts are free to run in parallel
+ */
+public interface TransferEngine {
+
+  /**
+   * Run the debit leg and then the credit leg of a transfer
+   * 
+   * @param fromAccount account being debited
+   * @param toAccount   account being credited
+   * @param debit       validates the transfer and debits the 'from' account,
+   *                    supplying the originating transaction
+   * @param credit      credits the 'to' account given the originating
+   *                    transaction, only run if the debit succeeded
+   * @return the originating transaction once both legs have been applied
+   */
+  Mono<Transaction> transfer(Account fromAccount, Account toAccount, Supplier<Transaction> debit,
+      Consumer<Transaction> credit);
+
+  /**
+   * Run a piece of ledger work on a single account, eg. the one leg of a
+   * transfer whose other account lives on another node
+   * 
+   * @param account the account the work reads or mutates
+   * @param work    the work to run
+   * @return the result of the work
+   */
+  <T> Mono<T> exclusive(Account account, Supplier<T> work);
+
+  /**
+   * Run a piece of ledger work with exclusive access to all the given accounts
+   * at once, eg. to validate and apply a batch of transfers all or nothing
+   * 
+   * @param accounts every account the work reads or mutates
+   * @param work     the work to run
+   * @return the result of the work
+   */
+  <T> Mono<T> exclusive(Collection<Account> accounts, Supplier<T> work);
+}
@@ -0,0 +1,123 @@
+package dk.souyave.payments.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.exception.IdempotencyKeyReusedException;
+import dk.souyave.payments.exception.TransferInDoubtException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Mono;
+
+/**
+ * Makes retried transfers safe. The first transfer under an idempotency key
+ * runs, and every repeat of that key gets the same transaction back instead of
+ * moving the money again.
+ * 
+ * The cache holds the future of each transfer from the moment it starts, so a
+ * duplicate arriving while the first is still in flight waits on that one
+ * execution rather than starting its own. A transfer that fails changed
+ * nothing and drops out of the cache, so it can be retried under the same key.
+ * A transfer left in doubt by another node stays in the cache, and repeats are
+ * answered with a conflict until it settles, then with its transaction, or run
+ * again if it was released without moving any money
+ */
+@Component
+public class TransferIdempotency {
+
+  private final AsyncCache<String, IdempotentTransfer> transfers;
+
+  public TransferIdempotency(MeterRegistry registry,
+      @Value("${payments.idempotency.maximum-size:1000000}") long maximumSize,
+      @Value("${payments.idempotency.expire-after:24h}") Duration expireAfter) {
+    this.transfers = CaffeineCacheMetrics.monitor(registry, Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(expireAfter)
+        .recordStats()
+        .buildAsync(), "payments.idempotency");
+  }
+
+  /**
+   * Run the transfer once for the key
+   * 
+   * @param key           supplied by the client, unique per intended transfer
+   * @param fromAccountId of the transfer, to reject reuse of the key
+   * @param toAccountId   of the transfer, to reject reuse of the key
+   * @param amount        of the transfer, to reject reuse of the key
+   * @param transfer      makes the transfer, only called for a new key
+   * @return the 'from' account transaction of the one transfer made for the key
+   */
+  public Mono<Transaction> transfer(String key, int fromAccountId, int toAccountId, BigDecimal amount,
+      Supplier<Mono<Transaction>> transfer) {
+    return Mono.defer(() -> {
+      AtomicBoolean made = new AtomicBoolean();
+      CompletableFuture<IdempotentTransfer> future = transfers.get(key, (k, executor) -> {
+        made.set(true);
+        return transfer.get()
+            .map(transaction -> new IdempotentTransfer(fromAccountId, toAccountId, amount, transaction, null))
+            .onErrorResume(TransferInDoubtException.class,
+                e -> Mono.just(new IdempotentTransfer(fromAccountId, toAccountId, amount, null, e)))
+            .toFuture();
+      });
+      // one caller going away must not cancel the transfer for the others
+      return Mono.fromFuture(future, true)
+          .flatMap(done -> {
+            if (!done.matches(fromAccountId, toAccountId, amount)) {
+              return Mono.error(IdempotencyKeyReusedException.INSTANCE);
+            } else if (done.inDoubt() == null) {
+              return Mono.just(done.transaction());
+            } else if (made.get()) {
+              return Mono.error(done.inDoubt());
+            }
+            return settled(key, future, done.inDoubt(),
+                () -> transfer(key, fromAccountId, toAccountId, amount, transfer));
+          });
+    });
+  }
+
+  /**
+   * Answer a repeat of a transfer left in doubt by its settlement
+   *
+   * @param retry makes the transfer again under the key
+   */
+  private Mono<Transaction> settled(String key, CompletableFuture<IdempotentTransfer> future,
+      TransferInDoubtException inDoubt, Supplier<Mono<Transaction>> retry) {
+    CompletableFuture<Transaction> settlement = inDoubt.getSettlement();
+    if (!settlement.isDone()) {
+      return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+          "The transfer made for the idempotency key is in doubt until it settles"));
+    }
+    Transaction transaction = settlement.join();
+    if (transaction != null) {
+      return Mono.just(transaction);
+    }
+    // released without moving any money, so it is made again
+    transfers.asMap().remove(key, future);
+    return retry.get();
+  }
+
+  /**
+   * The request a key was first used for and the transaction it made, or why
+   * it is in doubt
+   */
+  private record IdempotentTransfer(int fromAccountId, int toAccountId, BigDecimal amount,
+      Transaction transaction, TransferInDoubtException inDoubt) {
+
+    boolean matches(int fromAccountId, int toAccountId, BigDecimal amount) {
+      return this.fromAccountId == fromAccountId && this.toAccountId == toAccountId
+          && this.amount.compareTo(amount) == 0;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package dk.souyave.payments.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.exception.InvalidAccountException;
+import dk.souyave.payments.exception.InvalidAmountException;
+import dk.souyave.payments.exception.UnmatchedCurrenciesException;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters for the transfer path. Every meter is registered up front and held in
+ * a field, so recording is a clock read and an add with no registry lookup or
+ * tag allocation per transfer.
+ * 
+ * payments.transfer times whole transfers from account lookup to journal sync,
+ * tagged with their outcome, so its count doubles as a counter of each
+ * rejection reason. payments.transfer.phase times the steps of the debit and
+ * credit legs
+ */
+@Component
+public class TransferMetrics {
+
+  private final Timer completed;
+  private final Timer insufficientFunds;
+  private final Timer unmatchedCurrencies;
+  private final Timer invalidAccount;
+  private final Timer invalidAmount;
+  private final Timer failed;
+
+  private final Timer lookup;
+  private final Timer validation;
+  private final Timer balanceUpdate;
+  private final Timer transactionSave;
+
+  public TransferMetrics(MeterRegistry registry, AccountsRepo accountsRepo, TransactionRepo transactionRepo) {
+    this.completed = transfer(registry, "completed");
+    this.insufficientFunds = transfer(registry, "insufficient_funds");
+    this.unmatchedCurrencies = transfer(registry, "unmatched_currencies");
+    this.invalidAccount = transfer(registry, "invalid_account");
+    this.invalidAmount = transfer(registry, "invalid_amount");
+    this.failed = transfer(registry, "error");
+
+    this.lookup = phase(registry, "lookup");
+    this.validation = phase(registry, "validation");
+    this.balanceUpdate = phase(registry, "balance_update");
+    this.transactionSave = phase(registry, "transaction_save");
+
+    Gauge.builder("payments.accounts", accountsRepo, AccountsRepo::count)
+        .description("Accounts held")
+        .register(registry);
+    Gauge.builder("payments.transactions", transactionRepo, TransactionRepo::count)
+        .description("Transactions held in the ledger")
+        .register(registry);
+  }
+
+  private static Timer transfer(MeterRegistry registry, String outcome) {
+    return Timer.builder("payments.transfer")
+        .description("Transfers from account lookup until durable")
+        .tag("outcome", outcome)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  private static Timer phase(MeterRegistry registry, String phase) {
+    return Timer.builder("payments.transfer.phase")
+        .description("Time spent in each step of a transfer")
+        .tag("phase", phase)
+        .register(registry);
+  }
+
+  public void completed(long startNanos) {
+    completed.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void failed(long startNanos, Throwable error) {
+    Timer timer = error instanceof InsufficientFundsException ? insufficientFunds
+        : error instanceof UnmatchedCurrenciesException ? unmatchedCurrencies
+            : error instanceof InvalidAccountException ? invalidAccount
+                : error instanceof InvalidAmountException ? invalidAmount
+                    : failed;
+    timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the time now, to pass back in once the phase ends
+   */
+  public long lookup(long startNanos) {
+    return record(lookup, startNanos);
+  }
+
+  public long validation(long startNanos) {
+    return record(validation, startNanos);
+  }
+
+  public long balanceUpdate(long startNanos) {
+    return record(balanceUpdate, startNanos);
+  }
+
+  public long transactionSave(long startNanos) {
+    return record(transactionSave, startNanos);
+  }
+
+  private static long record(Timer timer, long startNanos) {
+    long now = System.nanoTime();
+    timer.record(now - startNanos, TimeUnit.NANOSECONDS);
+    return now;
+  }
+}
@@ -0,0 +1,39 @@
+package dk.souyave.payments.service;
+
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.exception.InvalidAccountException;
+import dk.souyave.payments.exception.InvalidAmountException;
+import dk.souyave.payments.exception.RejectionException;
+import dk.souyave.payments.exception.UnmatchedCurrenciesException;
+
+/**
+ * Why validation turned a transfer down. Validation returns the rejection
+ * rather than throwing, callers that have to fail a reactive chain or abort a
+ * transfer engine leg signal the preallocated exception that goes with it
+ */
+public enum TransferRejection {
+
+  /**
+   * One of the accounts is missing or not active
+   */
+  INVALID_ACCOUNT(InvalidAccountException.INSTANCE),
+
+  /**
+   * The amount is zero or negative
+   */
+  INVALID_AMOUNT(InvalidAmountException.INSTANCE),
+
+  UNMATCHED_CURRENCIES(UnmatchedCurrenciesException.INSTANCE),
+
+  INSUFFICIENT_FUNDS(InsufficientFundsException.INSTANCE);
+
+  private final RejectionException exception;
+
+  TransferRejection(RejectionException exception) {
+    this.exception = exception;
+  }
+
+  public RejectionException exception() {
+    return exception;
+  }
+}
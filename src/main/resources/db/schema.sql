@@ -0,0 +1,24 @@
+-- balances and amounts are held in minor units of the account currency
+
+CREATE TABLE IF NOT EXISTS account (
+  id INTEGER PRIMARY KEY,
+  currency CHAR(3) NOT NULL,
+  balance BIGINT NOT NULL,
+  status VARCHAR(16) NOT NULL,
+  -- bumped by every update, answers conditional balance reads
+  version BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS account_transaction (
+  id BIGINT PRIMARY KEY,
+  account_id INTEGER NOT NULL,
+  type VARCHAR(8) NOT NULL,
+  amount BIGINT NOT NULL,
+  balance BIGINT NOT NULL,
+  scale INTEGER NOT NULL,
+  epoch_micros BIGINT NOT NULL
+);
+
+-- statements walk an account's transactions most recent first
+CREATE INDEX IF NOT EXISTS account_transaction_statement
+  ON account_transaction (account_id, epoch_micros DESC, id DESC);
@@ -0,0 +1,231 @@
+package dk.souyave.payments.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.server.ResponseStatusException;
+
+import dk.souyave.payments.PaymentsApp;
+import dk.souyave.payments.cluster.ClusterRouter.RemoteCredit;
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.service.AccountsService;
+import dk.souyave.payments.service.TransferEngine;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Two nodes on localhost in one JVM, each with its own port and accounts
+ */
+public class ClusterTest {
+
+  private static final int NODES = 2;
+
+  private static final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+  private static final List<WebTestClient> clients = new ArrayList<>();
+  private static final HashRing ring = new HashRing(NODES, 128);
+
+  @BeforeAll
+  public static void startNodes() throws IOException {
+    int[] ports = new int[NODES];
+    List<String> urls = new ArrayList<>();
+    for (int node = 0; node < NODES; node++) {
+      try (ServerSocket socket = new ServerSocket(0)) {
+        ports[node] = socket.getLocalPort();
+      }
+      urls.add("http://localhost:" + ports[node]);
+    }
+
+    for (int node = 0; node < NODES; node++) {
+      contexts.add(new SpringApplication(PaymentsApp.class).run(
+          "--server.port=" + ports[node],
+          "--payments.cluster.enabled=true",
+          "--payments.cluster.nodes=" + String.join(",", urls),
+          "--payments.cluster.node=" + node,
+          "--payments.cluster.reservation-timeout=2s",
+          "--payments.ids.node=" + node,
+          "--payments.ids.nodes=" + NODES,
+          "--logging.level.dk.souyave=WARN"));
+      clients.add(WebTestClient.bindToServer().baseUrl(urls.get(node)).build());
+    }
+  }
+
+  @AfterAll
+  public static void stopNodes() {
+    contexts.forEach(ConfigurableApplicationContext::close);
+    // the generators are shared by every test in the JVM
+    Account.ID_GENERATOR.configure(64, 0, 1, null, 65536);
+    Transaction.ID_GENERATOR.configure(64, 0, 1, null, 65536);
+    Account.ID_GENERATOR.reset(1);
+    Transaction.ID_GENERATOR.reset(1);
+  }
+
+  @Test
+  public void givenAccountsOnDifferentNodes_whenTransferSentToEitherNode_thenBothBalancesMoved() {
+    Account from = createAccount(0, "DKK", "100");
+    Account to = createAccount(1, "DKK", "0");
+
+    // sent to the owner of 'to', which hands it to the owner of 'from'
+    clients.get(1).patch().uri("/accounts/{from}/transfer/{to}/10", from.getId(), to.getId())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.accountId").isEqualTo(from.getId())
+        .jsonPath("$.balance").isEqualTo("90.00");
+
+    clients.get(0).get().uri("/accounts/{id}/balance", to.getId())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.balance").isEqualTo("10.00");
+    assertEquals(0, router(0).pendingReservations());
+  }
+
+  @Test
+  public void givenRejectedCredit_whenTransferredAcrossNodes_thenReservationReleased() {
+    Account from = createAccount(0, "DKK", "100");
+    Account to = createAccount(1, "USD", "0");
+
+    clients.get(0).patch().uri("/accounts/{from}/transfer/{to}/10", from.getId(), to.getId())
+        .exchange()
+        .expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+
+    clients.get(1).get().uri("/accounts/{id}/balance", from.getId())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.balance").isEqualTo("100.00");
+    clients.get(0).get().uri("/accounts/{id}/statements/mini", from.getId())
+        .exchange()
+        .expectBody()
+        .jsonPath("$.length()").isEqualTo(2);
+    assertEquals(0, router(0).pendingReservations());
+  }
+
+  @Test
+  public void givenCreditNotAnsweredInTime_whenRetriedWithSameKey_thenInDoubtUntilSettledAndDebitedOnce()
+      throws InterruptedException {
+    Account from = createAccount(0, "DKK", "100");
+    Account to = createAccount(1, "DKK", "0");
+
+    // hold the 'to' account on its node past the request timeout
+    CountDownLatch held = new CountDownLatch(1), release = new CountDownLatch(1);
+    contexts.get(1).getBean(TransferEngine.class).exclusive(to, () -> {
+      held.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return to;
+    }).subscribeOn(Schedulers.boundedElastic()).subscribe();
+    held.await();
+
+    clients.get(0).patch().uri("/accounts/{from}/transfer/{to}/10", from.getId(), to.getId())
+        .header("Idempotency-Key", "in-doubt")
+        .exchange()
+        .expectStatus().isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+    clients.get(0).patch().uri("/accounts/{from}/transfer/{to}/10", from.getId(), to.getId())
+        .header("Idempotency-Key", "in-doubt")
+        .exchange()
+        .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+
+    // the credit goes through late, and the reservation is confirmed once it
+    // times out
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (router(0).pendingReservations() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+
+    clients.get(0).patch().uri("/accounts/{from}/transfer/{to}/10", from.getId(), to.getId())
+        .header("Idempotency-Key", "in-doubt")
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.balance").isEqualTo("90.00");
+    assertEquals(0, router(0).pendingReservations());
+    assertEquals(new BigDecimal("90.00"), from.getBalance());
+    assertEquals(new BigDecimal("10.00"), to.getBalance());
+  }
+
+  @Test
+  public void givenCancelledCredit_whenCreditArrives_thenNeverApplied() {
+    Account to = createAccount(1, "DKK", "0");
+    RemoteCredit credit = new RemoteCredit(0, to.getId(), 1000, "DKK", EpochMicros.now());
+
+    router(1).cancel(-2).block();
+
+    assertThrows(ResponseStatusException.class, () -> router(1).credit(-2, credit).block());
+    assertEquals(new BigDecimal("0.00"), to.getBalance());
+  }
+
+  @Test
+  public void givenRetriedCredit_whenCreditArrivesTwice_thenAppliedOnce() {
+    Account to = createAccount(1, "DKK", "0");
+    RemoteCredit credit = new RemoteCredit(0, to.getId(), 1000, "DKK", EpochMicros.now());
+
+    router(1).credit(-4, credit).block();
+    router(1).credit(-4, credit).block();
+
+    assertEquals(new BigDecimal("10.00"), to.getBalance());
+    assertThrows(ResponseStatusException.class, () -> router(1).cancel(-4).block());
+  }
+
+  @Test
+  public void givenFundedAccount_whenCreatedThroughOtherNode_thenOwnerHoldsBalance() {
+    Account created = createAccount(1, "DKK", "25.50");
+
+    assertEquals(new BigDecimal("25.50"), created.getBalance());
+    clients.get(1).get().uri("/accounts/{id}/balance", created.getId())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.balance").isEqualTo("25.50");
+  }
+
+  /**
+   * Create funded accounts through node 0 until one lands on the node asked for
+   *
+   * @return the account as held by the node owning it
+   */
+  private static Account createAccount(int node, String currency, String balance) {
+    while (true) {
+      // the account is read back as plain json, reading it as an account
+      // would leave out its id
+      Map<?, ?> account = clients.get(0).post().uri("/accounts/create")
+          .contentType(MediaType.APPLICATION_JSON)
+          .bodyValue("{\"currency\":\"" + currency + "\",\"balance\":\"" + balance + "\"}")
+          .exchange()
+          .expectStatus().isCreated()
+          .expectBody(Map.class)
+          .returnResult()
+          .getResponseBody();
+      int accountId = (Integer) account.get("id");
+      assertEquals(0, new BigDecimal(balance).compareTo(new BigDecimal((String) account.get("balance"))));
+      if (ring.ownerOf(accountId) == node) {
+        return contexts.get(node).getBean(AccountsService.class).getAccount(accountId).block();
+      }
+    }
+  }
+
+  private static ClusterRouter router(int node) {
+    return contexts.get(node).getBean(ClusterRouter.class);
+  }
+}
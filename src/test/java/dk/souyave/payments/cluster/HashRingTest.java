@@ -0,0 +1,49 @@
+package dk.souyave.payments.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class HashRingTest {
+
+  private static final int ACCOUNTS = 100_000;
+
+  @Test
+  public void givenSequentialAccountIds_whenOwnersLookedUp_thenSpreadEvenlyOverNodes() {
+    HashRing ring = new HashRing(4, 128);
+    int[] owned = new int[4];
+    for (int accountId = 1; accountId <= ACCOUNTS; accountId++) {
+      owned[ring.ownerOf(accountId)]++;
+    }
+
+    for (int node = 0; node < 4; node++) {
+      assertTrue(Math.abs(owned[node] - ACCOUNTS / 4) < ACCOUNTS / 20, "node " + node + " owns " + owned[node]);
+    }
+  }
+
+  @Test
+  public void givenNodeAdded_whenOwnersLookedUp_thenOnlyAccountsOfTheNewNodeMove() {
+    HashRing before = new HashRing(4, 128);
+    HashRing after = new HashRing(5, 128);
+
+    int moved = 0;
+    for (int accountId = 1; accountId <= ACCOUNTS; accountId++) {
+      int owner = after.ownerOf(accountId);
+      if (owner != before.ownerOf(accountId)) {
+        assertEquals(4, owner);
+        moved++;
+      }
+    }
+    assertTrue(Math.abs(moved - ACCOUNTS / 5) < ACCOUNTS / 20, moved + " accounts moved");
+  }
+
+  @Test
+  public void givenSameNodeCount_whenRingsBuilt_thenSameOwners() {
+    HashRing first = new HashRing(3, 64);
+    HashRing second = new HashRing(3, 64);
+    for (int accountId = 1; accountId <= 1000; accountId++) {
+      assertEquals(first.ownerOf(accountId), second.ownerOf(accountId));
+    }
+  }
+}
@@ -1,13 +1,17 @@
 package dk.souyave.payments.controller;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.math.BigDecimal;
+import java.util.Map;
 import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.AfterEach;
@@ -17,6 +21,8 @@ import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWeb
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
@@ -24,6 +30,8 @@ import dk.souyave.payments.domain.Account;
 import dk.souyave.payments.domain.AccountStatus;
 import dk.souyave.payments.domain.Transaction;
 import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.domain.TransferResult;
+import dk.souyave.payments.exception.InsufficientFundsException;
 import dk.souyave.payments.exception.InvalidAccountException;
 import dk.souyave.payments.service.AccountsService;
 import reactor.core.publisher.Flux;
@@ -41,15 +49,15 @@ public class AccountsControllerTest {
 
   @AfterEach
   public void cleanUp() {
-    Account.ID_GENERATOR.set(1);
+    Account.ID_GENERATOR.reset(1);
   }
 
   @Test
   public void givenNonExistingAccount_whenCreationRequested_thenAccountCreatedSuccessfully() {
 
-    Account account = new Account();
+    // the request body is read without using up an id
+    Account account = new Account(Account.UNASSIGNED_ID);
     account.setCurrency("DKK");
-    Account.ID_GENERATOR.set(1);
 
     var body = "{\n" +
         "\"currency\":\"DKK\"\n" +
@@ -83,14 +91,80 @@ public class AccountsControllerTest {
         .jsonPath("$.status").isEqualTo("ACTIVE");
   }
 
+  @Test
+  public void givenAccountWithBalance_whenDetailsRequested_thenBalanceReturnedInCurrencyScale() {
+    Account account = new Account();
+    account.setCurrency("DKK");
+    account.setBalance(new BigDecimal("10.5"));
+
+    when(accountsService.getAccount(1)).thenReturn(Mono.just(account));
+
+    this.webClient.get().uri("/accounts/1/balance")
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.balance").isEqualTo("10.50")
+        .jsonPath("$.minorBalance").doesNotExist();
+  }
+
+  @Test
+  public void givenUnchangedAccount_whenBalancePolledWithEtag_thenNotModifiedReturned() {
+    Account account = new Account();
+    account.setCurrency("DKK");
+
+    when(accountsService.getAccount(1)).thenReturn(Mono.just(account));
+
+    String etag = this.webClient.get().uri("/accounts/1/balance")
+        .exchange()
+        .expectStatus().isOk()
+        .expectHeader().valueEquals(HttpHeaders.ETAG, "\"" + account.getVersion() + "\"")
+        .returnResult(Account.class)
+        .getResponseHeaders().getETag();
+
+    this.webClient.get().uri("/accounts/1/balance")
+        .header(HttpHeaders.IF_NONE_MATCH, etag)
+        .exchange()
+        .expectStatus().isNotModified()
+        .expectBody().isEmpty();
+
+    account.setBalance(BigDecimal.ONE);
+
+    this.webClient.get().uri("/accounts/1/balance")
+        .header(HttpHeaders.IF_NONE_MATCH, etag)
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.balance").isEqualTo("1.00")
+        .jsonPath("$.version").isEqualTo(Long.toString(account.getVersion()));
+  }
+
+  @Test
+  public void givenSeenVersions_whenChangedBalancesRequested_thenChangedAccountsReturned() {
+    Account account = new Account();
+    account.setCurrency("DKK");
+
+    when(accountsService.changedAccounts(Map.of(1, 5L))).thenReturn(Flux.just(account));
+
+    this.webClient.post().uri("/accounts/balances")
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue("{\"1\":5}")
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.length()").isEqualTo(1)
+        .jsonPath("$[0].id").isEqualTo(account.getId());
+  }
+
   @Test
   public void givenNonExistentAccountId_whenDetailsRequested_thenResourceNotFoundReturned() {
     when(accountsService.getAccount(anyInt()))
-    .thenReturn(Mono.error(new InvalidAccountException()));
+    .thenReturn(Mono.error(InvalidAccountException.INSTANCE));
     
     this.webClient.get().uri("/accounts/1/balance")
         .exchange()
-        .expectStatus().is5xxServerError();
+        .expectStatus().isNotFound()
+        .expectBody()
+        .jsonPath("$.detail").isEqualTo(InvalidAccountException.INSTANCE.getMessage());
   }
 
   @Test
@@ -132,7 +206,7 @@ public class AccountsControllerTest {
     account.setCurrency("DKK");
     Transaction transaction = Transaction.builder()
         .amount(new BigDecimal(1.5))
-        .account(account)
+        .accountId(account.getId())
         .type(TransactionType.DEBIT)
         .build();
 
@@ -150,6 +224,30 @@ public class AccountsControllerTest {
         .transfer(1, 2, new BigDecimal(1.5));
   }
 
+  @Test
+  public void givenRetriedTransfer_whenSameIdempotencyKey_thenTransferredOnce() {
+    Account account = new Account();
+    account.setCurrency("DKK");
+    Transaction transaction = Transaction.builder()
+        .amount(new BigDecimal("2.50"))
+        .accountId(account.getId())
+        .type(TransactionType.DEBIT)
+        .build();
+
+    when(accountsService.transfer(anyInt(), anyInt(), any(BigDecimal.class))).thenReturn(Mono.just(transaction));
+
+    for (int i = 0; i < 2; i++) {
+      this.webClient.patch().uri("/accounts/1/transfer/2/2.50")
+          .header("Idempotency-Key", "retried-transfer")
+          .exchange()
+          .expectStatus().isOk()
+          .expectBody()
+          .jsonPath("$.id").isEqualTo(transaction.getId());
+    }
+
+    verify(accountsService, times(1)).transfer(1, 2, new BigDecimal("2.50"));
+  }
+
   @Test
   public void givenExistingTransactions_whenMiniList_thenListOfTransactionsReturned() {
 
@@ -166,4 +264,83 @@ public class AccountsControllerTest {
         .expectBody()
         .jsonPath("$.length()").isEqualTo(20);
   }
+
+  @Test
+  public void givenNdjsonTransfers_whenBatchTransfer_thenResultPerTransferStreamed() {
+    Transaction transaction = Transaction.builder()
+        .amount(new BigDecimal("1.50"))
+        .accountId(1)
+        .type(TransactionType.DEBIT)
+        .build();
+
+    when(accountsService.transferBatch(any(), eq(true))).thenReturn(Flux.just(
+        TransferResult.completed(0, transaction),
+        TransferResult.failed(1, new InvalidAccountException())));
+
+    var body = "{\"fromAccountId\":1,\"toAccountId\":2,\"amount\":\"1.50\"}\n" +
+        "{\"fromAccountId\":1,\"toAccountId\":3,\"amount\":\"2.00\"}\n";
+
+    String results = this.webClient.post().uri("/accounts/transfers/batch?atomic=true")
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .accept(MediaType.APPLICATION_NDJSON)
+        .bodyValue(body)
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(String.class)
+        .returnResult()
+        .getResponseBody();
+
+    String[] lines = results.split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(lines[0].contains("\"status\":\"COMPLETED\""));
+    assertTrue(lines[1].contains("\"status\":\"FAILED\""));
+  }
+
+  @Test
+  public void givenInsufficientFunds_whenTransferRequested_thenUnprocessableEntityReturned() {
+    when(accountsService.transfer(1, 2, BigDecimal.TEN))
+    .thenReturn(Mono.error(InsufficientFundsException.INSTANCE));
+
+    this.webClient.patch().uri("/accounts/1/transfer/2/10")
+        .exchange()
+        .expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY)
+        .expectBody()
+        .jsonPath("$.detail").isEqualTo(InsufficientFundsException.INSTANCE.getMessage());
+  }
+
+  @Test
+  public void givenExistingTransactions_whenStatementStreamed_thenTransactionPerLineWithCursor() {
+    Account account = new Account();
+    account.setCurrency("DKK");
+
+    Flux<Transaction> transactions = Flux.range(0, 3)
+        .map(i -> Transaction.builder()
+            .amount(BigDecimal.valueOf(i))
+            .accountId(account.getId())
+            .type(TransactionType.CREDIT)
+            .build());
+
+    when(accountsService.statement(1, null, 0)).thenReturn(transactions);
+
+    String statement = this.webClient.get().uri("/accounts/1/statements")
+        .accept(MediaType.APPLICATION_NDJSON)
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(String.class)
+        .returnResult()
+        .getResponseBody();
+
+    String[] lines = statement.split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].contains("\"cursor\":"));
+    assertTrue(lines[0].contains("\"transaction\":"));
+  }
+
+  @Test
+  public void givenMalformedCursor_whenStatementStreamed_thenBadRequestReturned() {
+    this.webClient.get().uri("/accounts/1/statements?after=nonsense")
+        .accept(MediaType.APPLICATION_NDJSON)
+        .exchange()
+        .expectStatus().isBadRequest();
+  }
 }
@@ -0,0 +1,72 @@
+package dk.souyave.payments.controller;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import dk.souyave.payments.domain.RateSheet;
+import dk.souyave.payments.service.FxRates;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@AutoConfigureWebTestClient
+public class FxRatesControllerTest {
+
+  @Autowired
+  private WebTestClient webClient;
+
+  @Autowired
+  private FxRates fxRates;
+
+  @AfterEach
+  public void cleanUp() {
+    fxRates.replace(new RateSheet("EUR", Map.of()));
+  }
+
+  @Test
+  public void givenRateSheet_whenRatesReplaced_thenNewRatesReturned() {
+    this.webClient.put().uri("/fx/rates")
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue("{\"base\":\"EUR\",\"rates\":{\"DKK\":7.4581,\"USD\":1.0842}}")
+        .exchange()
+        .expectStatus().isOk();
+
+    this.webClient.get().uri("/fx/rates")
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody()
+        .jsonPath("$.base").isEqualTo("EUR")
+        .jsonPath("$.rates.DKK").isEqualTo(7.4581);
+  }
+
+  @Test
+  public void givenNegativeRate_whenRatesReplaced_thenBadRequestAndOldRatesKept() {
+    fxRates.replace(new RateSheet("EUR", Map.of()));
+
+    this.webClient.put().uri("/fx/rates")
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue("{\"base\":\"EUR\",\"rates\":{\"DKK\":-1}}")
+        .exchange()
+        .expectStatus().isBadRequest();
+
+    this.webClient.get().uri("/fx/rates")
+        .exchange()
+        .expectBody()
+        .jsonPath("$.rates.DKK").doesNotExist();
+  }
+
+  @Test
+  public void givenMissingRate_whenRatesReplaced_thenBadRequest() {
+    this.webClient.put().uri("/fx/rates")
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue("{\"base\":\"EUR\",\"rates\":{\"DKK\":null}}")
+        .exchange()
+        .expectStatus().isBadRequest();
+  }
+}
@@ -0,0 +1,159 @@
+package dk.souyave.payments.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.rsocket.RSocketRequester;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.domain.TransferRequest;
+import dk.souyave.payments.domain.TransferResult;
+import dk.souyave.payments.domain.TransferStatus;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.exception.InvalidAmountException;
+import dk.souyave.payments.service.AccountsService;
+import io.rsocket.exceptions.ApplicationErrorException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+public class TransfersRSocketControllerTest {
+
+  @LocalServerPort
+  private int port;
+
+  @Autowired
+  private RSocketRequester.Builder requesterBuilder;
+
+  // stubbed per test, other calls go through to the real service
+  @SpyBean
+  private AccountsService accountsService;
+
+  private RSocketRequester requester;
+
+  @BeforeEach
+  public void connect() {
+    requester = requesterBuilder
+        .dataMimeType(MediaType.APPLICATION_CBOR)
+        .websocket(URI.create("ws://localhost:" + port + "/rsocket"));
+  }
+
+  @AfterEach
+  public void disconnect() {
+    requester.dispose();
+  }
+
+  @Test
+  public void givenTransfer_whenRequested_thenTransactionReturnedInCbor() {
+    Transaction transaction = Transaction.builder()
+        .accountId(1)
+        .amount(new BigDecimal("2.50"))
+        .balance(new BigDecimal("7.50"))
+        .type(TransactionType.DEBIT)
+        .build();
+    doReturn(Mono.just(transaction)).when(accountsService).transfer(1, 2, new BigDecimal("2.50"));
+
+    Transaction returned = requester.route("transfer")
+        .data(new TransferRequest(1, 2, new BigDecimal("2.50")))
+        .retrieveMono(Transaction.class)
+        .block();
+
+    assertEquals(transaction, returned);
+  }
+
+  @Test
+  public void givenRejectedTransfer_whenRequested_thenErrorWithRejection() {
+    doReturn(Mono.error(InsufficientFundsException.INSTANCE)).when(accountsService).transfer(1, 2, BigDecimal.TEN);
+
+    ApplicationErrorException error = assertThrows(ApplicationErrorException.class,
+        () -> requester.route("transfer")
+            .data(new TransferRequest(1, 2, BigDecimal.TEN))
+            .retrieveMono(Transaction.class)
+            .block());
+    assertEquals(InsufficientFundsException.INSTANCE.getMessage(), error.getMessage());
+  }
+
+  @Test
+  public void givenChannelOfTransfers_whenStreamed_thenOneResultPerTransfer() {
+    doAnswer(invocation -> Flux
+        .<TransferRequest>from(invocation.getArgument(0))
+        .index()
+        .map(indexed -> TransferResult.builder().index(indexed.getT1()).status(TransferStatus.COMPLETED).build()))
+        .when(accountsService).transferBatch(any(), eq(false));
+
+    List<TransferResult> results = requester.route("transfers")
+        .data(Flux.range(0, 1000).map(i -> new TransferRequest(1, 2, BigDecimal.ONE)))
+        .retrieveFlux(TransferResult.class)
+        .collectList()
+        .block();
+
+    assertEquals(1000, results.size());
+    assertEquals(999, results.get(999).getIndex());
+  }
+
+  @Test
+  public void givenBatch_whenStreamedAtomically_thenAtomicBatchRun() {
+    doAnswer(invocation -> Flux
+        .<TransferRequest>from(invocation.getArgument(0))
+        .map(transfer -> TransferResult.aborted(transfer.getFromAccountId())))
+        .when(accountsService).transferBatch(any(), eq(true));
+
+    List<TransferResult> results = requester.route("transfers.batch.atomic")
+        .data(List.of(new TransferRequest(1, 2, BigDecimal.ONE), new TransferRequest(3, 4, BigDecimal.ONE)))
+        .retrieveFlux(TransferResult.class)
+        .collectList()
+        .block();
+
+    assertEquals(List.of(TransferResult.aborted(1), TransferResult.aborted(3)), results);
+  }
+
+  @Test
+  public void givenNegativeAmount_whenTransferredOrStreamed_thenRejectedAndNoMoneyMoved() {
+    Account fromAccount = createAccount(), toAccount = createAccount();
+    TransferRequest reversed = new TransferRequest(fromAccount.getId(), toAccount.getId(), new BigDecimal("-5"));
+
+    ApplicationErrorException error = assertThrows(ApplicationErrorException.class,
+        () -> requester.route("transfer")
+            .data(reversed)
+            .retrieveMono(Transaction.class)
+            .block());
+    assertEquals(InvalidAmountException.INSTANCE.getMessage(), error.getMessage());
+
+    List<TransferResult> results = requester.route("transfers")
+        .data(Flux.just(reversed))
+        .retrieveFlux(TransferResult.class)
+        .collectList()
+        .block();
+    assertEquals(TransferStatus.FAILED, results.get(0).getStatus());
+    assertEquals(InvalidAmountException.INSTANCE.getMessage(), results.get(0).getError());
+
+    assertEquals(new BigDecimal("10.00"), fromAccount.getBalance());
+    assertEquals(new BigDecimal("10.00"), toAccount.getBalance());
+  }
+
+  private Account createAccount() {
+    Account account = new Account(Account.UNASSIGNED_ID);
+    account.setCurrency("DKK");
+    account.setBalance(BigDecimal.TEN);
+    return accountsService.createAccount(account).block();
+  }
+}
@@ -0,0 +1,85 @@
+package dk.souyave.payments.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class CrossRateTest {
+
+  @Test
+  public void givenRandomRatesAndAmounts_whenConverted_thenSameAsBigDecimalRoundedHalfUp() {
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      BigDecimal fromRate = BigDecimal.valueOf(random.nextInt(1, 10_000_000), random.nextInt(0, 7));
+      BigDecimal toRate = BigDecimal.valueOf(random.nextInt(1, 10_000_000), random.nextInt(0, 7));
+      int fromScale = random.nextInt(0, 4), toScale = random.nextInt(0, 4);
+      long minorAmount = random.nextLong(1, 1_000_000_000L);
+
+      BigDecimal expected = new BigDecimal(minorAmount).movePointLeft(fromScale)
+          .multiply(toRate)
+          .divide(fromRate, MathContext.DECIMAL128)
+          .setScale(toScale, RoundingMode.HALF_UP);
+      // 63 significant bits of rate resolve amounts to the minor unit up to about
+      // a trillion, not all the way up to the largest long
+      if (expected.unscaledValue().bitLength() > 40) {
+        continue;
+      }
+
+      assertEquals(expected.unscaledValue().longValueExact(),
+          CrossRate.of(fromRate, fromScale, toRate, toScale).convert(minorAmount),
+          minorAmount + " at " + toRate + " / " + fromRate);
+    }
+  }
+
+  @Test
+  public void givenAmountConvertingToExactlyHalf_whenConverted_thenRoundedUp() {
+    // 0.1 has no exact binary fraction
+    CrossRate rate = CrossRate.of(BigDecimal.TEN, 2, BigDecimal.ONE, 2);
+
+    assertEquals(1, rate.convert(5));
+    assertEquals(0, rate.convert(4));
+    assertEquals(100_001, rate.convert(1_000_005));
+  }
+
+  @Test
+  public void givenIdentity_whenConverted_thenUnchanged() {
+    for (long minorAmount : new long[] { 0, 1, 12_345, Long.MAX_VALUE }) {
+      assertEquals(minorAmount, CrossRate.IDENTITY.convert(minorAmount));
+    }
+  }
+
+  @Test
+  public void givenConvertedAmountTooLarge_whenConverted_thenArithmeticException() {
+    CrossRate rate = CrossRate.of(BigDecimal.ONE, 2, new BigDecimal("150"), 2);
+
+    assertThrows(ArithmeticException.class, () -> rate.convert(Long.MAX_VALUE / 100));
+  }
+
+  @Test
+  public void givenRateSheet_whenTableBuilt_thenCrossRatesBetweenEveryPair() {
+    RateTable table = RateTable.of(new RateSheet("EUR", Map.of(
+        "DKK", new BigDecimal("7.4581"),
+        "JPY", new BigDecimal("157.25"))));
+
+    // 10.00 EUR in DKK and 100.00 DKK in yen, which has no minor unit
+    assertEquals(7458, table.crossRate("EUR", "DKK").convert(1000));
+    assertEquals(2108, table.crossRate("DKK", "JPY").convert(10_000));
+    assertSame(CrossRate.IDENTITY, table.crossRate("DKK", "DKK"));
+    assertNull(table.crossRate("DKK", "USD"));
+  }
+
+  @Test
+  public void givenNonPositiveRate_whenTableBuilt_thenRejected() {
+    assertThrows(IllegalArgumentException.class,
+        () -> RateTable.of(new RateSheet("EUR", Map.of("DKK", BigDecimal.ZERO))));
+  }
+}
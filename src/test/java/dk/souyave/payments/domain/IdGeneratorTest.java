@@ -0,0 +1,72 @@
+package dk.souyave.payments.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IdGeneratorTest {
+
+  @Test
+  public void givenConcurrentThreads_whenIdsTaken_thenEveryIdUniqueAndPairsConsecutive() {
+    IdGenerator generator = new IdGenerator("test");
+    generator.configure(16, 0, 1, null, 1024);
+    Set<Long> ids = ConcurrentHashMap.newKeySet();
+
+    IntStream.range(0, 8).parallel().forEach(thread -> {
+      for (int i = 0; i < 10_000; i++) {
+        long first = generator.next(2);
+        assertTrue(ids.add(first));
+        assertTrue(ids.add(first + 1));
+      }
+    });
+
+    assertEquals(160_000, ids.size());
+  }
+
+  @Test
+  public void givenPartitionedNodes_whenIdsTaken_thenNodesNeverOverlap() {
+    IdGenerator first = new IdGenerator("test");
+    IdGenerator second = new IdGenerator("test");
+    first.configure(8, 0, 2, null, 1024);
+    second.configure(8, 1, 2, null, 1024);
+
+    // node 0 takes the even blocks of 8 ids and node 1 the odd ones
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(0, (first.next() - 1) / 8 % 2);
+      assertEquals(1, (second.next() - 1) / 8 % 2);
+    }
+  }
+
+  @Test
+  public void givenHighWaterMark_whenRestarted_thenIdsCarryOnAfterTheLease(@TempDir Path directory) {
+    IdGenerator generator = new IdGenerator("test");
+    generator.configure(8, 0, 1, directory, 64);
+    long last = LongStream.range(0, 100).map(i -> generator.next()).max().getAsLong();
+
+    IdGenerator restarted = new IdGenerator("test");
+    restarted.configure(8, 0, 1, directory, 64);
+
+    // the second lease covered up to id 128
+    assertEquals(129, restarted.next());
+    assertTrue(last < 129);
+  }
+
+  @Test
+  public void givenRecoveredIds_whenAdvancedPast_thenNextIdAboveThem() {
+    IdGenerator generator = new IdGenerator("test");
+    generator.configure(64, 0, 1, null, 1024);
+    generator.next();
+
+    generator.advancePast(1_000);
+
+    assertTrue(generator.next() > 1_000);
+  }
+}
@@ -0,0 +1,222 @@
+package dk.souyave.payments.journal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.TransactionType;
+
+public class TransferJournalTest {
+
+  @TempDir
+  private Path directory;
+
+  @Test
+  public void givenJournaledEvents_whenReopened_thenEventsReplayedInOrder() throws IOException {
+    LocalDateTime date = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+
+    for (FsyncPolicy fsync : FsyncPolicy.values()) {
+      TransferJournal journal = journal(fsync);
+      journal.open(new RecordingListener());
+
+      Account fromAccount = new Account(1), toAccount = new Account(2);
+      fromAccount.setCurrency("DKK");
+      fromAccount.setBalance(BigDecimal.TEN);
+      toAccount.setCurrency("DKK");
+
+      journal.accountCreated(fromAccount);
+      journal.accountCreated(toAccount);
+      journal.transfer(fromAccount, toAccount, 150, 7, EpochMicros.of(date));
+      journal.transfer(fromAccount, toAccount, 150, 22, 9, EpochMicros.of(date));
+      journal.accountDeleted(2);
+      journal.sync().block();
+      journal.destroy();
+
+      assertEquals(List.of(
+          "created 1 DKK 1000 ACTIVE",
+          "created 2 DKK 0 ACTIVE",
+          "transfer 1 2 150 150 7 " + date,
+          "transfer 1 2 150 22 9 " + date,
+          "deleted 2"), reopen().events);
+
+      for (Path file : files("")) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Test
+  public void givenTornRecordAtEnd_whenReopened_thenTailIgnored() throws IOException {
+    TransferJournal journal = journal(FsyncPolicy.PER_WRITE);
+    journal.open(new RecordingListener());
+    journal.accountDeleted(1);
+    journal.destroy();
+
+    Files.write(files("journal-").get(0), new byte[] { 0, 0, 0, 20, 1, 2 }, StandardOpenOption.APPEND);
+
+    TransferJournal reopened = journal(FsyncPolicy.PER_WRITE);
+    reopened.open(new RecordingListener());
+    reopened.accountDeleted(2);
+    reopened.destroy();
+
+    assertEquals(List.of("deleted 1", "deleted 2"), reopen().events);
+  }
+
+  @Test
+  public void givenSnapshotTaken_whenReopened_thenSnapshotLoadedAndOnlyTailReplayed() throws IOException {
+    LocalDateTime date = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+
+    TransferJournal journal = journal(FsyncPolicy.TIME);
+    journal.open(new RecordingListener());
+
+    Account fromAccount = new Account(1), toAccount = new Account(2);
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+
+    journal.accountCreated(fromAccount);
+    journal.accountCreated(toAccount);
+    journal.transfer(fromAccount, toAccount, 100, 1, EpochMicros.of(date));
+    journal.transfer(fromAccount, toAccount, 200, 3, EpochMicros.of(date));
+    journal.transfer(toAccount, fromAccount, 50, 5, EpochMicros.of(date));
+    journal.sync().block();
+
+    awaitClosedSegment(journal);
+    assertEquals(0, journal.snapshot());
+
+    // appended after the snapshot, so only this is replayed from the journal
+    journal.transfer(fromAccount, toAccount, 1, 7, EpochMicros.of(date));
+    journal.sync().block();
+    journal.destroy();
+
+    assertEquals(1, files("snapshot-").size());
+    assertTrue(files("journal-").stream().noneMatch(file -> file.endsWith("journal-00000000000000000000.log")));
+
+    long micros = EpochMicros.of(date);
+    assertEquals(List.of(
+        "created 1 DKK 750 ACTIVE",
+        "transaction 3 1 DEBIT 200 700 " + micros,
+        "transaction 6 1 CREDIT 50 750 " + micros,
+        "created 2 DKK 250 ACTIVE",
+        "transaction 4 2 CREDIT 200 300 " + micros,
+        "transaction 5 2 DEBIT 50 250 " + micros,
+        "last ids 2 6",
+        "transfer 1 2 1 1 7 " + date), reopen().events);
+  }
+
+  @Test
+  public void givenArchivedHistory_whenSnapshotTaken_thenOnlyArchivedSegmentsFoldedWithoutTransactions()
+      throws IOException {
+    LocalDateTime date = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+    long micros = EpochMicros.of(date);
+    AtomicLong archivedBefore = new AtomicLong(micros);
+
+    TransferJournal journal = journal(FsyncPolicy.TIME);
+    journal.open(new RecordingListener(), archivedBefore::get);
+
+    Account fromAccount = new Account(1), toAccount = new Account(2);
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+
+    journal.accountCreated(fromAccount);
+    journal.accountCreated(toAccount);
+    journal.transfer(fromAccount, toAccount, 100, 1, micros);
+    journal.sync().block();
+
+    // the transfer is not archived yet, so its segment is kept for replay
+    awaitClosedSegment(journal);
+    assertEquals(-1, journal.snapshot());
+    assertTrue(files("journal-").get(0).endsWith("journal-00000000000000000000.log"));
+
+    archivedBefore.set(micros + 1);
+    assertTrue(journal.snapshot() >= 0);
+    journal.destroy();
+
+    assertEquals(List.of(
+        "created 1 DKK 900 ACTIVE",
+        "created 2 DKK 100 ACTIVE",
+        "last ids 2 2"), reopen().events);
+  }
+
+  private void awaitClosedSegment(TransferJournal journal) throws IOException {
+    journal.requestRoll();
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (journal.closedSegments().isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+  }
+
+  private RecordingListener reopen() throws IOException {
+    RecordingListener listener = new RecordingListener();
+    TransferJournal journal = journal(FsyncPolicy.PER_WRITE);
+    journal.open(listener);
+    journal.destroy();
+    return listener;
+  }
+
+  private List<Path> files(String prefix) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().startsWith(prefix)).sorted().toList();
+    }
+  }
+
+  private TransferJournal journal(FsyncPolicy fsync) {
+    return new TransferJournal(true, directory, fsync, Duration.ofMillis(1), 4, DataSize.ofMegabytes(1),
+        Duration.ofHours(1), 2);
+  }
+
+  private static class RecordingListener implements JournalListener {
+
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public void accountCreated(int accountId, String currency, long minorBalance, AccountStatus status) {
+      events.add("created " + accountId + " " + currency + " " + minorBalance + " " + status);
+    }
+
+    @Override
+    public void accountDeleted(int accountId) {
+      events.add("deleted " + accountId);
+    }
+
+    @Override
+    public void transfer(int fromAccountId, int toAccountId, long minorAmount, long creditMinorAmount,
+        long debitTransactionId, long epochMicros) {
+      events.add("transfer " + fromAccountId + " " + toAccountId + " " + minorAmount + " " + creditMinorAmount
+          + " " + debitTransactionId
+          + " " + EpochMicros.toLocalDateTime(epochMicros));
+    }
+
+    @Override
+    public void transaction(long transactionId, int accountId, TransactionType type, long minorAmount,
+        long minorBalance, long epochMicros) {
+      events.add("transaction " + transactionId + " " + accountId + " " + type + " " + minorAmount + " "
+          + minorBalance + " " + epochMicros);
+    }
+
+    @Override
+    public void lastIds(int lastAccountId, long lastTransactionId) {
+      events.add("last ids " + lastAccountId + " " + lastTransactionId);
+    }
+  }
+}
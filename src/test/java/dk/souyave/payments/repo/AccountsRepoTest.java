@@ -1,8 +1,13 @@
 package dk.souyave.payments.repo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -44,7 +49,7 @@ public class AccountsRepoTest {
     newAccount.setCurrency("DKK");
 
     accountsRepo.createAccount(newAccount);
-    accountsRepo.deleteAccount(1);
+    accountsRepo.deleteAccount(1).block();
     Account account = accountsRepo.getAccount(1).block();
 
     assertNotNull(account);
@@ -55,8 +60,25 @@ public class AccountsRepoTest {
   @Test
   public void givenNonExistingAccount_whenRequestAccountDelete_thenNotFound() {
     assertThrows(InvalidAccountException.class, () -> {
-      accountsRepo.deleteAccount(1);
+      accountsRepo.deleteAccount(1).block();
     });
   }
 
+  @Test
+  public void givenStripedAccountId_whenRequestAccountCreation_thenCreditsSummedIntoBalance() {
+    AccountsRepo stripedRepo = new InMemoryAccountsRepo(Set.of(2));
+    Account plainAccount = new Account(1), hotAccount = new Account(2);
+    hotAccount.setCurrency("DKK");
+    hotAccount.setBalance(new BigDecimal("10.00"));
+
+    stripedRepo.createAccount(plainAccount);
+    stripedRepo.createAccount(hotAccount);
+    hotAccount.credit(250);
+    hotAccount.debit(100);
+
+    assertFalse(plainAccount.isStriped());
+    assertTrue(hotAccount.isStriped());
+    assertEquals(new BigDecimal("11.50"), stripedRepo.getAccount(2).block().getBalance());
+  }
+
 }
@@ -0,0 +1,53 @@
+package dk.souyave.payments.repo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class IntKeyedStoreTest {
+
+  private final IntKeyedStore<String> store = new IntKeyedStore<>();
+
+  @Test
+  public void givenKeysAcrossSegments_whenPut_thenEachFoundUnderItsKey() {
+    IntStream.of(0, 1, 4095, 4096, 1_000_000).forEach(key -> store.put(key, "v" + key));
+
+    assertEquals("v0", store.get(0));
+    assertEquals("v4096", store.get(4096));
+    assertEquals("v1000000", store.get(1_000_000));
+    assertNull(store.get(2));
+    assertNull(store.get(Integer.MAX_VALUE));
+    assertNull(store.get(-1));
+    assertEquals(5, store.size());
+  }
+
+  @Test
+  public void givenExistingValue_whenComputeIfAbsent_thenExistingKeptAndFactoryNotCalled() {
+    AtomicInteger calls = new AtomicInteger();
+    String first = store.computeIfAbsent(7, key -> "v" + calls.incrementAndGet());
+    String second = store.computeIfAbsent(7, key -> "v" + calls.incrementAndGet());
+
+    assertSame(first, second);
+    assertEquals(1, calls.get());
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  public void givenManyThreads_whenPuttingDistinctKeys_thenNoneLost() {
+    IntStream.range(0, 100_000).parallel().forEach(key -> store.put(key, "v" + key));
+
+    assertEquals(100_000, store.size());
+    IntStream.range(0, 100_000).forEach(key -> assertEquals("v" + key, store.get(key)));
+  }
+
+  @Test
+  public void givenNegativeKey_whenPut_thenRejected() {
+    assertThrows(IllegalArgumentException.class, () -> store.put(-1, "v"));
+  }
+}
@@ -4,14 +4,23 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.EpochMicros;
+import dk.souyave.payments.domain.StatementCursor;
 import dk.souyave.payments.domain.Transaction;
 import dk.souyave.payments.domain.TransactionType;
 
@@ -23,7 +32,8 @@ public class TransactionRepoTest {
 
   @BeforeEach
   public void init() {
-    Account.ID_GENERATOR.set(1);
+    transactionRepo.clearAll();
+    Account.ID_GENERATOR.reset(1);
   }
 
   @Test
@@ -32,11 +42,11 @@ public class TransactionRepoTest {
     Account fromAccount = new Account(), toAccount = new Account();
     fromAccount.setCurrency("DKK");
 
-    transactionRepo.save(Transaction.builder().account(fromAccount).amount(BigDecimal.TEN)
+    transactionRepo.save(Transaction.builder().accountId(fromAccount.getId()).amount(BigDecimal.TEN)
         .type(TransactionType.CREDIT).build());
-    transactionRepo.save(Transaction.builder().account(fromAccount).amount(BigDecimal.ONE)
+    transactionRepo.save(Transaction.builder().accountId(fromAccount.getId()).amount(BigDecimal.ONE)
         .type(TransactionType.DEBIT).build());
-    transactionRepo.save(Transaction.builder().account(toAccount).amount(BigDecimal.ONE)
+    transactionRepo.save(Transaction.builder().accountId(toAccount.getId()).amount(BigDecimal.ONE)
         .type(TransactionType.DEBIT).build());
 
     List<Transaction> transactions = transactionRepo.findAllByAccountIdOrderByDate(1, 2).collectList().block();
@@ -44,4 +54,143 @@ public class TransactionRepoTest {
     assertTrue(transactions.get(0).getAmount().equals(BigDecimal.ONE));
     assertTrue(transactions.get(1).getAmount().equals(BigDecimal.TEN));
   }
+
+  @Test
+  public void givenManyTransactionsForAccount_whenRequestStatement_thenOnlyMostRecentForAccountSupplied() {
+
+    Account fromAccount = new Account(), toAccount = new Account();
+
+    IntStream.range(0, 50).forEach(i -> {
+      transactionRepo.save(Transaction.builder().accountId(fromAccount.getId()).amount(BigDecimal.valueOf(i))
+          .type(TransactionType.DEBIT).build());
+      transactionRepo.save(Transaction.builder().accountId(toAccount.getId()).amount(BigDecimal.valueOf(i))
+          .type(TransactionType.CREDIT).build());
+    });
+
+    List<Transaction> transactions = transactionRepo.findAllByAccountIdOrderByDate(1, 20).collectList().block();
+    assertEquals(20, transactions.size());
+    assertTrue(transactions.stream().allMatch(t -> t.getAccountId() == fromAccount.getId()));
+    assertEquals(BigDecimal.valueOf(49), transactions.get(0).getAmount());
+    assertEquals(BigDecimal.valueOf(30), transactions.get(19).getAmount());
+  }
+
+  @Test
+  public void givenManyTransactionsForAccount_whenPagingWithCursor_thenWholeHistorySuppliedOnce() {
+
+    Account account = new Account(), otherAccount = new Account();
+
+    IntStream.range(0, 50).forEach(i -> {
+      transactionRepo.save(Transaction.builder().accountId(account.getId()).amount(BigDecimal.valueOf(i))
+          .type(TransactionType.DEBIT).build());
+      transactionRepo.save(Transaction.builder().accountId(otherAccount.getId()).amount(BigDecimal.valueOf(i))
+          .type(TransactionType.CREDIT).build());
+    });
+
+    List<Transaction> firstPage = transactionRepo.findAllByAccountIdOrderByDateAfter(1, null)
+        .take(30).collectList().block();
+    StatementCursor cursor = StatementCursor.decode(StatementCursor.of(firstPage.get(29)).encode());
+    List<Transaction> secondPage = transactionRepo.findAllByAccountIdOrderByDateAfter(1, cursor)
+        .collectList().block();
+
+    assertEquals(30, firstPage.size());
+    assertEquals(20, secondPage.size());
+    assertEquals(BigDecimal.valueOf(49), firstPage.get(0).getAmount());
+    assertEquals(BigDecimal.valueOf(19), secondPage.get(0).getAmount());
+    assertEquals(BigDecimal.valueOf(0), secondPage.get(19).getAmount());
+    assertTrue(secondPage.stream().allMatch(t -> t.getAccountId() == account.getId()));
+  }
+
+  @Test
+  public void givenRetention_whenHotTierFills_thenHistoryArchivedAndMergedAcrossTiers(@TempDir Path directory)
+      throws Exception {
+
+    InMemoryTransactionRepo tieredRepo = new InMemoryTransactionRepo(true, directory, 16, Duration.ofHours(1), false);
+    tieredRepo.afterPropertiesSet();
+    Account account = new Account(), otherAccount = new Account();
+
+    IntStream.range(0, 50).forEach(i -> {
+      tieredRepo.save(Transaction.builder().accountId(account.getId()).amount(BigDecimal.valueOf(i))
+          .balance(BigDecimal.valueOf(-i)).type(TransactionType.DEBIT).build());
+      tieredRepo.save(Transaction.builder().accountId(otherAccount.getId()).amount(BigDecimal.valueOf(i))
+          .type(TransactionType.CREDIT).build());
+    });
+    tieredRepo.awaitArchival();
+
+    List<Transaction> mini = tieredRepo.findAllByAccountIdOrderByDate(1, 20).collectList().block();
+    List<Transaction> firstPage = tieredRepo.findAllByAccountIdOrderByDateAfter(1, null)
+        .take(30).collectList().block();
+    List<Transaction> secondPage = tieredRepo.findAllByAccountIdOrderByDateAfter(1,
+        StatementCursor.of(firstPage.get(29))).collectList().block();
+
+    try (Stream<Path> segments = Files.list(directory)) {
+      assertEquals(6, segments.filter(file -> file.toString().endsWith(".seg")).count());
+    }
+    assertEquals(100, tieredRepo.count());
+    // segments are not kept across a restart without the journal
+    assertEquals(Long.MIN_VALUE, tieredRepo.archivedBefore());
+    assertEquals(20, mini.size());
+    assertEquals(BigDecimal.valueOf(49), mini.get(0).getAmount());
+    assertEquals(BigDecimal.valueOf(30), mini.get(19).getAmount());
+    assertEquals(20, secondPage.size());
+    assertEquals(BigDecimal.valueOf(19), secondPage.get(0).getAmount());
+    assertEquals(BigDecimal.valueOf(0), secondPage.get(19).getAmount());
+    assertEquals(BigDecimal.valueOf(-19), secondPage.get(0).getBalance());
+    assertTrue(secondPage.stream().allMatch(t -> t.getAccountId() == account.getId()
+        && t.getType() == TransactionType.DEBIT));
+    tieredRepo.destroy();
+  }
+
+  @Test
+  public void givenArchivedSegments_whenReopenedWithJournal_thenHistoryKeptAndReplayedTransactionsNotDuplicated(
+      @TempDir Path directory) throws Exception {
+
+    InMemoryTransactionRepo tieredRepo = new InMemoryTransactionRepo(true, directory, 8, Duration.ofHours(1), true);
+    tieredRepo.afterPropertiesSet();
+    List<Transaction> saved = IntStream.range(0, 20)
+        .mapToObj(i -> Transaction.builder().accountId(1).amount(BigDecimal.valueOf(i))
+            .type(TransactionType.CREDIT).build())
+        .toList();
+    saved.forEach(tieredRepo::save);
+    tieredRepo.awaitArchival();
+    // the last 4 are still in the hot tier
+    long archivedBefore = tieredRepo.archivedBefore();
+    assertTrue(archivedBefore >= EpochMicros.of(saved.get(15).getDate()));
+    assertTrue(archivedBefore <= EpochMicros.of(saved.get(16).getDate()));
+    tieredRepo.destroy();
+
+    InMemoryTransactionRepo reopenedRepo = new InMemoryTransactionRepo(true, directory, 8, Duration.ofHours(1), true);
+    reopenedRepo.afterPropertiesSet();
+    // the journal replays the most recent transactions again on startup
+    saved.subList(15, 20).forEach(reopenedRepo::save);
+
+    List<Transaction> history = reopenedRepo.findAllByAccountIdOrderByDateAfter(1, null).collectList().block();
+    assertEquals(20, history.size());
+    assertEquals(BigDecimal.valueOf(19), history.get(0).getAmount());
+    assertEquals(BigDecimal.valueOf(0), history.get(19).getAmount());
+    reopenedRepo.destroy();
+  }
+
+  @Test
+  public void givenArchivedRunsSpanningBlocks_whenPagingWithCursor_thenWholeHistorySuppliedOnceInOrder(
+      @TempDir Path directory) throws Exception {
+
+    InMemoryTransactionRepo tieredRepo = new InMemoryTransactionRepo(true, directory, 500, Duration.ofHours(1), false);
+    tieredRepo.afterPropertiesSet();
+    IntStream.range(0, 700).forEach(i -> tieredRepo.save(Transaction.builder().accountId(1)
+        .amount(BigDecimal.valueOf(i)).type(TransactionType.CREDIT).build()));
+    tieredRepo.awaitArchival();
+
+    // pages of 30 end part way into the blocks of the archived run
+    List<BigDecimal> amounts = new ArrayList<>();
+    StatementCursor cursor = null;
+    List<Transaction> page;
+    do {
+      page = tieredRepo.findAllByAccountIdOrderByDateAfter(1, cursor).take(30).collectList().block();
+      page.forEach(transaction -> amounts.add(transaction.getAmount()));
+      cursor = page.isEmpty() ? null : StatementCursor.of(page.get(page.size() - 1));
+    } while (!page.isEmpty());
+
+    assertEquals(IntStream.range(0, 700).map(i -> 699 - i).mapToObj(BigDecimal::valueOf).toList(), amounts);
+    tieredRepo.destroy();
+  }
 }
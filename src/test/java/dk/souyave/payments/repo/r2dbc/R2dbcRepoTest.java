@@ -0,0 +1,133 @@
+package dk.souyave.payments.repo.r2dbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.StatementCursor;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.exception.InvalidAccountException;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import dk.souyave.payments.service.AccountsService;
+
+@SpringBootTest(properties = "payments.repo.backend=r2dbc")
+public class R2dbcRepoTest {
+
+  @Autowired
+  private AccountsRepo accountsRepo;
+
+  @Autowired
+  private TransactionRepo transactionRepo;
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @BeforeEach
+  public void init() {
+    accountsRepo.clearAll();
+    transactionRepo.clearAll();
+  }
+
+  @Test
+  public void givenR2dbcBackend_whenRequestAccountCreation_thenStoredInDatabase() {
+    assertTrue(accountsRepo instanceof R2dbcAccountsRepo);
+
+    Account account = createAccount("DKK", "100.50");
+    Account stored = accountsRepo.getAccount(account.getId()).block();
+
+    assertEquals("DKK", stored.getCurrency());
+    assertEquals(new BigDecimal("100.50"), stored.getBalance());
+    assertEquals(AccountStatus.ACTIVE, stored.getStatus());
+    assertEquals(1, accountsRepo.count());
+  }
+
+  @Test
+  public void givenExistingAccount_whenRequestAccountDelete_thenStatusChanged() {
+    Account account = createAccount("DKK", "0");
+
+    accountsRepo.deleteAccount(account.getId()).block();
+
+    assertEquals(AccountStatus.DELETED, accountsRepo.getAccount(account.getId()).block().getStatus());
+    assertThrows(InvalidAccountException.class, () -> accountsRepo.deleteAccount(99).block());
+    assertThrows(InvalidAccountException.class, () -> accountsRepo.getAccount(99).block());
+  }
+
+  @Test
+  public void givenSufficientFunds_whenRequestTransfer_thenBalancesAndTransactionsWrittenTogether() {
+    Account fromAccount = createAccount("DKK", "100.00");
+    Account toAccount = createAccount("DKK", "5.00");
+
+    Transaction debit = accountsService.transfer(fromAccount.getId(), toAccount.getId(), new BigDecimal("30.25"))
+        .block();
+
+    assertEquals(new BigDecimal("69.75"), debit.getBalance());
+    assertEquals(new BigDecimal("69.75"), accountsRepo.getAccount(fromAccount.getId()).block().getBalance());
+    assertEquals(new BigDecimal("35.25"), accountsRepo.getAccount(toAccount.getId()).block().getBalance());
+
+    List<Transaction> credits = transactionRepo.findAllByAccountIdOrderByDate(toAccount.getId(), 20)
+        .collectList().block();
+    assertEquals(1, credits.size());
+    assertEquals(debit.getId() + 1, credits.get(0).getId());
+    assertEquals(TransactionType.CREDIT, credits.get(0).getType());
+    assertEquals(new BigDecimal("35.25"), credits.get(0).getBalance());
+    assertEquals(2, transactionRepo.count());
+  }
+
+  @Test
+  public void givenInsufficientFunds_whenRequestTransfer_thenNothingWritten() {
+    Account fromAccount = createAccount("DKK", "10.00");
+    Account toAccount = createAccount("DKK", "0");
+
+    assertThrows(InsufficientFundsException.class,
+        () -> accountsService.transfer(fromAccount.getId(), toAccount.getId(), new BigDecimal("10.01")).block());
+    // the 'to' account is credited first here, so the credit has to roll back
+    assertThrows(InsufficientFundsException.class,
+        () -> accountsService.transfer(toAccount.getId(), fromAccount.getId(), BigDecimal.ONE).block());
+
+    assertEquals(new BigDecimal("10.00"), accountsRepo.getAccount(fromAccount.getId()).block().getBalance());
+    assertEquals(new BigDecimal("0.00"), accountsRepo.getAccount(toAccount.getId()).block().getBalance());
+    assertEquals(0, transactionRepo.findAllByAccountIdOrderByDate(fromAccount.getId(), 20).count().block());
+  }
+
+  @Test
+  public void givenManyTransfers_whenPagingWithCursor_thenWholeHistorySuppliedOnceMostRecentFirst() {
+    Account fromAccount = createAccount("DKK", "100.00");
+    Account toAccount = createAccount("DKK", "0");
+    for (int i = 1; i <= 25; i++) {
+      accountsService.transfer(fromAccount.getId(), toAccount.getId(), BigDecimal.valueOf(i, 2)).block();
+    }
+
+    List<Transaction> firstPage = transactionRepo.findAllByAccountIdOrderByDateAfter(fromAccount.getId(), null)
+        .take(10).collectList().block();
+    List<Transaction> secondPage = transactionRepo
+        .findAllByAccountIdOrderByDateAfter(fromAccount.getId(), StatementCursor.of(firstPage.get(9)))
+        .collectList().block();
+
+    assertEquals(10, firstPage.size());
+    assertEquals(15, secondPage.size());
+    assertEquals(BigDecimal.valueOf(25, 2), firstPage.get(0).getAmount());
+    assertEquals(BigDecimal.valueOf(15, 2), secondPage.get(0).getAmount());
+    assertEquals(BigDecimal.valueOf(1, 2), secondPage.get(14).getAmount());
+    assertTrue(secondPage.stream().allMatch(t -> t.getType() == TransactionType.DEBIT));
+  }
+
+  private Account createAccount(String currency, String balance) {
+    Account account = new Account();
+    account.setCurrency(currency);
+    account.setBalance(new BigDecimal(balance));
+    return accountsService.createAccount(account).block();
+  }
+}
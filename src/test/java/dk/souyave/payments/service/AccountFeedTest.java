@@ -0,0 +1,70 @@
+package dk.souyave.payments.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+
+import dk.souyave.payments.domain.AccountEvent;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+
+public class AccountFeedTest {
+
+  private final AccountFeed accountFeed = new AccountFeed(4);
+
+  @Test
+  public void givenSubscribers_whenEventPublished_thenOnlyWatchersOfAccountReceiveIt() {
+    List<AccountEvent> first = new CopyOnWriteArrayList<>(), second = new CopyOnWriteArrayList<>();
+    Disposable firstWatcher = accountFeed.subscribe(1).subscribe(first::add);
+    Disposable secondWatcher = accountFeed.subscribe(2).subscribe(second::add);
+
+    accountFeed.publish(event(1));
+    accountFeed.publish(event(1));
+    accountFeed.publish(event(3));
+
+    assertEquals(2, first.size());
+    assertTrue(second.isEmpty());
+
+    firstWatcher.dispose();
+    secondWatcher.dispose();
+    assertEquals(0, accountFeed.subscribers(1));
+  }
+
+  @Test
+  public void givenSlowSubscriber_whenBufferOverflows_thenOnlySlowSubscriberDropped() {
+    List<AccountEvent> fast = new CopyOnWriteArrayList<>();
+
+    // never requests anything
+    accountFeed.subscribe(1).subscribe(new BaseSubscriber<>() {
+      @Override
+      protected void hookOnSubscribe(Subscription subscription) {
+      }
+    });
+    Disposable fastWatcher = accountFeed.subscribe(1).subscribe(fast::add);
+
+    for (int i = 0; i < 10; i++) {
+      accountFeed.publish(event(1));
+    }
+
+    assertEquals(10, fast.size());
+    assertEquals(1, accountFeed.subscribers(1));
+    fastWatcher.dispose();
+  }
+
+  private static AccountEvent event(int accountId) {
+    return AccountEvent.of(Transaction.builder()
+        .accountId(accountId)
+        .amount(BigDecimal.ONE)
+        .balance(BigDecimal.TEN)
+        .type(TransactionType.CREDIT)
+        .build());
+  }
+}
@@ -2,10 +2,18 @@ package dk.souyave.payments.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,11 +22,20 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 
 import dk.souyave.payments.domain.Account;
 import dk.souyave.payments.domain.AccountStatus;
+import dk.souyave.payments.domain.RateSheet;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.domain.TransferRequest;
+import dk.souyave.payments.domain.TransferResult;
+import dk.souyave.payments.domain.TransferStatus;
 import dk.souyave.payments.exception.InsufficientFundsException;
 import dk.souyave.payments.exception.InvalidAccountException;
+import dk.souyave.payments.exception.InvalidAmountException;
 import dk.souyave.payments.exception.UnmatchedCurrenciesException;
 import dk.souyave.payments.repo.AccountsRepo;
-import dk.souyave.payments.repo.TransactionRepo;
+import dk.souyave.payments.repo.InProcessTransactionRepo;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @SpringBootTest
@@ -27,11 +44,17 @@ public class AccountsServiceTest {
   @Autowired
   private AccountsService accountsService;
 
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private FxRates fxRates;
+
   @MockBean
   private AccountsRepo accountsRepo;
 
   @MockBean
-  private TransactionRepo transactionRepo;
+  private InProcessTransactionRepo transactionRepo;
 
   @Test
   public void givenExistingAccounts_whenRequestTransfer_thenAccountBalancesAdjusted() {
@@ -43,7 +66,7 @@ public class AccountsServiceTest {
     when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
     when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
 
-    accountsService.transfer(1, 2, new BigDecimal(1.23)).block();
+    accountsService.transfer(1, 2, new BigDecimal("1.23")).block();
 
     assertEquals(new BigDecimal(8.77).setScale(2, RoundingMode.HALF_UP),
         fromAccount.getBalance().setScale(2, RoundingMode.HALF_UP));
@@ -51,6 +74,31 @@ public class AccountsServiceTest {
         toAccount.getBalance().setScale(2, RoundingMode.HALF_UP));
   }
 
+  @Test
+  public void givenPolledVersions_whenTransferred_thenOnlyChangedAccountsReturned() {
+    Account fromAccount = new Account(), toAccount = new Account(), idleAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+
+    when(accountsRepo.getAccount(fromAccount.getId())).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(toAccount.getId())).thenReturn(Mono.just(toAccount));
+    when(accountsRepo.getAccount(idleAccount.getId())).thenReturn(Mono.just(idleAccount));
+    when(accountsRepo.getAccount(-1)).thenReturn(Mono.error(InvalidAccountException.INSTANCE));
+
+    Map<Integer, Long> seen = new LinkedHashMap<>();
+    for (Account account : List.of(fromAccount, toAccount, idleAccount)) {
+      seen.put(account.getId(), account.getVersion());
+    }
+    seen.put(-1, 0L);
+
+    accountsService.transfer(fromAccount.getId(), toAccount.getId(), BigDecimal.ONE).block();
+
+    assertTrue(fromAccount.getVersion() > seen.get(fromAccount.getId()));
+    assertTrue(toAccount.getVersion() > seen.get(toAccount.getId()));
+    assertEquals(List.of(fromAccount, toAccount), accountsService.changedAccounts(seen).collectList().block());
+  }
+
   @Test
   public void givenExistingAccountsWithDifferentCurrencies_whenRequestTransfer_thenUnmatchedCurrenciesError() {
     Account fromAccount = new Account(), toAccount = new Account();
@@ -62,10 +110,63 @@ public class AccountsServiceTest {
     when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
 
     assertThrows(UnmatchedCurrenciesException.class, () -> {
-      accountsService.transfer(1, 2, new BigDecimal(1.23)).block();
+      accountsService.transfer(1, 2, new BigDecimal("1.23")).block();
     });
   }
 
+  @Test
+  public void givenExchangeRates_whenTransferBetweenCurrencies_thenCreditConverted() {
+    Account fromAccount = new Account(), toAccount = new Account();
+    fromAccount.setCurrency("EUR");
+    fromAccount.setBalance(new BigDecimal("100"));
+    toAccount.setCurrency("JPY");
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+
+    fxRates.replace(new RateSheet("EUR", Map.of("JPY", new BigDecimal("157.25"))));
+    try {
+      Transaction debit = accountsService.transfer(1, 2, new BigDecimal("10.01")).block();
+
+      assertEquals(new BigDecimal("10.01"), debit.getAmount());
+      assertEquals(new BigDecimal("89.99"), fromAccount.getBalance());
+      // 1574.0725 yen, which has no minor unit
+      assertEquals(new BigDecimal("1574"), toAccount.getBalance());
+    } finally {
+      fxRates.replace(new RateSheet("EUR", Map.of()));
+    }
+  }
+
+  @Test
+  public void givenAmountConvertingToNothingOrOverflowing_whenTransferBetweenCurrencies_thenInvalidAmount() {
+    Account fromAccount = new Account(), toAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("JPY");
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+
+    fxRates.replace(new RateSheet("EUR", Map.of("DKK", new BigDecimal("7.4581"), "JPY", new BigDecimal("157.25"))));
+    try {
+      // 0.21 yen, which rounds to nothing
+      assertThrows(InvalidAmountException.class, () -> {
+        accountsService.transfer(1, 2, new BigDecimal("0.01")).block();
+      });
+
+      // 10^20 minor units of the krone, beyond a long
+      fxRates.replace(new RateSheet("EUR", Map.of("DKK", new BigDecimal("1000000"), "JPY", new BigDecimal("0.0001"))));
+      assertThrows(InvalidAmountException.class, () -> {
+        accountsService.transfer(2, 1, new BigDecimal("100000000")).block();
+      });
+
+      assertEquals(new BigDecimal("10.00"), fromAccount.getBalance());
+      assertEquals(BigDecimal.ZERO, toAccount.getBalance());
+    } finally {
+      fxRates.replace(new RateSheet("EUR", Map.of()));
+    }
+  }
+
   @Test
   public void givenNonExistingAccount_whenRequestTransfer_thenInvalidAccountError() {
 
@@ -103,4 +204,182 @@ public class AccountsServiceTest {
       accountsService.transfer(1, 2, BigDecimal.TEN).block();
     });
   }
+
+  @Test
+  public void givenRejectedTransfer_whenRequestTransfer_thenOutcomeCounted() {
+    Account fromAccount = new Account(), toAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    toAccount.setCurrency("DKK");
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+
+    long before = meterRegistry.get("payments.transfer").tag("outcome", "insufficient_funds").timer().count();
+    long invalidBefore = meterRegistry.get("payments.transfer").tag("outcome", "invalid_amount").timer().count();
+
+    assertThrows(InsufficientFundsException.class, () -> {
+      accountsService.transfer(1, 2, BigDecimal.TEN).block();
+    });
+    assertThrows(InvalidAmountException.class, () -> {
+      accountsService.transfer(1, 2, BigDecimal.ZERO).block();
+    });
+
+    assertEquals(before + 1,
+        meterRegistry.get("payments.transfer").tag("outcome", "insufficient_funds").timer().count());
+    assertEquals(invalidBefore + 1,
+        meterRegistry.get("payments.transfer").tag("outcome", "invalid_amount").timer().count());
+  }
+
+  @Test
+  public void givenBatchWithFailingTransfer_whenRequestBatch_thenOtherTransfersStillComplete() {
+    Account fromAccount = new Account(), toAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+
+    List<TransferResult> results = accountsService.transferBatch(Flux.just(
+        new TransferRequest(1, 2, new BigDecimal("4")),
+        new TransferRequest(1, 2, new BigDecimal("20")),
+        new TransferRequest(1, 2, new BigDecimal("5"))), false)
+        .collectList().block();
+
+    assertEquals(List.of(TransferStatus.COMPLETED, TransferStatus.FAILED, TransferStatus.COMPLETED),
+        results.stream().map(TransferResult::getStatus).toList());
+    assertEquals(List.of(0L, 1L, 2L), results.stream().map(TransferResult::getIndex).toList());
+    assertEquals(new BigDecimal("1.00"), fromAccount.getBalance());
+    assertEquals(new BigDecimal("9.00"), toAccount.getBalance());
+  }
+
+  @Test
+  public void givenAtomicBatchWithFailingTransfer_whenRequestBatch_thenNoTransferApplied() {
+    Account fromAccount = new Account(), toAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+
+    // the second transfer only fits once the first has been applied
+    List<TransferResult> results = accountsService.transferBatch(Flux.just(
+        new TransferRequest(1, 2, new BigDecimal("6")),
+        new TransferRequest(1, 2, new BigDecimal("5"))), true)
+        .collectList().block();
+
+    assertEquals(List.of(TransferStatus.ABORTED, TransferStatus.FAILED),
+        results.stream().map(TransferResult::getStatus).toList());
+    assertEquals(new BigDecimal("10.00"), fromAccount.getBalance());
+    assertEquals(new BigDecimal("0.00"), toAccount.getBalance());
+  }
+
+  @Test
+  public void givenAtomicBatch_whenRequestBatch_thenEveryTransferApplied() {
+    Account fromAccount = new Account(), toAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+
+    // money moved on by the first transfer funds the second
+    List<TransferResult> results = accountsService.transferBatch(Flux.just(
+        new TransferRequest(1, 2, new BigDecimal("10")),
+        new TransferRequest(2, 1, new BigDecimal("3"))), true)
+        .collectList().block();
+
+    assertEquals(List.of(TransferStatus.COMPLETED, TransferStatus.COMPLETED),
+        results.stream().map(TransferResult::getStatus).toList());
+    assertEquals(new BigDecimal("3.00"), fromAccount.getBalance());
+    assertEquals(new BigDecimal("7.00"), toAccount.getBalance());
+  }
+
+  @Test
+  public void givenAccountDeletedWhileBatchApplied_whenRequestAtomicBatch_thenEveryTransferApplied() {
+    Account fromAccount = new Account(), toAccount = new Account(), otherAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+    otherAccount.setCurrency("DKK");
+    otherAccount.setBalance(BigDecimal.TEN);
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+    when(accountsRepo.getAccount(3)).thenReturn(Mono.just(otherAccount));
+    // a delete does not go through the transfer engine, so it can land between
+    // the transfers of a batch that has already been validated
+    doAnswer(invocation -> {
+      otherAccount.setStatus(AccountStatus.DELETED);
+      return null;
+    }).when(transactionRepo).save(anyLong(), eq(fromAccount.getId()), eq(TransactionType.DEBIT), anyLong(),
+        anyLong(), anyInt(), anyLong());
+
+    List<TransferResult> results = accountsService.transferBatch(Flux.just(
+        new TransferRequest(1, 2, new BigDecimal("4")),
+        new TransferRequest(3, 2, new BigDecimal("5"))), true)
+        .collectList().block();
+
+    assertEquals(List.of(TransferStatus.COMPLETED, TransferStatus.COMPLETED),
+        results.stream().map(TransferResult::getStatus).toList());
+    assertEquals(new BigDecimal("6.00"), fromAccount.getBalance());
+    assertEquals(new BigDecimal("5.00"), otherAccount.getBalance());
+    assertEquals(new BigDecimal("9.00"), toAccount.getBalance());
+  }
+
+  @Test
+  public void givenBatchWithNegativeAmount_whenRequestBatch_thenTransferRejectedAndNoMoneyMoved() {
+    Account fromAccount = new Account(), toAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+    toAccount.setBalance(BigDecimal.TEN);
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+
+    for (boolean atomic : new boolean[] { false, true }) {
+      List<TransferResult> results = accountsService.transferBatch(Flux.just(
+          new TransferRequest(1, 2, new BigDecimal("-5")),
+          new TransferRequest(1, 2, BigDecimal.ZERO)), atomic)
+          .collectList().block();
+
+      // an atomic batch aborts the rest once the first fails
+      assertEquals(List.of(TransferStatus.FAILED, atomic ? TransferStatus.ABORTED : TransferStatus.FAILED),
+          results.stream().map(TransferResult::getStatus).toList());
+      assertEquals(InvalidAmountException.INSTANCE.getMessage(), results.get(0).getError());
+      assertEquals(new BigDecimal("10.00"), fromAccount.getBalance());
+      assertEquals(new BigDecimal("10.00"), toAccount.getBalance());
+    }
+  }
+
+  @Test
+  public void givenAmountWithMoreDecimalsThanCurrency_whenRequestTransfer_thenInvalidAmountAndNoMoneyMoved() {
+    Account fromAccount = new Account(), toAccount = new Account();
+    fromAccount.setCurrency("DKK");
+    fromAccount.setBalance(BigDecimal.TEN);
+    toAccount.setCurrency("DKK");
+    toAccount.setBalance(BigDecimal.TEN);
+
+    when(accountsRepo.getAccount(1)).thenReturn(Mono.just(fromAccount));
+    when(accountsRepo.getAccount(2)).thenReturn(Mono.just(toAccount));
+
+    // neither rounded up to 10.01 nor down to a transfer of nothing
+    for (String amount : new String[] { "10.005", "0.001" }) {
+      assertThrows(InvalidAmountException.class, () -> {
+        accountsService.transfer(1, 2, new BigDecimal(amount)).block();
+      });
+      List<TransferResult> results = accountsService
+          .transferBatch(Flux.just(new TransferRequest(1, 2, new BigDecimal(amount))), true)
+          .collectList().block();
+      assertEquals(TransferStatus.FAILED, results.get(0).getStatus());
+    }
+    // trailing zeros are still exact
+    accountsService.transfer(1, 2, new BigDecimal("1.500")).block();
+
+    assertEquals(new BigDecimal("8.50"), fromAccount.getBalance());
+    assertEquals(new BigDecimal("11.50"), toAccount.getBalance());
+  }
 }
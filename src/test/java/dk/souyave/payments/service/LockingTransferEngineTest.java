@@ -0,0 +1,116 @@
+package dk.souyave.payments.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+@SpringBootTest
+public class LockingTransferEngineTest {
+
+  private static final int ACCOUNTS = 32;
+  private static final int TRANSFERS = 200_000;
+  private static final BigDecimal OPENING_BALANCE = BigDecimal.valueOf(100);
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private AccountsRepo accountsRepo;
+
+  @Autowired
+  private TransactionRepo transactionRepo;
+
+  @BeforeEach
+  @AfterEach
+  public void cleanUp() {
+    accountsRepo.clearAll();
+    transactionRepo.clearAll();
+  }
+
+  @Test
+  public void givenConcurrentTransfersBetweenFewAccounts_whenAllComplete_thenMoneyConservedAndNoOverdraft() {
+    transferRandomly(createAccounts(0));
+  }
+
+  @Test
+  public void givenStripedHotAccounts_whenConcurrentTransfersComplete_thenMoneyConservedAndNoOverdraft() {
+    List<Account> accounts = createAccounts(4);
+    long version = accounts.get(0).getVersion();
+
+    transferRandomly(accounts);
+
+    assertTrue(accounts.get(0).isStriped());
+    assertFalse(accounts.get(4).isStriped());
+    // striped credits move the version on, which never goes back once they
+    // are folded into the balance
+    long credited = accounts.get(0).getVersion();
+    assertTrue(credited > version);
+    accounts.get(0).setBalance(OPENING_BALANCE);
+    assertTrue(accounts.get(0).getVersion() > credited);
+  }
+
+  /**
+   * @param striped number of accounts, from the first, with striped balances
+   */
+  private List<Account> createAccounts(int striped) {
+    return IntStream.range(0, ACCOUNTS)
+        .mapToObj(i -> {
+          Account account = new Account();
+          if (i < striped) {
+            account.stripeBalance();
+          }
+          account.setCurrency("DKK");
+          account.setBalance(OPENING_BALANCE);
+          return accountsRepo.createAccount(account).block();
+        })
+        .toList();
+  }
+
+  private void transferRandomly(List<Account> accounts) {
+    AtomicInteger rejected = new AtomicInteger();
+
+    Flux.range(0, TRANSFERS)
+        .parallel()
+        .runOn(Schedulers.parallel())
+        .flatMap(i -> {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          int from = accounts.get(random.nextInt(ACCOUNTS)).getId();
+          int to = accounts.get(random.nextInt(ACCOUNTS)).getId();
+          return accountsService.transfer(from, to, BigDecimal.valueOf(random.nextInt(1, 50)))
+              .onErrorResume(InsufficientFundsException.class, e -> {
+                rejected.incrementAndGet();
+                return Mono.empty();
+              });
+        })
+        .sequential()
+        .blockLast();
+
+    BigDecimal total = accounts.stream()
+        .map(Account::getBalance)
+        .reduce(BigDecimal.ZERO, BigDecimal::add);
+
+    assertEquals(0, OPENING_BALANCE.multiply(BigDecimal.valueOf(ACCOUNTS)).compareTo(total));
+    assertTrue(accounts.stream().allMatch(account -> account.getMinorBalance() >= 0));
+    assertTrue(rejected.get() < TRANSFERS);
+  }
+}
@@ -0,0 +1,124 @@
+package dk.souyave.payments.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import dk.souyave.payments.domain.Account;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.repo.AccountsRepo;
+import dk.souyave.payments.repo.TransactionRepo;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@SpringBootTest(properties = { "payments.transfer.engine=sharded", "payments.transfer.shards=4" })
+public class ShardedTransferEngineTest {
+
+  private static final int ACCOUNTS = 32;
+  private static final int TRANSFERS = 100_000;
+  private static final BigDecimal OPENING_BALANCE = BigDecimal.valueOf(100);
+
+  @Autowired
+  private AccountsService accountsService;
+
+  @Autowired
+  private AccountsRepo accountsRepo;
+
+  @Autowired
+  private TransactionRepo transactionRepo;
+
+  @Autowired
+  private TransferEngine transferEngine;
+
+  @BeforeEach
+  @AfterEach
+  public void cleanUp() {
+    accountsRepo.clearAll();
+    transactionRepo.clearAll();
+  }
+
+  @Test
+  public void givenConcurrentTransfersAcrossShards_whenAllComplete_thenMoneyConservedAndNoOverdraft() {
+
+    List<Account> accounts = IntStream.range(0, ACCOUNTS)
+        .mapToObj(i -> {
+          Account account = new Account();
+          account.setCurrency("DKK");
+          account.setBalance(OPENING_BALANCE);
+          return accountsRepo.createAccount(account).block();
+        })
+        .toList();
+
+    AtomicInteger rejected = new AtomicInteger();
+
+    Flux.range(0, TRANSFERS)
+        .flatMap(i -> {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          int from = accounts.get(random.nextInt(ACCOUNTS)).getId();
+          int to = accounts.get(random.nextInt(ACCOUNTS)).getId();
+          return accountsService.transfer(from, to, BigDecimal.valueOf(random.nextInt(1, 50)))
+              .onErrorResume(InsufficientFundsException.class, e -> {
+                rejected.incrementAndGet();
+                return Mono.empty();
+              });
+        }, 1024)
+        .blockLast();
+
+    BigDecimal total = accounts.stream()
+        .map(Account::getBalance)
+        .reduce(BigDecimal.ZERO, BigDecimal::add);
+
+    assertEquals(0, OPENING_BALANCE.multiply(BigDecimal.valueOf(ACCOUNTS)).compareTo(total));
+    assertTrue(accounts.stream().allMatch(account -> account.getMinorBalance() >= 0));
+    assertTrue(rejected.get() < TRANSFERS);
+  }
+
+  @Test
+  public void givenSingleAccountWork_whenRun_thenRunOnTheAccountShardAndRejectionsPassedOn() {
+    Account account = new Account(5), sameShardAccount = new Account(9);
+
+    String thread = transferEngine.exclusive(account, () -> Thread.currentThread().getName()).block();
+
+    assertEquals("ledger-shard-1", thread);
+    assertEquals(thread, transferEngine.exclusive(sameShardAccount, () -> Thread.currentThread().getName()).block());
+    assertThrows(InsufficientFundsException.class, () -> transferEngine.exclusive(account, () -> {
+      throw InsufficientFundsException.INSTANCE;
+    }).block());
+  }
+
+  @Test
+  public void givenWorkFailingWithError_whenRun_thenErrorPassedOnAndShardKeptRunning() {
+    Account account = new Account(5), toAccount = new Account(6);
+    Error error = new Error("broken");
+
+    RuntimeException failed = assertThrows(RuntimeException.class, () -> transferEngine.exclusive(account, () -> {
+      throw error;
+    }).block(Duration.ofSeconds(5)));
+    assertSame(error, Exceptions.unwrap(failed));
+    failed = assertThrows(RuntimeException.class, () -> transferEngine.transfer(account, toAccount, () -> null,
+        transaction -> {
+          throw error;
+        }).block(Duration.ofSeconds(5)));
+    assertSame(error, Exceptions.unwrap(failed));
+
+    assertEquals("ledger-shard-1",
+        transferEngine.exclusive(account, () -> Thread.currentThread().getName()).block(Duration.ofSeconds(5)));
+    assertEquals("ledger-shard-2",
+        transferEngine.exclusive(toAccount, () -> Thread.currentThread().getName()).block(Duration.ofSeconds(5)));
+  }
+}
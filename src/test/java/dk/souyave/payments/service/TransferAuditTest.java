@@ -0,0 +1,106 @@
+package dk.souyave.payments.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import dk.souyave.payments.exception.InvalidAmountException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class TransferAuditTest {
+
+  // clear of the accounts of other tests, whose audit trails share the logger
+  private static final int FROM = 1_000_001, TO = 1_000_002;
+
+  private final Logger auditLogger = (Logger) LoggerFactory.getLogger("payments.audit");
+  private final Queue<ILoggingEvent> logged = new ConcurrentLinkedQueue<>();
+  // the audit trail is off in tests, see logback-test.xml
+  private Level level;
+
+  // other tests' audit writers may log at the same time, so not a ListAppender
+  private final AppenderBase<ILoggingEvent> appender = new AppenderBase<>() {
+    @Override
+    protected void append(ILoggingEvent event) {
+      logged.add(event);
+    }
+  };
+
+  @BeforeEach
+  public void attach() {
+    appender.start();
+    auditLogger.addAppender(appender);
+    level = auditLogger.getLevel();
+    auditLogger.setLevel(Level.INFO);
+  }
+
+  @AfterEach
+  public void detach() {
+    auditLogger.setLevel(level);
+    auditLogger.detachAppender(appender);
+  }
+
+  @Test
+  public void givenCompletedAndRejectedTransfers_whenAuditFlushed_thenStructuredEventsLoggedInOrder()
+      throws InterruptedException {
+    TransferAudit audit = new TransferAudit(16, 4, Duration.ofMillis(10));
+    Transaction transaction = Transaction.builder().id(7).accountId(1).amount(BigDecimal.TEN)
+        .type(TransactionType.DEBIT).build();
+
+    audit.completed(FROM, TO, BigDecimal.TEN, "DKK", transaction);
+    audit.failed(TO, FROM, BigDecimal.ONE, new InsufficientFundsException());
+    audit.failed(TO, FROM, BigDecimal.ZERO, InvalidAmountException.INSTANCE);
+    audit.destroy();
+
+    List<Map<String, Object>> events = events();
+    assertEquals(3, events.size());
+    assertEquals("completed", events.get(0).get("outcome"));
+    assertEquals(7L, events.get(0).get("transaction"));
+    assertEquals("DKK", events.get(0).get("currency"));
+    assertEquals("insufficient_funds", events.get(1).get("outcome"));
+    assertEquals(TO, events.get(1).get("from"));
+    assertEquals(BigDecimal.ONE, events.get(1).get("amount"));
+    assertEquals("invalid_amount", events.get(2).get("outcome"));
+  }
+
+  @Test
+  public void givenFullQueue_whenMoreTransfersAudited_thenDroppedAndCounted() throws InterruptedException {
+    // the writer only wakes up every minute, so the queue fills
+    TransferAudit audit = new TransferAudit(2, 2, Duration.ofMinutes(1));
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    audit.bindTo(registry);
+
+    for (int i = 0; i < 5; i++) {
+      audit.failed(FROM, TO, BigDecimal.ONE, new InsufficientFundsException());
+    }
+    double dropped = registry.get("payments.audit.dropped").functionCounter().count();
+    audit.destroy();
+
+    // the writer may have drained the first event before parking
+    assertEquals(5, dropped + events().size());
+  }
+
+  private List<Map<String, Object>> events() {
+    return logged.stream()
+        .map(event -> event.getKeyValuePairs().stream().collect(Collectors.toMap(kv -> kv.key, kv -> kv.value)))
+        .filter(event -> event.get("from").equals(FROM) || event.get("from").equals(TO))
+        .toList();
+  }
+}
@@ -0,0 +1,88 @@
+package dk.souyave.payments.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import dk.souyave.payments.domain.Transaction;
+import dk.souyave.payments.domain.TransactionType;
+import dk.souyave.payments.exception.IdempotencyKeyReusedException;
+import dk.souyave.payments.exception.InsufficientFundsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+public class TransferIdempotencyTest {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final TransferIdempotency transferIdempotency = new TransferIdempotency(registry, 100,
+      Duration.ofMinutes(1));
+  private final AtomicInteger executions = new AtomicInteger();
+
+  @Test
+  public void givenDuplicateInFlight_whenTransferRequested_thenBothShareOneExecution() {
+    Sinks.One<Transaction> inFlight = Sinks.one();
+    Transaction transaction = transaction();
+
+    Mono<Transaction> first = transferIdempotency.transfer("key", 1, 2, BigDecimal.TEN, () -> {
+      executions.incrementAndGet();
+      return inFlight.asMono();
+    });
+    Mono<Transaction> duplicate = transferIdempotency.transfer("key", 1, 2, BigDecimal.TEN, () -> {
+      executions.incrementAndGet();
+      return inFlight.asMono();
+    });
+
+    var firstResult = first.toFuture();
+    var duplicateResult = duplicate.toFuture();
+    inFlight.tryEmitValue(transaction);
+
+    assertSame(transaction, firstResult.join());
+    assertSame(transaction, duplicateResult.join());
+    assertEquals(1, executions.get());
+    assertEquals(1.0, registry.get("cache.gets").tag("cache", "payments.idempotency")
+        .tag("result", "hit").functionCounter().count());
+  }
+
+  @Test
+  public void givenKeyUsedForOtherTransfer_whenTransferRequested_thenRejected() {
+    transferIdempotency.transfer("key", 1, 2, BigDecimal.TEN, this::execute).block();
+
+    assertThrows(IdempotencyKeyReusedException.class, () -> {
+      transferIdempotency.transfer("key", 1, 3, BigDecimal.TEN, this::execute).block();
+    });
+    assertEquals(1, executions.get());
+  }
+
+  @Test
+  public void givenFailedTransfer_whenRetriedWithSameKey_thenExecutedAgain() {
+    assertThrows(InsufficientFundsException.class, () -> {
+      transferIdempotency.transfer("key", 1, 2, BigDecimal.TEN, () -> {
+        executions.incrementAndGet();
+        return Mono.error(new InsufficientFundsException());
+      }).block();
+    });
+
+    transferIdempotency.transfer("key", 1, 2, BigDecimal.TEN, this::execute).block();
+    assertEquals(2, executions.get());
+  }
+
+  private Mono<Transaction> execute() {
+    executions.incrementAndGet();
+    return Mono.just(transaction());
+  }
+
+  private static Transaction transaction() {
+    return Transaction.builder()
+        .accountId(1)
+        .amount(BigDecimal.TEN)
+        .type(TransactionType.DEBIT)
+        .build();
+  }
+}